@@ -0,0 +1,90 @@
+package data;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the country names in the tables. Each name is stored once
+ * and identified by a small id, so an IPAddress holds a short instead of a
+ * reference to its own copy of the name. Id 0 stands for no country.
+ * Lookups are lock-free, and new names are registered under a lock, so
+ * tables can be parsed in parallel.
+ *
+ * @author Ruben Ramirez
+ */
+
+public final class Countries {
+
+    public static final int MAX_COUNTRIES = Short.MAX_VALUE;
+
+    private static final ConcurrentHashMap<String, Short> ids = new ConcurrentHashMap<>();
+    // Names by id, replaced by a larger copy when full. Written under the
+    // lock before the id is published in the map.
+    private static volatile String[] names = new String[256];
+    private static int count = 0;
+
+    private Countries() {
+    }
+
+    /**
+     * Returns the id of a country, registering the name if it is new
+     * @param name, the country name, or null
+     * @return short, the id of the country, 0 for null
+     * @throws IllegalStateException if the dictionary is full
+     */
+    public static short id(String name) {
+        if(name == null)
+            return 0;
+        Short id = ids.get(name);
+        return id != null ? id : register(name);
+    }
+
+    /**
+     * Returns the id of a country without registering it
+     * @param name, the country name, or null
+     * @return int, the id of the country, 0 for null, -1 if it is not registered
+     */
+    public static int find(String name) {
+        if(name == null)
+            return 0;
+        Short id = ids.get(name);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Returns the name of a country
+     * @param id, the id returned by id(String)
+     * @return String, the country name, null for id 0
+     * @throws IllegalArgumentException if no country has the id
+     */
+    public static String name(int id) {
+        String[] table = names;
+        if(id < 0 || id >= table.length || (id > 0 && table[id] == null))
+            throw new IllegalArgumentException("Unknown country id: " + id);
+        return table[id];
+    }
+
+    /**
+     * Returns the number of countries registered so far
+     * @return int, the number of countries, which is also the largest id
+     */
+    public static synchronized int size() {
+        return count;
+    }
+
+    private static synchronized short register(String name) {
+        Short id = ids.get(name);
+        if(id != null)
+            return id;
+        if(count == MAX_COUNTRIES)
+            throw new IllegalStateException("Too many countries");
+
+        String[] table = names;
+        if(count + 1 == table.length)
+            table = Arrays.copyOf(table, table.length * 2);
+        table[++count] = name;
+        names = table;
+        ids.put(name, (short) count);
+        return (short) count;
+    }
+}
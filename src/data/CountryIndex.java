@@ -0,0 +1,344 @@
+package data;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import data_structures.AVLTree;
+import data_structures.LinkedList;
+import data_structures.OrderedIndex;
+
+/**
+ * Reverse index from each country to the IPv4 address ranges that map to
+ * it, kept next to an AVLTree of table entries. Each entry of the table
+ * starts a block that runs up to the next entry, and runs of adjacent
+ * blocks with the same country are coalesced into one [start, end) range.
+ * The ranges partition the address space from the first entry up.
+ *
+ * The index is built in one pass over the sorted tree. Updates go through
+ * the index, which changes the tree and fixes the few ranges around the
+ * changed block in O(log n) time, so a country's ranges never require a
+ * scan of the table.
+ *
+ * @author Ruben Ramirez
+ */
+
+public class CountryIndex implements OrderedIndex<IPAddress> {
+
+    // End of the IPv4 address space, just past 255.255.255.255
+    private static final long END = 1L << 32;
+
+    private final AVLTree<IPAddress> tree;
+    // Every range in address order, and the ranges of each country by id
+    private final AVLTree<Range> ranges = new AVLTree<>();
+    @SuppressWarnings("unchecked")
+    private AVLTree<Range>[] byCountry = (AVLTree<Range>[]) new AVLTree<?>[256];
+    private final Range probe = new Range(0, 0, (short) 0);
+
+    /**
+     * Creates an index over the entries of a tree of IPv4 addresses. The
+     * tree must hold at most one entry per address, and should only be
+     * changed through the index from now on.
+     * @param tree, the table entries
+     * @throws UnsupportedOperationException if the tree holds IPv6 addresses
+     */
+    public CountryIndex(AVLTree<IPAddress> tree) {
+        this.tree = tree;
+
+        Range[] all = build(tree);
+        ranges.bulkLoad(all);
+
+        // Count the ranges of each country, then split them out in order
+        int[] counts = new int[Countries.MAX_COUNTRIES + 1];
+        for(Range range : all)
+            counts[range.country]++;
+        Range[][] lists = new Range[counts.length][];
+        for(Range range : all) {
+            if(lists[range.country] == null)
+                lists[range.country] = new Range[counts[range.country]];
+            Range[] list = lists[range.country];
+            list[list.length - counts[range.country]--] = range;
+        }
+        for(int id = 0; id < lists.length; id++)
+            if(lists[id] != null)
+                countryTree(id).bulkLoad(lists[id]);
+    }
+
+    /**
+     * Adds an entry to the tree, replacing any entry with the same address,
+     * and updates the ranges around its block.
+     * @param obj, the entry to be added
+     * @return true once the entry is added
+     * @throws UnsupportedOperationException for IPv6 addresses
+     */
+    public boolean add(IPAddress obj) {
+        long start = key(obj);
+        short country = obj.getCountryId();
+        IPAddress old = tree.get(obj);
+
+        if(old != null) {
+            if(old.getCountryId() == country) {
+                tree.delete(old);
+                tree.add(obj);
+                return true;
+            }
+            delete(old);
+        }
+
+        int rank = tree.rank(obj);
+        IPAddress previous = rank > 0 ? tree.select(rank - 1) : null;
+        long next = rank < tree.size() ? key(tree.select(rank)) : END;
+        tree.add(obj);
+
+        // The block before the first entry joins the first range, or starts its own
+        if(previous == null) {
+            Range first = next < END ? rangeAt(next) : null;
+            if(first != null && first.country == country)
+                first.start = start;
+            else
+                insert(new Range(start, next, country));
+            return true;
+        }
+
+        // Split the block of the previous entry, and the range holding it
+        Range range = rangeHolding(start);
+        if(range.country == country)
+            return true;
+        long end = range.end;
+        range.end = start;
+        if(next < end)
+            insert(new Range(next, end, range.country));
+
+        Range following = next == end && next < END ? rangeAt(next) : null;
+        if(following != null && following.country == country)
+            following.start = start;
+        else
+            insert(new Range(start, next, country));
+        return true;
+    }
+
+    /**
+     * Removes the entry with the same address as the one entered, handing
+     * its block to the previous entry, and updates the ranges around it.
+     * @param obj, the entry to be removed
+     * @return IPAddress, the entry that was removed, null if not found
+     */
+    public IPAddress delete(IPAddress obj) {
+        IPAddress entry = tree.get(obj);
+        if(entry == null)
+            return null;
+
+        long start = key(entry);
+        int rank = tree.rank(entry);
+        IPAddress previous = rank > 0 ? tree.select(rank - 1) : null;
+        long next = rank + 1 < tree.size() ? key(tree.select(rank + 1)) : END;
+        tree.delete(entry);
+
+        if(previous != null && previous.getCountryId() == entry.getCountryId())
+            return entry;
+
+        // The entry starts a range, which now loses the entry's block
+        Range range = rangeAt(start);
+        Range left = previous == null ? null : rangeHolding(start - 1);
+        if(range.end > next) {
+            range.start = next;
+            if(left != null)
+                left.end = next;
+            return entry;
+        }
+        remove(range);
+        if(left != null) {
+            Range following = next < END ? rangeAt(next) : null;
+            if(following != null && following.country == left.country) {
+                left.end = following.end;
+                remove(following);
+            }
+            else
+                left.end = next;
+        }
+        return entry;
+    }
+
+    public IPAddress get(IPAddress obj) {
+        return tree.get(obj);
+    }
+
+    public IPAddress floor(IPAddress obj) {
+        return tree.floor(obj);
+    }
+
+    public int size() {
+        return tree.size();
+    }
+
+    public boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    public Iterator<IPAddress> iterator() {
+        return tree.iterator();
+    }
+
+    /**
+     * Returns the ranges of a country as pairs of unsigned IPv4 addresses,
+     * start then end, in address order. The end is exclusive and taken
+     * modulo 2^32, so a range reaching the top of the address space ends at 0.
+     * @param country, the country name
+     * @return int[], the start and end of each range
+     */
+    public int[] ranges(String country) {
+        int id = Countries.find(country);
+        return id < 0 || id >= byCountry.length || byCountry[id] == null ?
+                new int[0] : ranges(byCountry[id]);
+    }
+
+    /**
+     * Returns the ranges of a country as CIDR blocks, such as "41.0.0.0/11",
+     * in address order. Ranges that are not aligned become several blocks.
+     * @param country, the country name
+     * @return LinkedList, the blocks covering exactly the country's ranges
+     */
+    public LinkedList<String> cidrs(String country) {
+        int[] pairs = ranges(country);
+        LinkedList<String> blocks = new LinkedList<>();
+
+        for(int i = 0; i < pairs.length; i += 2) {
+            long start = pairs[i] & 0xFFFFFFFFL;
+            long end = pairs[i + 1] == 0 ? END : pairs[i + 1] & 0xFFFFFFFFL;
+            while(start < end) {
+                // Largest aligned block at start that fits in the range
+                long size = start == 0 ? END : Long.lowestOneBit(start);
+                while(size > end - start)
+                    size >>= 1;
+                blocks.addLast(IPAddress.format(0, 0x0000FFFF00000000L | start) + "/" +
+                        (32 - Long.numberOfTrailingZeros(size)));
+                start += size;
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Returns the number of coalesced ranges over all countries
+     * @return int, the number of ranges
+     */
+    public int rangeCount() {
+        return ranges.size();
+    }
+
+    /**
+     * Verifies that the ranges match the ones built from the tree in one pass
+     * @throws IllegalStateException if the ranges are out of date
+     */
+    public void checkInvariants() {
+        Range[] expected = build(tree);
+        int total = 0, i = 0;
+
+        if(ranges.size() != expected.length)
+            throw new IllegalStateException("Expected " + expected.length + " ranges, found " +
+                    ranges.size());
+        for(Range range : ranges)
+            if(!range.same(expected[i++]))
+                throw new IllegalStateException("Bad range " + range + ", expected " + expected[i - 1]);
+        for(AVLTree<Range> list : byCountry)
+            if(list != null) {
+                for(Range range : list)
+                    if(ranges.get(range) != range)
+                        throw new IllegalStateException("Stale country range " + range);
+                total += list.size();
+            }
+        if(total != ranges.size())
+            throw new IllegalStateException("Country ranges do not add up");
+    }
+
+    // Coalesces the blocks of a sorted tree into ranges in one pass
+    private static Range[] build(AVLTree<IPAddress> tree) {
+        Range[] all = new Range[16];
+        int count = 0;
+        Range current = null;
+
+        for(IPAddress entry : tree) {
+            long start = key(entry);
+            if(current != null && current.country == entry.getCountryId())
+                continue;
+            if(current != null)
+                current.end = start;
+            current = new Range(start, END, entry.getCountryId());
+            if(count == all.length)
+                all = Arrays.copyOf(all, count * 2);
+            all[count++] = current;
+        }
+        return Arrays.copyOf(all, count);
+    }
+
+    private static int[] ranges(AVLTree<Range> list) {
+        int[] pairs = new int[2 * list.size()];
+        int i = 0;
+
+        for(Range range : list) {
+            pairs[i++] = (int) range.start;
+            pairs[i++] = (int) range.end;
+        }
+        return pairs;
+    }
+
+    private static long key(IPAddress entry) {
+        return entry.intKey() & 0xFFFFFFFFL;
+    }
+
+    private AVLTree<Range> countryTree(int id) {
+        if(id >= byCountry.length)
+            byCountry = Arrays.copyOf(byCountry, Math.max(id + 1, byCountry.length * 2));
+        if(byCountry[id] == null)
+            byCountry[id] = new AVLTree<>();
+        return byCountry[id];
+    }
+
+    // Returns the range starting at an address
+    private Range rangeAt(long start) {
+        probe.start = start;
+        return ranges.get(probe);
+    }
+
+    // Returns the range holding an address
+    private Range rangeHolding(long address) {
+        probe.start = address;
+        return ranges.floor(probe);
+    }
+
+    private void insert(Range range) {
+        ranges.add(range);
+        countryTree(range.country).add(range);
+    }
+
+    private void remove(Range range) {
+        ranges.delete(range);
+        countryTree(range.country).delete(range);
+    }
+
+    /*
+     * Range of addresses [start, end) of one country. Ordered by start,
+     * which only moves between the neighboring ranges, so a range can be
+     * adjusted in place inside the trees.
+     */
+    private static class Range implements Comparable<Range> {
+        private long start, end;
+        private final short country;
+
+        public Range(long start, long end, short country) {
+            this.start = start;
+            this.end = end;
+            this.country = country;
+        }
+
+        public int compareTo(Range range) {
+            return start < range.start ? -1 : start > range.start ? 1 : 0;
+        }
+
+        public boolean same(Range range) {
+            return start == range.start && end == range.end && country == range.country;
+        }
+
+        public String toString() {
+            return "[" + start + ", " + end + ") " + Countries.name(country);
+        }
+    }
+}
@@ -1,77 +1,329 @@
 package data;
 
+import data_structures.IntKeyed;
+import data_structures.Located;
+import data_structures.LongHashed;
 import searchtrees.*;
 
 /**
  * Class that stores an ip address along with it's associated country,
  * latitude and longitude values.
- * Class implements the Comparable interface. 
+ * Class implements the Comparable, Located and LongHashed interfaces, and the
+ * IntKeyed interface for IPv4 addresses. 
+ * 
+ * Entries are kept compact since a table holds one per address block.
+ * The address is stored only in its 128-bit numeric form and formatted
+ * on demand, the country as an id into the shared Countries dictionary,
+ * and the coordinates as shorts in hundredths of a degree, which is as
+ * precise as the table.
  * 
  * @author Ruben Ramirez 
  */
 
-public class IPAddress implements Comparable<IPAddress>{
+public class IPAddress implements Comparable<IPAddress>, IntKeyed, Located, LongHashed {
   
-	public String ip_address;
-	public String country;
-	public double latitude;
-	public double longitude;
+	// Coordinates are stored in hundredths of a degree
+	public static final double COORDINATE_SCALE = 100;
+	
+	// 128-bit numeric form of the address. IPv4 addresses are stored in the
+	// IPv4-mapped range ::ffff:0:0/96 so mixed tables sort consistently.
+	private long high;
+	private long low;
+	private short country;
+	private short latitude;
+	private short longitude;
+	
+	private static final long V4_PREFIX = 0x0000FFFF00000000L;
 	
     // Default constructor
 	public IPAddress() {
-		this.ip_address = null;
-		this.country = null;
-		this.latitude = 0;
-		this.longitude = 0;
+		this(0, 0, null, 0, 0);
 	}
 	
 	public IPAddress(String ip, String country, double lat, double lon) {
-		this.ip_address = ip;
-		this.country = country;
-		this.latitude = lat;
-		this.longitude = lon;
+		parse(ip);
+		this.country = Countries.id(country);
+		this.latitude = scale(lat, 90, "Latitude");
+		this.longitude = scale(lon, 180, "Longitude");
+	}
+	
+	// Creates an entry from the numeric form of an address
+	public IPAddress(long high, long low, String country, double lat, double lon) {
+		this.high = high;
+		this.low = low;
+		this.country = Countries.id(country);
+		this.latitude = scale(lat, 90, "Latitude");
+		this.longitude = scale(lon, 180, "Longitude");
+	}
+	
+	/**
+	 * Returns the address as text, in dotted form for IPv4 addresses
+	 * @return String, the formatted address
+	 */
+	public String getAddress() {
+		return format(high, low);
+	}
+	
+	/**
+	 * Returns the country the address block maps to
+	 * @return String, the country name, null if there is none
+	 */
+	public String getCountry() {
+		return Countries.name(country);
+	}
+	
+	/**
+	 * Returns the id of the country in the Countries dictionary
+	 * @return short, the country id, 0 if there is none
+	 */
+	public short getCountryId() {
+		return country;
+	}
+	
+	/**
+	 * Returns the latitude, to a hundredth of a degree
+	 * @return double, the latitude in degrees
+	 */
+	public double getLatitude() {
+		return latitude / COORDINATE_SCALE;
+	}
+	
+	/**
+	 * Returns the longitude, to a hundredth of a degree
+	 * @return double, the longitude in degrees
+	 */
+	public double getLongitude() {
+		return longitude / COORDINATE_SCALE;
+	}
+	
+	/**
+	 * Returns the upper 64 bits of the numeric address
+	 * @return long, the high half of the address
+	 */
+	public long getHigh() {
+		return high;
+	}
+	
+	/**
+	 * Returns the lower 64 bits of the numeric address
+	 * @return long, the low half of the address
+	 */
+	public long getLow() {
+		return low;
+	}
+	
+	// Rounds a coordinate to the stored fixed-point form
+	private static short scale(double degrees, int limit, String name) {
+		if(!(Math.abs(degrees) <= limit))
+			throw new IllegalArgumentException(name + " out of range: " + degrees);
+		return (short) Math.round(degrees * COORDINATE_SCALE);
+	}
+	
+	/**
+	 * Returns true if the address is an IPv4 address.
+	 * @return true for IPv4 addresses, false for IPv6 addresses
+	 */
+	public boolean isIPv4() {
+		return high == 0 && (low & 0xFFFFFFFF00000000L) == V4_PREFIX;
+	}
+	
+	/**
+	 * Returns the IPv4 address packed into an int, for trees keyed by 
+	 * 32-bit values.
+	 * @return the IPv4 address as an unsigned int
+	 * @throws UnsupportedOperationException for IPv6 addresses
+	 */
+	public int intKey() {
+		if(!isIPv4())
+			throw new UnsupportedOperationException("Not an IPv4 address: " + getAddress());
+		return (int) low;
+	}
+	
+	/**
+	 * Formats a 128-bit address as text. IPv4-mapped addresses are written
+	 * in dotted form, and IPv6 addresses in the canonical form of RFC 5952,
+	 * with the longest run of zero groups compressed to "::".
+	 * @param high, the upper 64 bits of the address
+	 * @param low, the lower 64 bits of the address
+	 * @return the address as a string
+	 */
+	public static String format(long high, long low) {
+		StringBuilder text = new StringBuilder(39);
+		
+		if(high == 0 && (low & 0xFFFFFFFF00000000L) == V4_PREFIX) {
+			for(int shift = 24; shift >= 0; shift -= 8) {
+				text.append((low >>> shift) & 0xFF);
+				if(shift > 0)
+					text.append('.');
+			}
+			return text.toString();
+		}
+		
+		// Find the longest run of two or more zero groups
+		int bestStart = -1, bestLength = 1, runStart = -1;
+		for(int i = 0; i <= 8; i++) {
+			if(i < 8 && group(high, low, i) == 0) {
+				if(runStart < 0)
+					runStart = i;
+			}
+			else if(runStart >= 0) {
+				if(i - runStart > bestLength) {
+					bestStart = runStart;
+					bestLength = i - runStart;
+				}
+				runStart = -1;
+			}
+		}
+		
+		for(int i = 0; i < 8; i++) {
+			if(i == bestStart) {
+				text.append("::");
+				i += bestLength - 1;
+				continue;
+			}
+			if(text.length() > 0 && text.charAt(text.length() - 1) != ':')
+				text.append(':');
+			text.append(Integer.toHexString(group(high, low, i)));
+		}
+		return text.toString();
+	}
+	
+	// Returns one of the eight 16-bit groups of an address
+	private static int group(long high, long low, int i) {
+		long half = i < 4 ? high : low;
+		return (int) (half >>> (48 - 16 * (i & 3))) & 0xFFFF;
+	}
+	
+	/**
+	 * Parses a dotted IPv4 or colon separated IPv6 address into the
+	 * high and low key fields.
+	 * @param ip, the address to be parsed
+	 */
+	private void parse(String ip) {
+		if(ip == null)
+			throw new IllegalArgumentException("IP address is null");
+		if(ip.indexOf(':') < 0) {
+			high = 0;
+			low = V4_PREFIX | (parseIPv4(ip, 0, ip.length()) & 0xFFFFFFFFL);
+			return;
+		}
+		
+		int[] groups = new int[8];
+		int count = 0, gap = -1, i = 0, end = ip.length();
+		
+		if(ip.startsWith("::")) {
+			gap = 0;
+			i = 2;
+		}
+		while(i < end) {
+			int j = i;
+			while(j < end && ip.charAt(j) != ':')
+				j++;
+			
+			// Embedded IPv4 address in the last two groups
+			if(j == end && ip.indexOf('.', i) >= 0) {
+				if(count > 6)
+					throw new IllegalArgumentException("Invalid IPv6 address: " + ip);
+				int v4 = parseIPv4(ip, i, end);
+				groups[count++] = v4 >>> 16;
+				groups[count++] = v4 & 0xFFFF;
+				break;
+			}
+			if(j == i || j - i > 4 || count == 8)
+				throw new IllegalArgumentException("Invalid IPv6 address: " + ip);
+			
+			int group = 0;
+			for(int k = i; k < j; k++) {
+				int digit = Character.digit(ip.charAt(k), 16);
+				if(digit < 0)
+					throw new IllegalArgumentException("Invalid IPv6 address: " + ip);
+				group = (group << 4) | digit;
+			}
+			groups[count++] = group;
+			
+			i = j + 1;
+			if(j + 1 < end && ip.charAt(j + 1) == ':') {
+				if(gap >= 0)
+					throw new IllegalArgumentException("Invalid IPv6 address: " + ip);
+				gap = count;
+				i = j + 2;
+			}
+			else if(j + 1 == end)
+				throw new IllegalArgumentException("Invalid IPv6 address: " + ip);
+		}
+		
+		// Expand the "::" gap by shifting the trailing groups right
+		if(gap >= 0) {
+			int shift = 8 - count;
+			for(int k = count - 1; k >= gap; k--) {
+				groups[k + shift] = groups[k];
+				groups[k] = 0;
+			}
+		}
+		else if(count != 8)
+			throw new IllegalArgumentException("Invalid IPv6 address: " + ip);
+		
+		high = ((long) groups[0] << 48) | ((long) groups[1] << 32) |
+				((long) groups[2] << 16) | groups[3];
+		low = ((long) groups[4] << 48) | ((long) groups[5] << 32) |
+				((long) groups[6] << 16) | groups[7];
+	}
+	
+	/**
+	 * Parses the dotted IPv4 address found between two positions of a string
+	 * @return the address packed into an int
+	 */
+	private static int parseIPv4(String ip, int start, int end) {
+		int value = 0, octet = 0, digits = 0, dots = 0;
+		
+		for(int i = start; i < end; i++) {
+			char c = ip.charAt(i);
+			if(c == '.') {
+				if(digits == 0 || ++dots > 3)
+					throw new IllegalArgumentException("Invalid IPv4 address: " + ip);
+				value = (value << 8) | octet;
+				octet = digits = 0;
+			}
+			else if(c >= '0' && c <= '9' && digits < 3) {
+				octet = octet * 10 + (c - '0');
+				digits++;
+				if(octet > 255)
+					throw new IllegalArgumentException("Invalid IPv4 address: " + ip);
+			}
+			else
+				throw new IllegalArgumentException("Invalid IPv4 address: " + ip);
+		}
+		if(digits == 0 || dots != 3)
+			throw new IllegalArgumentException("Invalid IPv4 address: " + ip);
+		return (value << 8) | octet;
 	}
 
 	/**
-	 * Compares two IPAddress objects by evaluating the String 
-	 * value associated with the ip address. Returns 0 if the
-	 * objects are equal. 
+	 * Compares two IPAddress objects by evaluating the 128-bit 
+	 * numeric value of the ip address as an unsigned number. 
+	 * Returns 0 if the objects are equal. 
 	 * @param obj, the IPAddress object to be compared.
 	 * @return an integer value indicating whether one object
 	 * is greater than, less than, or equal two the the other.
 	 */
 	public int compareTo(IPAddress ip) {
-		String one = "", two = "";
-        int i = 0, j = 0;
-        
-		for(int k = 0; k < 4; k++) {
-			while(i < ip_address.length() && ip_address.charAt(i) != '.')
-				one = one + ip_address.charAt(i++);
-			while(j < ip.ip_address.length() && ip.ip_address.charAt(j) != '.')
-				two = two + ip.ip_address.charAt(j++);
-			
-            if(one.length() == two.length() && one.compareTo(two) != 0)
-            	return one.compareTo(two);
-            else if(one.length() > two.length())
-            	return 1;
-            else if(one.length() < two.length())
-            	return -1;
-            i++;
-			j++;
-        }
+		if(high != ip.high)
+			return (high + Long.MIN_VALUE) < (ip.high + Long.MIN_VALUE) ? -1 : 1;
+		if(low != ip.low)
+			return (low + Long.MIN_VALUE) < (ip.low + Long.MIN_VALUE) ? -1 : 1;
 		return 0;
 	}
 	
 	/**
-	 * Generates and returns a hash code value using the string 
-	 * ip_address instance variable.
+	 * Generates and returns a hash code value using the bytes of
+	 * the numeric address.
 	 * @return hash, the calculated integer hash value
 	 */
 	public int hashCode() {
 		int hash = 7;
 		
-		for(int i = 0; i < ip_address.length(); i++)
-			hash = (hash << 5) + ip_address.charAt(i);
+		for(int i = 0; i < 16; i++)
+			hash = (hash << 5) + byteAt(i);
 		return hash;
 	}
 	
@@ -82,9 +334,9 @@ public class IPAddress implements Comparable<IPAddress>{
 	public int hashOne() {
       long hash = 3;
       
-      for(int i = 0; i < ip_address.length(); i++) 
-          hash = hash * ip_address.charAt(i);
-      return (int) hash;
+      for(int i = 0; i < 16; i++) 
+          hash = hash * 31 + byteAt(i);
+      return (int) (hash ^ (hash >>> 32));
 	}
 	
 	/**
@@ -94,8 +346,8 @@ public class IPAddress implements Comparable<IPAddress>{
 	public int hashTwo() {
       int hash = 1;
       
-      for(int i = 0; i < ip_address.length(); ++i) {
-          hash = hash + ip_address.charAt(i);
+      for(int i = 0; i < 16; ++i) {
+          hash = hash + byteAt(i);
           hash = hash + (hash << 10);
           hash = hash ^ (hash >> 6);
       } 
@@ -112,24 +364,42 @@ public class IPAddress implements Comparable<IPAddress>{
 	 * @return hash, the calculated integer hash value
 	 */
 	public int hashThree() {
-        int hash = 0;
+        int hash = 0x811c9dc5;
         int prime = 0x01000193;
-        long offset = 0x811c9dc5;
         
-        for(int i = 0; i < ip_address.length(); ++i) {
+        for(int i = 0; i < 16; ++i) {
             hash = hash * prime;
-            hash = hash ^ ip_address.charAt(i);
+            hash = hash ^ byteAt(i);
         }
         return hash;
 	}
+	
+	/**
+	 * Returns a 64-bit hash of the numeric address for Bloom filters. Mixes
+	 * the two halves of the key with the SplitMix64 finalizer instead of
+	 * walking its sixteen bytes like the hashes above.
+	 * @return hash, the calculated long hash value
+	 */
+	public long longHash() {
+		long hash = high * 0x9E3779B97F4A7C15L + low;
+		hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+		return hash ^ (hash >>> 31);
+	}
+	
+	// Returns one of the sixteen bytes of the address, most significant first
+	private int byteAt(int i) {
+		long half = i < 8 ? high : low;
+		return (int) (half >>> (56 - 8 * (i & 7))) & 0xFF;
+	}
 
 	/**
-	 * Compares the objects by using the ip_address instance variable
+	 * Compares the objects by using the numeric ip address
 	 * @param IPAddress, the object to be compared
-	 * @return true if the ip_addresses are the same, false otherwise
+	 * @return true if the addresses are the same, false otherwise
 	 */
 	public boolean equals(IPAddress obj) {
-		return obj.equals(ip_address);
+		return obj != null && high == obj.high && low == obj.low;
 	}
 	
 	/**
@@ -137,8 +407,8 @@ public class IPAddress implements Comparable<IPAddress>{
 	 * @return the string containing the ip address of the object.
 	 */
 	public String toString() {
-		return "IPAddress [ip_address = " + ip_address + ", country = " + country + 
-				", latitude = " + latitude + ", longitude = " + longitude + "]";
+		return "IPAddress [ip_address = " + getAddress() + ", country = " + getCountry() + 
+				", latitude = " + getLatitude() + ", longitude = " + getLongitude() + "]";
 	}
 }
    
\ No newline at end of file
@@ -0,0 +1,256 @@
+package data;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary snapshot of a sorted table of IPAddress entries, such as
+ * the contents of an AVLTree or SplayTree. Loading a snapshot and bulk
+ * building the trees from it avoids parsing the TSV file on restart.
+ *
+ * Layout, with all integers written as unsigned LEB128 varints:
+ *   magic "IPSN", format version byte, flags byte (bit 0: IPv4 only)
+ *   entry count
+ *   country dictionary: count, then each name as length and UTF-8 bytes
+ *   entries in increasing address order:
+ *     address as a delta from the previous entry (32 bits for IPv4-only
+ *     snapshots; otherwise the high and low 64-bit halves, where the low
+ *     half is a delta only when the high half is unchanged)
+ *     country id (0 for none, otherwise index into the dictionary plus 1)
+ *     latitude and longitude in hundredths of a degree, zigzag encoded
+ *   CRC32 of everything before it, as four big-endian bytes
+ *
+ * @author Ruben Ramirez
+ */
+
+public class Snapshot {
+
+    public static final int VERSION = 1;
+
+    private static final byte[] MAGIC = { 'I', 'P', 'S', 'N' };
+    private static final int IPV4_ONLY = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Writes a snapshot of entries given in strictly increasing order
+     * @param file, the snapshot file to be written
+     * @param sorted, the entries, such as an AVLTree of IPAddress objects
+     * @throws IOException if the file cannot be written
+     * @throws IllegalArgumentException if the entries are not strictly increasing
+     */
+    public static void write(File file, Iterable<IPAddress> sorted) throws IOException {
+        try(OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            write(out, sorted);
+        }
+    }
+
+    /**
+     * Writes a snapshot of entries given in strictly increasing order
+     * @param out, the stream the snapshot is written to
+     * @param sorted, the entries, such as an AVLTree of IPAddress objects
+     * @throws IOException if the stream cannot be written
+     * @throws IllegalArgumentException if the entries are not strictly increasing
+     */
+    public static void write(OutputStream out, Iterable<IPAddress> sorted) throws IOException {
+        HashMap<String, Integer> ids = new HashMap<>();
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        boolean v4Only = true;
+        int count = 0;
+
+        // First pass builds the dictionary and checks the order
+        IPAddress previous = null;
+        for(IPAddress entry : sorted) {
+            if(previous != null && previous.compareTo(entry) >= 0)
+                throw new IllegalArgumentException("Entries are not strictly increasing at " + entry);
+            String country = entry.getCountry();
+            if(country != null && !ids.containsKey(country)) {
+                ids.put(country, ids.size() + 1);
+                byte[] name = country.getBytes(UTF8);
+                writeVarint(dictionary, name.length);
+                dictionary.write(name);
+            }
+            v4Only &= entry.isIPv4();
+            previous = entry;
+            count++;
+        }
+
+        long high = 0, low = 0;
+        for(IPAddress entry : sorted) {
+            if(v4Only)
+                writeVarint(body, (entry.getLow() - low) & 0xFFFFFFFFL);
+            else {
+                writeVarint(body, entry.getHigh() - high);
+                writeVarint(body, entry.getHigh() == high ? entry.getLow() - low : entry.getLow());
+            }
+            high = entry.getHigh();
+            low = entry.getLow();
+
+            String country = entry.getCountry();
+            writeVarint(body, country == null ? 0 : ids.get(country));
+            writeVarint(body, zigzag(Math.round(entry.getLatitude() * IPAddress.COORDINATE_SCALE)));
+            writeVarint(body, zigzag(Math.round(entry.getLongitude() * IPAddress.COORDINATE_SCALE)));
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(MAGIC);
+        header.write(VERSION);
+        header.write(v4Only ? IPV4_ONLY : 0);
+        writeVarint(header, count);
+        writeVarint(header, ids.size());
+
+        CRC32 crc = new CRC32();
+        for(ByteArrayOutputStream part : new ByteArrayOutputStream[] { header, dictionary, body }) {
+            byte[] bytes = part.toByteArray();
+            crc.update(bytes, 0, bytes.length);
+            out.write(bytes);
+        }
+        long checksum = crc.getValue();
+        out.write(new byte[] { (byte) (checksum >>> 24), (byte) (checksum >>> 16),
+                (byte) (checksum >>> 8), (byte) checksum });
+    }
+
+    /**
+     * Reads a snapshot back into entries sorted by address, ready for a
+     * bulk build of the trees
+     * @param file, the snapshot file to be read
+     * @return IPAddress[], the entries in increasing order
+     * @throws IOException if the file cannot be read, or is corrupt or of
+     * an unsupported version
+     */
+    public static IPAddress[] read(File file) throws IOException {
+        return read(Files.readAllBytes(file.toPath()));
+    }
+
+    /**
+     * Reads a snapshot held in memory
+     * @param data, the bytes of the snapshot
+     * @return IPAddress[], the entries in increasing order
+     * @throws IOException if the snapshot is corrupt or of an unsupported version
+     */
+    public static IPAddress[] read(byte[] data) throws IOException {
+        if(data.length < MAGIC.length + 6)
+            throw new IOException("Snapshot is truncated");
+        for(int i = 0; i < MAGIC.length; i++)
+            if(data[i] != MAGIC[i])
+                throw new IOException("Not a snapshot file");
+        if(data[MAGIC.length] != VERSION)
+            throw new IOException("Unsupported snapshot version " + data[MAGIC.length]);
+
+        int end = data.length - 4;
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, end);
+        long stored = ((data[end] & 0xFFL) << 24) | ((data[end + 1] & 0xFFL) << 16) |
+                ((data[end + 2] & 0xFFL) << 8) | (data[end + 3] & 0xFFL);
+        if(crc.getValue() != stored)
+            throw new IOException("Snapshot checksum mismatch");
+
+        Reader in = new Reader(data, MAGIC.length + 1, end);
+        boolean v4Only = (in.readByte() & IPV4_ONLY) != 0;
+        int count = in.readCount();
+        String[] countries = new String[in.readCount() + 1];
+
+        for(int i = 1; i < countries.length; i++) {
+            int length = in.readCount();
+            countries[i] = new String(data, in.skip(length), length, UTF8);
+        }
+
+        IPAddress[] entries = new IPAddress[count];
+        long high = 0, low = 0;
+        for(int i = 0; i < count; i++) {
+            if(v4Only)
+                low = 0x0000FFFF00000000L | ((low + in.readVarint()) & 0xFFFFFFFFL);
+            else {
+                long delta = in.readVarint();
+                low = delta == 0 ? low + in.readVarint() : in.readVarint();
+                high += delta;
+            }
+
+            long id = in.readVarint();
+            if(id >= countries.length)
+                throw new IOException("Corrupt snapshot: bad country id " + id);
+            double latitude = unzigzag(in.readVarint()) / IPAddress.COORDINATE_SCALE;
+            double longitude = unzigzag(in.readVarint()) / IPAddress.COORDINATE_SCALE;
+            entries[i] = new IPAddress(high, low, countries[(int) id], latitude, longitude);
+        }
+        if(!in.atEnd())
+            throw new IOException("Corrupt snapshot: trailing data");
+        return entries;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /*
+     * Cursor over the bytes of a snapshot that reports overruns as
+     * corruption instead of array index errors.
+     */
+    private static class Reader {
+        private final byte[] data;
+        private final int end;
+        private int position;
+
+        public Reader(byte[] data, int position, int end) {
+            this.data = data;
+            this.position = position;
+            this.end = end;
+        }
+
+        public int readByte() throws IOException {
+            if(position >= end)
+                throw new IOException("Corrupt snapshot: unexpected end");
+            return data[position++] & 0xFF;
+        }
+
+        public long readVarint() throws IOException {
+            long value = 0;
+            for(int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if((b & 0x80) == 0)
+                    return value;
+            }
+            throw new IOException("Corrupt snapshot: varint too long");
+        }
+
+        // Reads a count that must fit in the remaining bytes
+        public int readCount() throws IOException {
+            long value = readVarint();
+            if(value > end - position)
+                throw new IOException("Corrupt snapshot: bad count " + value);
+            return (int) value;
+        }
+
+        // Skips length bytes and returns where they started
+        public int skip(int length) {
+            int start = position;
+            position += length;
+            return start;
+        }
+
+        public boolean atEnd() {
+            return position == end;
+        }
+    }
+}
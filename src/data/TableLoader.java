@@ -0,0 +1,293 @@
+package data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parallel loader for the ip2country table. The file is memory mapped and
+ * split into line-aligned chunks that are parsed and sorted in parallel on
+ * a fork-join pool. The sorted runs are then merged pairwise, also in
+ * parallel, into one array ready for a bulk build of the trees.
+ *
+ * Lines hold an address, a country name and the latitude and longitude,
+ * separated by whitespace. The first line of the file is a header. When
+ * an address appears more than once, the last line wins.
+ *
+ * @author Ruben Ramirez
+ */
+
+public class TableLoader {
+
+    // Chunks are small enough to spread the work, large enough to amortize a task
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int MAX_LINE_LENGTH = 1 << 16;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset ASCII = Charset.forName("ISO-8859-1");
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 
+        1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
+    // One line buffer per pool thread, rather than one per chunk
+    private static final ThreadLocal<byte[]> LINES = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() {
+            return new byte[MAX_LINE_LENGTH];
+        }
+    };
+
+    /**
+     * Loads a table using one thread per available processor
+     * @param file, the table to be loaded
+     * @return IPAddress[], the entries sorted by address
+     * @throws IOException if the file cannot be read or a line is malformed
+     */
+    public static IPAddress[] load(File file) throws IOException {
+        return load(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Loads a table using a given number of threads
+     * @param file, the table to be loaded
+     * @param threads, the number of parser threads
+     * @return IPAddress[], the entries sorted by address
+     * @throws IOException if the file cannot be read or a line is malformed
+     */
+    public static IPAddress[] load(File file, int threads) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            int chunks = (int) Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            ChunkParser[] parsers = new ChunkParser[chunks];
+
+            for(int i = 0; i < chunks; i++) {
+                long start = (long) i * CHUNK_SIZE;
+                parsers[i] = new ChunkParser(channel, start,
+                        Math.min(length, start + CHUNK_SIZE), length);
+            }
+            IPAddress[] sorted = pool.invoke(new Merger(parsers, 0, chunks));
+            return removeDuplicates(sorted);
+        }
+        catch(RuntimeException e) {
+            // Parser tasks wrap IO errors, and the pool may wrap them again
+            for(Throwable cause = e.getCause(); cause != null; cause = cause.getCause())
+                if(cause instanceof IOException)
+                    throw (IOException) cause;
+            throw e;
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /*
+     * Drops all but the last of each run of equal addresses. Runs are
+     * merged stably, so the last entry is the one from the latest line.
+     */
+    private static IPAddress[] removeDuplicates(IPAddress[] sorted) {
+        int count = 0;
+
+        for(int i = 0; i < sorted.length; i++) {
+            if(i + 1 < sorted.length && sorted[i].compareTo(sorted[i + 1]) == 0)
+                continue;
+            sorted[count++] = sorted[i];
+        }
+        return count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+    }
+
+    /*
+     * Parses the chunks in a range of the file, forking the two halves, and
+     * merges the sorted results.
+     */
+    private static class Merger extends RecursiveTask<IPAddress[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final ChunkParser[] parsers;
+        private final int lo, hi;
+
+        public Merger(ChunkParser[] parsers, int lo, int hi) {
+            this.parsers = parsers;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected IPAddress[] compute() {
+            if(hi - lo == 1)
+                return parsers[lo].compute();
+
+            int mid = (lo + hi) >>> 1;
+            Merger left = new Merger(parsers, lo, mid);
+            left.fork();
+            IPAddress[] right = new Merger(parsers, mid, hi).compute();
+            return merge(left.join(), right);
+        }
+
+        // Stable merge, taking from the earlier run on ties
+        private static IPAddress[] merge(IPAddress[] one, IPAddress[] two) {
+            IPAddress[] merged = new IPAddress[one.length + two.length];
+            int i = 0, j = 0, k = 0;
+
+            while(i < one.length && j < two.length)
+                merged[k++] = one[i].compareTo(two[j]) <= 0 ? one[i++] : two[j++];
+            System.arraycopy(one, i, merged, k, one.length - i);
+            System.arraycopy(two, j, merged, k + one.length - i, two.length - j);
+            return merged;
+        }
+    }
+
+    /*
+     * Parses the lines that start within one chunk of the mapped file and
+     * returns them sorted.
+     */
+    private static class ChunkParser extends RecursiveTask<IPAddress[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long start, end, length;
+        // Set only while the chunk is parsed
+        private byte[] line;
+        private IPAddress[] entries;
+        private int count;
+
+        public ChunkParser(FileChannel channel, long start, long end, long length) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.length = length;
+        }
+
+        protected IPAddress[] compute() {
+            line = LINES.get();
+            entries = new IPAddress[1024];
+            count = 0;
+            try {
+                // Map one byte before the chunk to see if it starts a line,
+                // and enough after it to finish the last line
+                long from = Math.max(0, start - 1);
+                long to = Math.min(length, end + MAX_LINE_LENGTH);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+                int position = 0, limit = (int) (end - from);
+
+                // Skip the header, or the tail of a line owned by the previous chunk
+                if(start == 0 || buffer.get(0) != '\n')
+                    position = skipLine(buffer, start == 0 ? 0 : 1);
+                else
+                    position = 1;
+
+                while(position < limit)
+                    position = parseLine(buffer, position);
+            }
+            catch(IOException e) {
+                throw new RuntimeException(e);
+            }
+
+            // The parsers are all built up front, so none keeps its buffers
+            IPAddress[] sorted = Arrays.copyOf(entries, count);
+            line = null;
+            entries = null;
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        // Returns the position after the end of the line holding position
+        private int skipLine(MappedByteBuffer buffer, int position) {
+            while(position < buffer.limit() && buffer.get(position) != '\n')
+                position++;
+            return position + 1;
+        }
+
+        // Parses the line starting at position and returns the start of the next
+        private int parseLine(MappedByteBuffer buffer, int position) throws IOException {
+            int length = 0;
+
+            while(position < buffer.limit() && buffer.get(position) != '\n') {
+                if(length == MAX_LINE_LENGTH)
+                    throw new IOException("Line too long at offset " + (start + position));
+                line[length++] = buffer.get(position++);
+            }
+            while(length > 0 && line[length - 1] <= ' ')
+                length--;
+            if(length > 0)
+                add(parseEntry(length));
+            return position + 1;
+        }
+
+        /*
+         * Splits a line into the address, the country in the middle, and
+         * the two coordinates at the end.
+         */
+        private IPAddress parseEntry(int length) throws IOException {
+            int ipEnd = 0, lonStart = length, latStart, latEnd, countryStart;
+
+            while(ipEnd < length && line[ipEnd] > ' ')
+                ipEnd++;
+            while(lonStart > 0 && line[lonStart - 1] > ' ')
+                lonStart--;
+            latEnd = lonStart;
+            while(latEnd > 0 && line[latEnd - 1] <= ' ')
+                latEnd--;
+            latStart = latEnd;
+            while(latStart > 0 && line[latStart - 1] > ' ')
+                latStart--;
+            countryStart = ipEnd;
+            while(countryStart < latStart && line[countryStart] <= ' ')
+                countryStart++;
+            int countryEnd = latStart;
+            while(countryEnd > countryStart && line[countryEnd - 1] <= ' ')
+                countryEnd--;
+
+            if(ipEnd >= latStart || countryStart >= countryEnd)
+                throw new IOException("Malformed line: " + new String(line, 0, length, UTF8));
+
+            String ip = new String(line, 0, ipEnd, ASCII);
+            String country = new String(line, countryStart, countryEnd - countryStart, UTF8);
+
+            try {
+                return new IPAddress(ip, country, parseNumber(latStart, latEnd),
+                        parseNumber(lonStart, length));
+            }
+            catch(IllegalArgumentException e) {
+                throw new IOException("Malformed line: " + new String(line, 0, length, UTF8), e);
+            }
+        }
+
+        // Parses a plain decimal number without building a string
+        private double parseNumber(int from, int to) {
+            boolean negative = line[from] == '-';
+            long digits = 0;
+            int scale = 0, i = negative || line[from] == '+' ? from + 1 : from;
+            boolean point = false;
+
+            if(i == to)
+                throw new NumberFormatException("Empty number");
+            for(; i < to; i++) {
+                byte b = line[i];
+                if(b >= '0' && b <= '9' && digits < Long.MAX_VALUE / 10) {
+                    digits = digits * 10 + (b - '0');
+                    if(point)
+                        scale++;
+                }
+                else if(b == '.' && !point)
+                    point = true;
+                else
+                    return Double.parseDouble(new String(line, from, to - from, ASCII));
+            }
+            if(scale >= POWERS_OF_TEN.length)
+                return Double.parseDouble(new String(line, from, to - from, ASCII));
+            double value = digits / POWERS_OF_TEN[scale];
+            return negative ? -value : value;
+        }
+
+        private void add(IPAddress entry) {
+            if(count == entries.length)
+                entries = Arrays.copyOf(entries, count * 2);
+            entries[count++] = entry;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package data_structures;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Balanced binary search tree (AVL tree) mapping keys to values. Unlike
+ * AVLTree, which stores whole elements and is searched with a probe of
+ * the same type, lookups here take a bare key, so a query needs nothing
+ * but the key itself. Keys are ordered by a Comparator, or by their
+ * natural ordering when none is given. Each key is stored once; adding a
+ * key again replaces its value.
+ *
+ * @author Ruben Ramirez
+ * @param <K> the type of keys in the map
+ * @param <V> the type of values stored with the keys
+ */
+
+public class AVLMap<K,V> implements Iterable<K> {
+    private final Comparator<? super K> comparator;
+    private Node<K,V> root;
+    private int currentSize;
+    // Value replaced or removed by the last put or remove
+    private V previous;
+
+    /**
+     * Creates an empty map ordered by the natural ordering of the keys,
+     * which must implement Comparable
+     */
+    public AVLMap() {
+        this(null);
+    }
+
+    /**
+     * Creates an empty map ordered by a comparator
+     * @param comparator, the order of the keys, null for their natural order
+     */
+    public AVLMap(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+        this.root = null;
+        this.currentSize = 0;
+    }
+
+    /**
+     * Associates a value with a key, replacing any value it had
+     * @param key, the key
+     * @param value, the value to be stored with the key
+     * @return V, the value the key had, null if it was not in the map
+     */
+    public V put(K key, V value) {
+        if(key == null)
+            throw new IllegalArgumentException("Keys cannot be null");
+        previous = null;
+        root = insert(root, key, value);
+        V tmp = previous;
+        previous = null;
+        return tmp;
+    }
+
+    /**
+     * Gets the value associated with a key
+     * @param key, the key to be searched for
+     * @return V, the value of the key, null if it is not in the map
+     */
+    public V get(K key) {
+        Node<K,V> node = getNode(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Checks to see if a key is in the map
+     * @param key, the key to be searched for
+     * @return true if the map holds the key, false otherwise
+     */
+    public boolean containsKey(K key) {
+        return getNode(key) != null;
+    }
+
+    /**
+     * Gets the largest key less than or equal to the key entered. Used for
+     * range lookups, where the keys are the first address of each block.
+     * @param key, the key to be searched for
+     * @return K, the floor of the key, null if no such key exists
+     */
+    public K floorKey(K key) {
+        Node<K,V> node = floorNode(key);
+        return node == null ? null : node.key;
+    }
+
+    /**
+     * Gets the value of the largest key less than or equal to the key
+     * entered
+     * @param key, the key to be searched for
+     * @return V, the value of the floor, null if no such key exists
+     */
+    public V floorValue(K key) {
+        Node<K,V> node = floorNode(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Gets the smallest key greater than or equal to the key entered
+     * @param key, the key to be searched for
+     * @return K, the ceiling of the key, null if no such key exists
+     */
+    public K ceilingKey(K key) {
+        Node<K,V> node = root, best = null;
+
+        while(node != null) {
+            int cmp = compare(key, node.key);
+            if(cmp == 0)
+                return node.key;
+            if(cmp > 0)
+                node = node.right;
+            else {
+                best = node;
+                node = node.left;
+            }
+        }
+        return best == null ? null : best.key;
+    }
+
+    /**
+     * Removes a key and its value from the map
+     * @param key, the key to be removed
+     * @return V, the value the key had, null if it was not in the map
+     */
+    public V remove(K key) {
+        previous = null;
+        root = delete(root, key);
+        V tmp = previous;
+        previous = null;
+        return tmp;
+    }
+
+    /**
+     * Removes every key from the map
+     */
+    public void clear() {
+        root = null;
+        currentSize = 0;
+    }
+
+    /**
+     * Returns the number of keys in the map
+     * @return int, the number of keys
+     */
+    public int size() {
+        return currentSize;
+    }
+
+    /**
+     * Checks to see if the map is empty
+     * @return true if there are no keys in the map, false otherwise
+     */
+    public boolean isEmpty() {
+        return currentSize == 0;
+    }
+
+    /**
+     * Returns an iterator over the keys in increasing order. Walks the
+     * tree with a stack as deep as the tree, without copying it.
+     * @return an iterator over the keys
+     */
+    public Iterator<K> iterator() {
+        return new KeyIterator();
+    }
+
+    /**
+     * Verifies the structure of the whole map: key ordering, stored
+     * heights, AVL balance and the key count.
+     * Used by randomized stress tests.
+     * @throws IllegalStateException if any invariant is broken
+     */
+    public void checkInvariants() {
+        if(checkNode(root, null, null) != currentSize)
+            throw new IllegalStateException("Size is " + currentSize +
+                    " but map holds a different number of keys");
+    }
+
+    // Checks a subtree whose keys lie strictly between lo and hi, if given
+    private int checkNode(Node<K,V> node, K lo, K hi) {
+        if(node == null)
+            return 0;
+        if((lo != null && compare(node.key, lo) <= 0) || (hi != null && compare(node.key, hi) >= 0))
+            throw new IllegalStateException("Out of order at " + node.key);
+        int count = checkNode(node.left, lo, node.key) + checkNode(node.right, node.key, hi) + 1;
+        if(node.height != Math.max(height(node.left), height(node.right)) + 1)
+            throw new IllegalStateException("Bad height at " + node.key);
+        if(Math.abs(height(node.left) - height(node.right)) > 1)
+            throw new IllegalStateException("Unbalanced at " + node.key);
+        return count;
+    }
+
+    private Node<K,V> getNode(K key) {
+        Node<K,V> node = root;
+
+        while(node != null) {
+            int cmp = compare(key, node.key);
+            if(cmp < 0)
+                node = node.left;
+            else if(cmp > 0)
+                node = node.right;
+            else
+                return node;
+        }
+        return null;
+    }
+
+    private Node<K,V> floorNode(K key) {
+        Node<K,V> node = root, best = null;
+
+        while(node != null) {
+            int cmp = compare(key, node.key);
+            if(cmp == 0)
+                return node;
+            if(cmp < 0)
+                node = node.left;
+            else {
+                best = node;
+                node = node.right;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Helper function that inserts a key below a node, or replaces its
+     * value, and rebalances on the way back up.
+     * @return Node<K,V>, the new root of the subtree
+     */
+    private Node<K,V> insert(Node<K,V> node, K key, V value) {
+        if(node == null) {
+            currentSize++;
+            return new Node<>(key, value);
+        }
+        int cmp = compare(key, node.key);
+        if(cmp < 0)
+            node.left = insert(node.left, key, value);
+        else if(cmp > 0)
+            node.right = insert(node.right, key, value);
+        else {
+            previous = node.value;
+            node.value = value;
+            return node;
+        }
+        return balance(node);
+    }
+
+    /**
+     * Helper function that removes a key below a node. A node with two
+     * subtrees is replaced by its in-order successor.
+     * @return Node<K,V>, the new root of the subtree
+     */
+    private Node<K,V> delete(Node<K,V> node, K key) {
+        if(node == null)
+            return null;
+        int cmp = compare(key, node.key);
+        if(cmp < 0)
+            node.left = delete(node.left, key);
+        else if(cmp > 0)
+            node.right = delete(node.right, key);
+        else {
+            previous = node.value;
+            currentSize--;
+            if(node.left == null)
+                return node.right;
+            if(node.right == null)
+                return node.left;
+
+            Node<K,V> next = node.right;
+            while(next.left != null)
+                next = next.left;
+            next.right = deleteFirst(node.right);
+            next.left = node.left;
+            node = next;
+        }
+        return balance(node);
+    }
+
+    // Unlinks the smallest node below a node, returning the new subtree root
+    private Node<K,V> deleteFirst(Node<K,V> node) {
+        if(node.left == null)
+            return node.right;
+        node.left = deleteFirst(node.left);
+        return balance(node);
+    }
+
+    /**
+     * Updates the height of a node and rotates it if its subtrees differ
+     * in height by more than one.
+     * @return Node<K,V>, the new root of the subtree
+     */
+    private Node<K,V> balance(Node<K,V> node) {
+        int factor = height(node.left) - height(node.right);
+
+        if(factor > 1) {
+            if(height(node.left.left) < height(node.left.right))
+                node.left = rotateLeft(node.left);
+            return rotateRight(node);
+        }
+        if(factor < -1) {
+            if(height(node.right.right) < height(node.right.left))
+                node.right = rotateRight(node.right);
+            return rotateLeft(node);
+        }
+        setHeight(node);
+        return node;
+    }
+
+    private Node<K,V> rotateRight(Node<K,V> node) {
+        Node<K,V> top = node.left;
+        node.left = top.right;
+        top.right = node;
+        setHeight(node);
+        setHeight(top);
+        return top;
+    }
+
+    private Node<K,V> rotateLeft(Node<K,V> node) {
+        Node<K,V> top = node.right;
+        node.right = top.left;
+        top.left = node;
+        setHeight(node);
+        setHeight(top);
+        return top;
+    }
+
+    private void setHeight(Node<K,V> node) {
+        node.height = Math.max(height(node.left), height(node.right)) + 1;
+    }
+
+    private static int height(Node<?,?> node) {
+        return node == null ? -1 : node.height;
+    }
+
+    private int compare(K one, K two) {
+        if(comparator != null)
+            return comparator.compare(one, two);
+        return ((Comparable<? super K>)one).compareTo(two);
+    }
+
+    private class KeyIterator implements Iterator<K> {
+        @SuppressWarnings("unchecked")
+        private Node<K,V>[] stack = (Node<K,V>[]) new Node<?,?>[Math.max(1, height(root) + 1)];
+        private int depth = 0;
+
+        public KeyIterator() {
+            pushLeft(root);
+        }
+
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        public K next() {
+            if(depth == 0)
+                throw new NoSuchElementException();
+            Node<K,V> node = stack[--depth];
+            pushLeft(node.right);
+            return node.key;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void pushLeft(Node<K,V> node) {
+            for(; node != null; node = node.left)
+                stack[depth++] = node;
+        }
+    }
+
+    /*
+     * Node holding a key, its value, the left and right subtrees and the
+     * height of the node in the tree.
+     */
+    private static class Node<K,V> {
+        private final K key;
+        private V value;
+        private Node<K,V> left, right;
+        private int height;
+
+        public Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+            this.height = 0;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package data_structures;
 import searchtrees.*;
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Generic Balanced Binary Search tree structure(AVL tree).
@@ -11,7 +13,11 @@ import java.util.Iterator;
  * @param <E> the type of values to be stored in the tree
  */
 
-public class AVLTree<E> implements Iterable<E> {
+public class AVLTree<E> implements OrderedIndex<E> {
+    // Set operations on subtrees smaller than this run on a single thread
+    private static final int PARALLEL_THRESHOLD = 4096;
+    private static final int UNION = 0, INTERSECTION = 1, DIFFERENCE = 2;
+    
     private Node<E> root; 
     private int currentSize;
 
@@ -20,6 +26,42 @@ public class AVLTree<E> implements Iterable<E> {
         this.currentSize = 0;
     }
 	
+    /**
+     * Builds a perfectly balanced tree from objects in sorted order in 
+     * linear time, without comparisons or rotations.
+     * @param sorted, the objects in non-decreasing order
+     * @throws IllegalStateException if the tree is not empty
+     * @throws IllegalArgumentException if the objects are not sorted
+     */
+    public void bulkLoad(E[] sorted) {
+        if(currentSize != 0)
+            throw new IllegalStateException("Bulk load requires an empty tree");
+        for(int i = 1; i < sorted.length; i++)
+            if(((Comparable<E>)sorted[i - 1]).compareTo(sorted[i]) > 0)
+                throw new IllegalArgumentException("Objects are not sorted at " + i);
+        
+        root = build(sorted, 0, sorted.length - 1, null);
+        currentSize = sorted.length;
+    }
+    
+    /**
+     * Helper function that recursively builds a balanced subtree from a 
+     * range of a sorted array, using the middle object as the root.
+     * @return Node<E>, the root of the subtree
+     */
+    private Node<E> build(E[] sorted, int lo, int hi, Node<E> parent) {
+        if(lo > hi)
+            return null;
+        
+        int mid = (lo + hi + 1) >>> 1;
+        Node<E> node = new Node<>(sorted[mid]);
+        node.parent = parent;
+        node.leftChild = build(sorted, lo, mid - 1, node);
+        node.rightChild = build(sorted, mid + 1, hi, node);
+        setHeight(node);
+        return node;
+    }
+    
     /**
      * Adds a new node to the tree.
      * @param obj, the object to be added to the tree.
@@ -34,7 +76,7 @@ public class AVLTree<E> implements Iterable<E> {
         }
         addNode(root, newNode);
         currentSize++;  
-        checkBalance(newNode);
+        checkBalance(newNode.parent);
         return true;
     }
 
@@ -77,85 +119,168 @@ public class AVLTree<E> implements Iterable<E> {
     }
     
     /**
-	 * Removes an object from the AVL Tree if it is in the tree
+     * Gets the largest object in the tree that is less than or equal to the
+     * object entered. Used for range lookups, where the tree holds the first
+     * address of each block.
+     * @param obj, the object to be searched for
+     * @return E, the floor of the object, null if no such object exists
+     */
+    public E floor(E obj) {
+        Node<E> node = root;
+        E best = null;
+        
+        while(node != null) {
+            int cmp = ((Comparable<E>)obj).compareTo(node.data);
+            if(cmp == 0)
+                return node.data;
+            if(cmp < 0)
+                node = node.leftChild;
+            else {
+                best = node.data;
+                node = node.rightChild;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Gets the element stored under a primitive key, without a probe
+     * object. Only for trees of IntKeyed elements whose order is the
+     * unsigned order of their keys, such as IPv4 blocks.
+     * @param key, the unsigned 32-bit key to be searched for
+     * @return E, the element found, null if not found
+     */
+    public E get(int key) {
+        Node<E> node = root;
+        key ^= Integer.MIN_VALUE;
+
+        while(node != null) {
+            int other = ((IntKeyed)node.data).intKey() ^ Integer.MIN_VALUE;
+            if(key < other)
+                node = node.leftChild;
+            else if(key > other)
+                node = node.rightChild;
+            else
+                return node.data;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the element with the largest key that is less than or equal to
+     * a primitive key, without a probe object. Only for trees of IntKeyed
+     * elements whose order is the unsigned order of their keys.
+     * @param key, the unsigned 32-bit key to be searched for
+     * @return E, the floor element, null if no such element exists
+     */
+    public E floor(int key) {
+        Node<E> node = root;
+        E best = null;
+        key ^= Integer.MIN_VALUE;
+
+        while(node != null) {
+            int other = ((IntKeyed)node.data).intKey() ^ Integer.MIN_VALUE;
+            if(key == other)
+                return node.data;
+            if(key < other)
+                node = node.leftChild;
+            else {
+                best = node.data;
+                node = node.rightChild;
+            }
+        }
+        return best;
+    }
+
+    /**
+	 * Removes an object from the AVL Tree if it is in the tree.
+	 * The node is found in a single pass down the tree and unlinked in 
+	 * place. A node with two subtrees is replaced by its in-order 
+	 * successor, which is relinked rather than copied, and only the 
+	 * path above the lowest changed node is rebalanced.
 	 * @param obj, the piece of data that is going to be searched for.
 	 * @return E, the object that was deleted from the tree
 	 */
     public E delete(E obj) {
-    	Node<E> node;
-        boolean flag = true;
-    	E temp = null;
-
-    	if(currentSize == 1) {
-            temp = root.data;
-            root = null;
-            currentSize--;
-            return temp;
-    	}
-    	node = getNode(root, obj);
+    	Node<E> node = getNode(root, obj);
+    	Node<E> start;
     	
     	if(node == null)
             return null;
     	
-    	// If node has zero subtrees
-    	if(node.leftChild == null && node.rightChild == null) {
-            if(((Comparable<E>)node.parent.data).compareTo(node.data) < 0) {
-                temp = node.data;
-                node.parent.rightChild = null;
-                checkBalance(node.parent);
-            }
+        // Node has left and right subtrees
+        if(node.leftChild != null && node.rightChild != null) {
+            Node<E> next = node.rightChild;
+            while(next.leftChild != null)
+                next = next.leftChild;
+            
+            // Unlink the successor, moving its right subtree up a level
+            if(next.parent == node)
+                start = next;
             else {
-                temp = node.data;
-                node.parent.leftChild = null;
-                checkBalance(node.parent);
+                start = next.parent;
+                start.leftChild = next.rightChild;
+                if(next.rightChild != null)
+                    next.rightChild.parent = start;
+                next.rightChild = node.rightChild;
+                next.rightChild.parent = next;
             }
-    	}
-        // Node has left and right subtrees
-        else if(node.leftChild != null && node.rightChild != null) {
-            temp = node.data;
-            E successor = findNext(node.data);
-            delete(successor);
-            node.data = successor;
-            flag = false;
-    	}
-    	// Node has a left subtree 
-    	else if(node.leftChild != null) {
-            temp = node.data;
-            node.data = node.leftChild.data;
-            node.leftChild = null;
-            checkBalance(node);
-    		}
-    	// Node has a right subtree
+            next.leftChild = node.leftChild;
+            next.leftChild.parent = next;
+            replaceChild(node, next);
+        }
+    	// Node has at most one subtree
         else {
-            temp = node.data; 
-            node.data = node.rightChild.data;
-            node.rightChild = null;
-            checkBalance(node);
-            }
-
-    	if(temp != null && flag != false)
-           currentSize--;
-    	return temp;
+            start = node.parent;
+            if(node.leftChild != null)
+                replaceChild(node, node.leftChild);
+            else
+                replaceChild(node, node.rightChild);
+        }
+        
+        currentSize--;
+        checkBalance(start);
+    	return node.data;
+    }
+    
+    /**
+     * Helper function that links a replacement node into the position of 
+     * a node within the tree.
+     * @param node, the node being replaced
+     * @param replacement, the node taking its place, may be null
+     */
+    private void replaceChild(Node<E> node, Node<E> replacement) {
+        Node<E> parent = node.parent;
+        
+        if(replacement != null)
+            replacement.parent = parent;
+        if(parent == null)
+            root = replacement;
+        else if(parent.leftChild == node)
+            parent.leftChild = replacement;
+        else
+            parent.rightChild = replacement;
     }
 
     /**
-     * Helper function that recursively traverses the tree until it
-     * finds the node containing the correct data
+     * Helper function that traverses the tree until it finds the node 
+     * containing the correct data
      * @param node, pointer to the current position within the tree
      * @param toFind, the object being searched for
      * @return Node<E>, the node containing the object
      */
     private Node<E> getNode(Node<E> node, E toFind) {
-
-        if(node == null)
-            return null;
-
-        if(((Comparable<E>)toFind).compareTo(node.data) < 0)
-            return getNode(node.leftChild, toFind);
-        else if(((Comparable<E>)toFind).compareTo(node.data) > 0)
-            return getNode(node.rightChild, toFind);
-        else
-            return node;
+        
+        while(node != null) {
+            int cmp = ((Comparable<E>)toFind).compareTo(node.data);
+            if(cmp < 0)
+                node = node.leftChild;
+            else if(cmp > 0)
+                node = node.rightChild;
+            else
+                return node;
+        }
+        return null;
     }
     
     /**
@@ -234,6 +359,306 @@ public class AVLTree<E> implements Iterable<E> {
         return null;
     }
 
+    /**
+     * Returns the number of elements in the tree that are less than the
+     * object entered, such as the number of blocks preceding an address.
+     * @param obj, the object to be ranked
+     * @return int, the number of smaller elements
+     */
+    public int rank(E obj) {
+        Node<E> node = root;
+        int rank = 0;
+        
+        while(node != null) {
+            if(((Comparable<E>)obj).compareTo(node.data) <= 0)
+                node = node.leftChild;
+            else {
+                rank += sizeBelow(node.leftChild) + 1;
+                node = node.rightChild;
+            }
+        }
+        return rank;
+    }
+    
+    /**
+     * Returns the k-th smallest element of the tree, counting from zero.
+     * Selecting a random index between 0 and size() - 1 gives a uniform 
+     * random sample of the elements.
+     * @param k, the index of the element in sorted order
+     * @return E, the element at that index
+     * @throws IndexOutOfBoundsException if k is not a valid index
+     */
+    public E select(int k) {
+        Node<E> node = root;
+        
+        if(k < 0 || k >= currentSize)
+            throw new IndexOutOfBoundsException("Index: " + k + ", Size: " + currentSize);
+        while(true) {
+            int leftSize = sizeBelow(node.leftChild);
+            if(k < leftSize)
+                node = node.leftChild;
+            else if(k > leftSize) {
+                k -= leftSize + 1;
+                node = node.rightChild;
+            }
+            else
+                return node.data;
+        }
+    }
+    
+    /**
+     * Returns the number of elements that are greater than or equal to lo
+     * and less than hi.
+     * @param lo, the inclusive lower bound
+     * @param hi, the exclusive upper bound
+     * @return int, the number of elements in the range
+     */
+    public int countInRange(E lo, E hi) {
+        if(((Comparable<E>)lo).compareTo(hi) >= 0)
+            return 0;
+        return rank(hi) - rank(lo);
+    }
+
+    /**
+     * Adds every element of another tree to this tree. When both trees hold
+     * an element with the same key, the element from the other tree 
+     * replaces the one in this tree. The other tree is not modified.
+     * Runs in O(m log(n/m + 1)) work for trees of sizes m <= n, split 
+     * recursively across a fork-join pool. Assumes neither tree holds 
+     * duplicate keys.
+     * @param other, the tree whose elements are added
+     */
+    public void union(AVLTree<E> other) {
+        setOperation(UNION, other);
+    }
+    
+    /**
+     * Keeps only the elements whose keys are also in another tree, taking 
+     * the elements from the other tree. The other tree is not modified.
+     * @param other, the tree whose keys are kept
+     */
+    public void intersection(AVLTree<E> other) {
+        setOperation(INTERSECTION, other);
+    }
+    
+    /**
+     * Removes every element whose key is in another tree. The other tree 
+     * is not modified.
+     * @param other, the tree whose keys are removed
+     */
+    public void difference(AVLTree<E> other) {
+        setOperation(DIFFERENCE, other);
+    }
+    
+    // Runs a set operation against a copy of the other tree's nodes
+    private void setOperation(int operation, AVLTree<E> other) {
+        Node<E> copy = copy(other.root, null);
+        
+        root = Pool.INSTANCE.invoke(new SetTask(operation, root, copy));
+        if(root != null)
+            root.parent = null;
+        currentSize = sizeBelow(root);
+    }
+    
+    // Returns a copy of the subtree below a node
+    private Node<E> copy(Node<E> node, Node<E> parent) {
+        if(node == null)
+            return null;
+        
+        Node<E> tmp = new Node<>(node.data);
+        tmp.parent = parent;
+        tmp.height = node.height;
+        tmp.size = node.size;
+        tmp.leftChild = copy(node.leftChild, tmp);
+        tmp.rightChild = copy(node.rightChild, tmp);
+        return tmp;
+    }
+    
+    /*
+     * Join-based set operation (Blelloch, Ferizovic and Sun, "Just Join for
+     * Parallel Ordered Sets"). The first tree is split by the root of the 
+     * second, the two halves are combined recursively in parallel, and the
+     * results are joined back together. Both input trees are consumed.
+     */
+    private class SetTask extends RecursiveTask<Node<E>> {
+        private static final long serialVersionUID = 1L;
+
+        private final int operation;
+        private final Node<E> one, two;
+        
+        public SetTask(int operation, Node<E> one, Node<E> two) {
+            this.operation = operation;
+            this.one = one;
+            this.two = two;
+        }
+        
+        protected Node<E> compute() {
+            if(one == null)
+                return operation == UNION ? two : null;
+            if(two == null)
+                return operation == INTERSECTION ? null : one;
+            
+            boolean parallel = one.size + two.size > PARALLEL_THRESHOLD;
+            Node<E> key = two, twoLeft = two.leftChild, twoRight = two.rightChild;
+            Split split = split(one, key.data);
+            SetTask leftTask = new SetTask(operation, split.left, twoLeft);
+            SetTask rightTask = new SetTask(operation, split.right, twoRight);
+            Node<E> left, right;
+            
+            if(parallel) {
+                leftTask.fork();
+                right = rightTask.compute();
+                left = leftTask.join();
+            }
+            else {
+                left = leftTask.compute();
+                right = rightTask.compute();
+            }
+            
+            // The other tree's node is kept on a match, so it overrides
+            if(operation == UNION || (operation == INTERSECTION && split.match != null))
+                return AVLTree.this.join(left, key, right);
+            return join2(left, right);
+        }
+    }
+    
+    // Result of a split: the trees below and above a key, and the node 
+    // holding the key if there was one
+    private class Split {
+        private Node<E> left, match, right;
+        
+        public Split(Node<E> left, Node<E> match, Node<E> right) {
+            this.left = left;
+            this.match = match;
+            this.right = right;
+        }
+    }
+    
+    /**
+     * Splits a subtree into the nodes less than and greater than a key.
+     * @param node, the root of the subtree, which is consumed
+     * @param key, the key to split at
+     * @return the two trees and the node matching the key, if any
+     */
+    private Split split(Node<E> node, E key) {
+        if(node == null)
+            return new Split(null, null, null);
+        
+        Node<E> left = node.leftChild, right = node.rightChild;
+        int cmp = ((Comparable<E>)key).compareTo(node.data);
+        Split split;
+        
+        if(cmp == 0)
+            return new Split(left, node, right);
+        if(cmp < 0) {
+            split = split(left, key);
+            split.right = join(split.right, node, right);
+        }
+        else {
+            split = split(right, key);
+            split.left = join(left, node, split.left);
+        }
+        return split;
+    }
+    
+    /**
+     * Joins two trees and a middle node, where every key on the left is less
+     * than the middle and every key on the right is greater. Walks down the
+     * spine of the taller tree and rebalances on the way back up, in time 
+     * proportional to the difference in heights.
+     * @return Node<E>, the root of the joined tree
+     */
+    private Node<E> join(Node<E> left, Node<E> middle, Node<E> right) {
+        if(heightBelow(left) > heightBelow(right) + 1)
+            return joinRight(left, middle, right);
+        if(heightBelow(right) > heightBelow(left) + 1)
+            return joinLeft(left, middle, right);
+        return link(middle, left, right);
+    }
+    
+    // Joins a shorter right tree onto the right spine of a taller left tree
+    private Node<E> joinRight(Node<E> left, Node<E> middle, Node<E> right) {
+        Node<E> child = left.rightChild, tmp;
+        
+        if(heightBelow(child) <= heightBelow(right) + 1) {
+            tmp = link(middle, child, right);
+            if(tmp.height <= heightBelow(left.leftChild) + 1)
+                return link(left, left.leftChild, tmp);
+            return rotateLeft(link(left, left.leftChild, rotateRight(tmp)));
+        }
+        tmp = joinRight(child, middle, right);
+        link(left, left.leftChild, tmp);
+        if(tmp.height <= heightBelow(left.leftChild) + 1)
+            return left;
+        return rotateLeft(left);
+    }
+    
+    // Joins a shorter left tree onto the left spine of a taller right tree
+    private Node<E> joinLeft(Node<E> left, Node<E> middle, Node<E> right) {
+        Node<E> child = right.leftChild, tmp;
+        
+        if(heightBelow(child) <= heightBelow(left) + 1) {
+            tmp = link(middle, left, child);
+            if(tmp.height <= heightBelow(right.rightChild) + 1)
+                return link(right, tmp, right.rightChild);
+            return rotateRight(link(right, rotateLeft(tmp), right.rightChild));
+        }
+        tmp = joinLeft(left, middle, child);
+        link(right, tmp, right.rightChild);
+        if(tmp.height <= heightBelow(right.rightChild) + 1)
+            return right;
+        return rotateRight(right);
+    }
+    
+    // Joins two trees where every key on the left is less than on the right
+    private Node<E> join2(Node<E> left, Node<E> right) {
+        if(left == null)
+            return right;
+        
+        Split split = splitLast(left);
+        return join(split.left, split.match, right);
+    }
+    
+    // Removes the largest node of a subtree, returned as the match
+    private Split splitLast(Node<E> node) {
+        if(node.rightChild == null)
+            return new Split(node.leftChild, node, null);
+        
+        Split split = splitLast(node.rightChild);
+        split.left = join(node.leftChild, node, split.left);
+        return split;
+    }
+    
+    // Rotations used while joining, where parent pointers are not yet final
+    private Node<E> rotateLeft(Node<E> node) {
+        Node<E> newTop = node.rightChild;
+        link(node, node.leftChild, newTop.leftChild);
+        return link(newTop, node, newTop.rightChild);
+    }
+    
+    private Node<E> rotateRight(Node<E> node) {
+        Node<E> newTop = node.leftChild;
+        link(node, newTop.rightChild, node.rightChild);
+        return link(newTop, newTop.leftChild, node);
+    }
+    
+    // Makes two subtrees the children of a node and updates its height and size
+    private Node<E> link(Node<E> node, Node<E> left, Node<E> right) {
+        node.leftChild = left;
+        node.rightChild = right;
+        if(left != null)
+            left.parent = node;
+        if(right != null)
+            right.parent = node;
+        setHeight(node);
+        return node;
+    }
+    
+    // Fork-join pool shared by the set operations, created on first use
+    private static class Pool {
+        private static final ForkJoinPool INSTANCE = new ForkJoinPool();
+    }
+    
     /**
      * Returns the height of a node within the tree.
      * @param node, the node to be examined.
@@ -304,112 +729,76 @@ public class AVLTree<E> implements Iterable<E> {
     /**
      * Checks the balance of a given node and all of it's parent nodes.
      * Performs rotation operations when imbalances are encountered.
-     * @param Node<E>, the node to be balanced
+     * @param Node<E>, the lowest node whose subtree has changed
      */
-    private void checkBalance(Node<E> currentNode) {
-
-    	Node<E> node = null;
+    private void checkBalance(Node<E> node) {
     	
-    	// Iterate up the tree until the root is met or an imbalance is found
-    	while(currentNode != null) {
-    		
-            // Adjust the height of the current node
-            if(currentSize > 1)
-                setHeight(currentNode);
-
-            // If balance factor is not greater than 1, continue moving up the tree
-            if(balanceFactor(node) >= -1 && balanceFactor(node) <= 1) {
-                node = currentNode;
-                currentNode = currentNode.parent;
-            }
+    	// Iterate up the tree until the root is met
+    	while(node != null) {
+            setHeight(node);
+            
             // Imbalance in left subtree
             if(balanceFactor(node) > 1) {
-                if(balanceFactor(node.leftChild) >= 0)  
-                    rightRotate(node);
-                else {
+                if(balanceFactor(node.leftChild) < 0)
                     leftRotate(node.leftChild);
-                    rightRotate(node);
-                }
-            }	
+                node = rightRotate(node);
+            }
             // Imbalance in right subtree
-        else if(balanceFactor(node) < -1) {
-            if(balanceFactor(node.rightChild) <= 0) 
-                leftRotate(node);
-            else {
-                rightRotate(node.rightChild);
-                leftRotate(node);
+            else if(balanceFactor(node) < -1) {
+                if(balanceFactor(node.rightChild) > 0)
+                    rightRotate(node.rightChild);
+                node = leftRotate(node);
             }
+            node = node.parent;
         }
     }
-}
 	
     /**
      * Performs a right rotation on the given node
      * @param Node<E>, the node to be balanced
+     * @return the new root of the rotated subtree
      */
-    private void rightRotate(Node<E> node) {
+    private Node<E> rightRotate(Node<E> node) {
     	Node<E> newTop = node.leftChild;
     	node.leftChild = newTop.rightChild;
         
         if(newTop.rightChild != null)
             newTop.rightChild.parent = node;
-        
-        if(node.parent == null) {
-            root = newTop;
-            root.parent = null;
-            root.leftChild.parent = root;
-        }
-        else if(((Comparable<E>)node.data).compareTo(node.parent.data) <= 0)
-            node.parent.leftChild = newTop;
-        else
-            node.parent.rightChild = newTop;
+        replaceChild(node, newTop);
         
     	newTop.rightChild = node;
-        newTop.parent = node.parent;
         node.parent = newTop;
         
-        if(newTop.leftChild != null)
-            setHeight(newTop.leftChild);
-        if(newTop.rightChild != null)
-            setHeight(newTop.rightChild);
+        // Adjust heights of the two nodes that moved
+        setHeight(node);
         setHeight(newTop);
+        return newTop;
     }
     
     /**
      * Performs a left rotation on the given node
      * @param Node<E>, the node to be balanced.
+     * @return the new root of the rotated subtree
      */
-    private void leftRotate(Node<E> node) {
+    private Node<E> leftRotate(Node<E> node) {
     	Node<E> newTop = node.rightChild;
     	node.rightChild = newTop.leftChild;
         
         if(newTop.leftChild != null)
             newTop.leftChild.parent = node;
-        
-        if(node.parent == null) {
-            root = newTop;
-            root.parent = null;
-            root.rightChild.parent = root;
-        }
-        else if(((Comparable<E>)node.data).compareTo(node.parent.data) <= 0)
-            node.parent.leftChild = newTop;
-        else
-            node.parent.rightChild = newTop;
+        replaceChild(node, newTop);
         
     	newTop.leftChild = node;
-        newTop.parent = node.parent;
         node.parent = newTop;
         
-        // Adjust heights of the three nodes that were rotated
-        if(newTop.leftChild != null)
-            setHeight(newTop.leftChild);
-        if(newTop.rightChild != null)
-            setHeight(newTop.rightChild);
+        // Adjust heights of the two nodes that moved
+        setHeight(node);
         setHeight(newTop);
+        return newTop;
     }
     
     /**
-     * Helper function sets the height value of a given node
+     * Helper function sets the height and subtree size values of a given node
      * @param Node<E>, the node to be adjusted
      */
     private void setHeight(Node<E> node) {
@@ -425,6 +814,64 @@ public class AVLTree<E> implements Iterable<E> {
         else
             rightHeight = node.rightChild.height;
         node.height = Math.max(leftHeight, rightHeight) + 1;
+        node.size = sizeBelow(node.leftChild) + sizeBelow(node.rightChild) + 1;
+    }
+    
+    // Returns the number of nodes in the subtree rooted at a node
+    private int sizeBelow(Node<E> node) {
+        if(node == null)
+            return 0;
+        return node.size;
+    }
+    
+    /**
+     * Verifies the structure of the whole tree: in-order ordering, parent
+     * pointers, stored heights and subtree sizes, AVL balance and the 
+     * element count. 
+     * Used by randomized stress tests.
+     * @throws IllegalStateException if any invariant is broken
+     */
+    public void checkInvariants() {
+        if(root != null && root.parent != null)
+            throw new IllegalStateException("Root has a parent");
+        if(checkNode(root) != currentSize)
+            throw new IllegalStateException("Size is " + currentSize + 
+                    " but tree holds a different number of nodes");
+    }
+    
+    // Checks the subtree below a node and returns the number of nodes in it
+    private int checkNode(Node<E> node) {
+        if(node == null)
+            return 0;
+        
+        Node<E> left = node.leftChild, right = node.rightChild;
+        if((left != null && left.parent != node) || 
+                (right != null && right.parent != node))
+            throw new IllegalStateException("Bad parent pointer at " + node.data);
+        
+        int count = checkNode(left) + checkNode(right) + 1;
+        if(node.height != Math.max(heightBelow(left), heightBelow(right)) + 1)
+            throw new IllegalStateException("Bad height at " + node.data);
+        if(Math.abs(balanceFactor(node)) > 1)
+            throw new IllegalStateException("Unbalanced at " + node.data);
+        if(node.size != count)
+            throw new IllegalStateException("Bad subtree size at " + node.data);
+        
+        // Largest element on the left and smallest on the right must 
+        // surround the node
+        if(left != null) {
+            while(left.rightChild != null)
+                left = left.rightChild;
+            if(((Comparable<E>)left.data).compareTo(node.data) > 0)
+                throw new IllegalStateException("Out of order at " + node.data);
+        }
+        if(right != null) {
+            while(right.leftChild != null)
+                right = right.leftChild;
+            if(((Comparable<E>)right.data).compareTo(node.data) < 0)
+                throw new IllegalStateException("Out of order at " + node.data);
+        }
+        return count;
     }
     
     /**
@@ -483,16 +930,19 @@ public class AVLTree<E> implements Iterable<E> {
 	 * Node inner class that holds a piece of data and references
 	 * to parent, left and right child nodes. The node also holds a
 	 * height field that returns the height of the node in as it's 
-	 * stored in the tree. 
+	 * stored in the tree, and a size field holding the number of nodes
+	 * in its subtree. 
 	 */
 	private class Node<T> implements Comparable<Node<T>> {
         private T data;
         private Node<T> leftChild, rightChild, parent; 
         private int height;
+        private int size;
 
         public Node(T value) {
             this.data = value;
             this.height = 0;
+            this.size = 1;
             parent = leftChild = rightChild = null;
         }
 
@@ -0,0 +1,628 @@
+package data_structures;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * B+ tree keyed by primitive 32-bit keys, compared as unsigned values.
+ * Each node holds up to 16 int keys in one array, searched with a single
+ * dereference from the node, so a lookup in a table of 63k blocks touches
+ * four or five nodes instead of the sixteen or so of a binary tree. Elements are stored in the leaves, which
+ * are linked in key order for range scans. Adding an element whose key
+ * is already present replaces the old element.
+ *
+ * @author Ruben Ramirez
+ * @param <E> the type of elements stored in the tree
+ */
+
+public class BPlusTree<E extends IntKeyed> implements OrderedIndex<E> {
+    // Keys per node, 64 bytes of key data behind the array header
+    private static final int ORDER = 16;
+    private static final int MIN_KEYS = ORDER / 2;
+
+    private Node root;
+    private int currentSize;
+    // Set by the recursive helpers to pass results up the tree
+    private int promoted;
+    private Object removed;
+
+    public BPlusTree() {
+        this.root = new Leaf();
+        this.currentSize = 0;
+    }
+
+    /**
+     * Builds the tree from elements sorted by increasing key. Leaves and
+     * internal nodes are filled level by level, without any splits.
+     * @param sorted, the elements in increasing key order
+     * @throws IllegalStateException if the tree is not empty
+     * @throws IllegalArgumentException if the keys are not strictly increasing
+     */
+    public void bulkLoad(E[] sorted) {
+        if(currentSize != 0)
+            throw new IllegalStateException("Bulk load requires an empty tree");
+        if(sorted.length == 0)
+            return;
+
+        for(int i = 1; i < sorted.length; i++)
+            if(order(sorted[i - 1].intKey()) >= order(sorted[i].intKey()))
+                throw new IllegalArgumentException("Keys are not strictly increasing at " + i);
+
+        // Spread the elements evenly so every leaf is at least half full
+        int leaves = (sorted.length + ORDER - 1) / ORDER;
+        Node[] level = new Node[leaves];
+        int[] lowKeys = new int[leaves];
+        Leaf previous = null;
+
+        for(int i = 0, index = 0; i < leaves; i++) {
+            Leaf leaf = new Leaf();
+            int count = (sorted.length - index) / (leaves - i);
+            for(int j = 0; j < count; j++, index++) {
+                leaf.keys[j] = order(sorted[index].intKey());
+                leaf.values[j] = sorted[index];
+            }
+            leaf.count = count;
+            leaf.previous = previous;
+            if(previous != null)
+                previous.next = leaf;
+            previous = leaf;
+            level[i] = leaf;
+            lowKeys[i] = leaf.keys[0];
+        }
+
+        // Build internal levels until a single root remains
+        while(level.length > 1) {
+            int parents = (level.length + ORDER) / (ORDER + 1);
+            Node[] upper = new Node[parents];
+            int[] upperKeys = new int[parents];
+
+            for(int i = 0, index = 0; i < parents; i++) {
+                Inner inner = new Inner();
+                int count = (level.length - index) / (parents - i);
+                upperKeys[i] = lowKeys[index];
+                for(int j = 0; j < count; j++, index++) {
+                    inner.children[j] = level[index];
+                    if(j > 0)
+                        inner.keys[j - 1] = lowKeys[index];
+                }
+                inner.count = count - 1;
+                upper[i] = inner;
+            }
+            level = upper;
+            lowKeys = upperKeys;
+        }
+        root = level[0];
+        currentSize = sorted.length;
+    }
+
+    /**
+     * Adds an element to the tree, replacing any element with the same key.
+     * @param obj, the element to be added
+     * @return true if the element was added
+     */
+    public boolean add(E obj) {
+        int key = order(obj.intKey());
+        Node split = insert(root, key, obj);
+
+        // Grow a new root above the old one
+        if(split != null) {
+            Inner newRoot = new Inner();
+            newRoot.keys[0] = promoted;
+            newRoot.children[0] = root;
+            newRoot.children[1] = split;
+            newRoot.count = 1;
+            root = newRoot;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the element with the same key as the object entered
+     * @param obj, the probe to be searched for
+     * @return E, the element found, null if not found
+     */
+    public E get(E obj) {
+        return get(obj.intKey());
+    }
+
+    /**
+     * Gets the element stored under a key
+     * @param key, the unsigned 32-bit key to be searched for
+     * @return E, the element found, null if not found
+     */
+    public E get(int key) {
+        key = order(key);
+        Leaf leaf = findLeaf(key);
+
+        for(int i = 0; i < leaf.count; i++)
+            if(leaf.keys[i] == key)
+                return (E) leaf.values[i];
+        return null;
+    }
+
+    /**
+     * Gets the largest element whose key is less than or equal to the key
+     * of the object entered
+     * @param obj, the probe to be searched for
+     * @return E, the floor element, null if no such element exists
+     */
+    public E floor(E obj) {
+        return floor(obj.intKey());
+    }
+
+    /**
+     * Gets the element with the largest key that is less than or equal to
+     * the key entered. Used for range lookups, where the keys are the
+     * first address of each block.
+     * @param key, the unsigned 32-bit key to be searched for
+     * @return E, the floor element, null if no such element exists
+     */
+    public E floor(int key) {
+        key = order(key);
+        Leaf leaf = findLeaf(key);
+        int i = upperBound(leaf, key) - 1;
+
+        // Separators may be stale after deletes, so step back a leaf if needed
+        if(i < 0) {
+            leaf = leaf.previous;
+            if(leaf == null)
+                return null;
+            i = leaf.count - 1;
+        }
+        return (E) leaf.values[i];
+    }
+
+    /**
+     * Removes the element with the same key as the object entered
+     * @param obj, the probe to be removed
+     * @return E, the element removed, null if not found
+     */
+    public E delete(E obj) {
+        return remove(obj.intKey());
+    }
+
+    /**
+     * Removes the element stored under a key
+     * @param key, the unsigned 32-bit key to be removed
+     * @return E, the element removed, null if not found
+     */
+    public E remove(int key) {
+        removed = null;
+        delete(root, order(key));
+
+        // Shrink the tree when the root has a single child
+        if(root instanceof Inner && root.count == 0)
+            root = ((Inner) root).children[0];
+
+        E tmp = (E) removed;
+        removed = null;
+        return tmp;
+    }
+
+    /**
+     * Returns the number of elements stored in the tree
+     * @return int, the number of elements in the tree
+     */
+    public int size() {
+        return currentSize;
+    }
+
+    /**
+     * Checks to see if the tree is currently empty
+     * @return true if the tree is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return currentSize == 0;
+    }
+
+    /**
+     * Restores the tree back to an empty state
+     */
+    public void clear() {
+        root = new Leaf();
+        currentSize = 0;
+    }
+
+    /**
+     * Returns the height of the tree, counting a lone leaf as zero
+     * @return int, the number of internal levels
+     */
+    public int height() {
+        int height = 0;
+        for(Node node = root; node instanceof Inner; node = ((Inner) node).children[0])
+            height++;
+        return height;
+    }
+
+    /**
+     * Returns an iterator of the elements in increasing key order
+     * @return an iterator that walks the linked leaves
+     */
+    public Iterator<E> iterator() {
+        Node node = root;
+        while(node instanceof Inner)
+            node = ((Inner) node).children[0];
+        return new LeafIterator((Leaf) node, 0, 0, false);
+    }
+
+    /**
+     * Returns an iterator of the elements whose keys are greater than or
+     * equal to lo and less than hi, in increasing key order.
+     * @param lo, the inclusive lower bound
+     * @param hi, the exclusive upper bound
+     * @return an iterator that walks the linked leaves
+     */
+    public Iterator<E> range(int lo, int hi) {
+        lo = order(lo);
+        Leaf leaf = findLeaf(lo);
+        int i = 0;
+
+        while(i < leaf.count && leaf.keys[i] < lo)
+            i++;
+        return new LeafIterator(leaf, i, order(hi), true);
+    }
+
+    /**
+     * Verifies the structure of the whole tree: key ordering, node fill,
+     * uniform leaf depth, the leaf links and the element count.
+     * @throws IllegalStateException if any invariant is broken
+     */
+    public void checkInvariants() {
+        int count = 0;
+        Leaf previous = null;
+        Node node = root;
+
+        checkNode(root, Integer.MIN_VALUE, Integer.MAX_VALUE, height());
+        while(node instanceof Inner)
+            node = ((Inner) node).children[0];
+        for(Leaf leaf = (Leaf) node; leaf != null; leaf = leaf.next) {
+            if(leaf.previous != previous)
+                throw new IllegalStateException("Bad leaf link");
+            if(previous != null && previous.keys[previous.count - 1] >= leaf.keys[0])
+                throw new IllegalStateException("Leaves out of order");
+            count += leaf.count;
+            previous = leaf;
+        }
+        if(count != currentSize)
+            throw new IllegalStateException("Size is " + currentSize +
+                    " but leaves hold " + count + " elements");
+    }
+
+    // Checks a node's keys lie within [lo, hi] and recurses into children
+    private void checkNode(Node node, int lo, int hi, int depth) {
+        if(node != root && node.count < MIN_KEYS)
+            throw new IllegalStateException("Underfull node");
+        for(int i = 0; i < node.count; i++)
+            if(node.keys[i] < lo || node.keys[i] > hi ||
+                    (i > 0 && node.keys[i - 1] >= node.keys[i]))
+                throw new IllegalStateException("Keys out of order");
+
+        if(node instanceof Leaf) {
+            if(depth != 0)
+                throw new IllegalStateException("Leaves at different depths");
+            return;
+        }
+        Inner inner = (Inner) node;
+        for(int i = 0; i <= inner.count; i++) {
+            int childLo = i == 0 ? lo : inner.keys[i - 1];
+            int childHi = i == inner.count ? hi : inner.keys[i] - 1;
+            checkNode(inner.children[i], childLo, childHi, depth - 1);
+        }
+    }
+
+    // Maps an unsigned key onto the signed int order used inside the nodes
+    private static int order(int key) {
+        return key ^ Integer.MIN_VALUE;
+    }
+
+    // Returns the number of keys in a node that are less than or equal to key
+    private static int upperBound(Node node, int key) {
+        int i = 0;
+        while(i < node.count && node.keys[i] <= key)
+            i++;
+        return i;
+    }
+
+    // Walks from the root down to the leaf whose range contains key
+    private Leaf findLeaf(int key) {
+        Node node = root;
+        while(node instanceof Inner)
+            node = ((Inner) node).children[upperBound(node, key)];
+        return (Leaf) node;
+    }
+
+    /**
+     * Helper function that recursively inserts a key into the subtree below
+     * a node. Full nodes are split on the way back up.
+     * @param node, the root of the subtree
+     * @param key, the ordered key to be inserted
+     * @param obj, the element stored with the key
+     * @return the new right sibling if the node was split, null otherwise.
+     * The separator key for the new sibling is left in promoted.
+     */
+    private Node insert(Node node, int key, E obj) {
+        if(node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            int i = 0;
+            while(i < leaf.count && leaf.keys[i] < key)
+                i++;
+
+            // Key is already in the tree, override it's element
+            if(i < leaf.count && leaf.keys[i] == key) {
+                leaf.values[i] = obj;
+                return null;
+            }
+            currentSize++;
+            if(leaf.count < ORDER) {
+                insertAt(leaf, i, key, obj);
+                return null;
+            }
+
+            Leaf right = splitLeaf(leaf);
+            if(i < MIN_KEYS)
+                insertAt(leaf, i, key, obj);
+            else
+                insertAt(right, i - MIN_KEYS, key, obj);
+            promoted = right.keys[0];
+            return right;
+        }
+
+        Inner inner = (Inner) node;
+        int index = upperBound(inner, key);
+        Node child = insert(inner.children[index], key, obj);
+        if(child == null)
+            return null;
+        int separator = promoted;
+
+        if(inner.count < ORDER) {
+            insertAt(inner, index, separator, child);
+            return null;
+        }
+
+        // Split a full internal node, moving the middle of its keys and the 
+        // new separator up a level so both halves end up at least half full
+        Inner right = new Inner();
+        int middle, keep = index < MIN_KEYS ? MIN_KEYS - 1 : MIN_KEYS;
+        int from = index > MIN_KEYS ? MIN_KEYS + 1 : MIN_KEYS;
+        
+        if(index < MIN_KEYS)
+            middle = inner.keys[MIN_KEYS - 1];
+        else if(index == MIN_KEYS)
+            middle = separator;
+        else
+            middle = inner.keys[MIN_KEYS];
+        right.count = ORDER - from;
+        System.arraycopy(inner.keys, from, right.keys, 0, right.count);
+        if(index == MIN_KEYS) {
+            right.children[0] = child;
+            System.arraycopy(inner.children, keep + 1, right.children, 1, right.count);
+        }
+        else
+            System.arraycopy(inner.children, keep + 1, right.children, 0, right.count + 1);
+        for(int i = keep + 1; i <= ORDER; i++)
+            inner.children[i] = null;
+        inner.count = keep;
+        
+        if(index < MIN_KEYS)
+            insertAt(inner, index, separator, child);
+        else if(index > MIN_KEYS)
+            insertAt(right, index - MIN_KEYS - 1, separator, child);
+        promoted = middle;
+        return right;
+    }
+
+    // Moves the upper half of a full leaf into a new right sibling
+    private Leaf splitLeaf(Leaf leaf) {
+        Leaf right = new Leaf();
+        right.count = ORDER - MIN_KEYS;
+        System.arraycopy(leaf.keys, MIN_KEYS, right.keys, 0, right.count);
+        System.arraycopy(leaf.values, MIN_KEYS, right.values, 0, right.count);
+        for(int i = MIN_KEYS; i < ORDER; i++)
+            leaf.values[i] = null;
+        leaf.count = MIN_KEYS;
+
+        right.next = leaf.next;
+        right.previous = leaf;
+        if(leaf.next != null)
+            leaf.next.previous = right;
+        leaf.next = right;
+        return right;
+    }
+
+    private static void insertAt(Leaf leaf, int i, int key, Object obj) {
+        System.arraycopy(leaf.keys, i, leaf.keys, i + 1, leaf.count - i);
+        System.arraycopy(leaf.values, i, leaf.values, i + 1, leaf.count - i);
+        leaf.keys[i] = key;
+        leaf.values[i] = obj;
+        leaf.count++;
+    }
+
+    // Inserts a separator key at i and the child to its right at i + 1
+    private static void insertAt(Inner inner, int i, int key, Node child) {
+        System.arraycopy(inner.keys, i, inner.keys, i + 1, inner.count - i);
+        System.arraycopy(inner.children, i + 1, inner.children, i + 2, inner.count - i);
+        inner.keys[i] = key;
+        inner.children[i + 1] = child;
+        inner.count++;
+    }
+
+    // Removes the separator key at i and the child to its right at i + 1
+    private static void removeAt(Inner inner, int i) {
+        System.arraycopy(inner.keys, i + 1, inner.keys, i, inner.count - i - 1);
+        System.arraycopy(inner.children, i + 2, inner.children, i + 1, inner.count - i - 1);
+        inner.children[inner.count] = null;
+        inner.count--;
+    }
+
+    /**
+     * Helper function that recursively removes a key from the subtree below
+     * a node. The removed element is left in removed, and children that fall
+     * below half full are refilled from a sibling on the way back up.
+     * @param node, the root of the subtree
+     * @param key, the ordered key to be removed
+     */
+    private void delete(Node node, int key) {
+        if(node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            for(int i = 0; i < leaf.count; i++) {
+                if(leaf.keys[i] == key) {
+                    removed = leaf.values[i];
+                    System.arraycopy(leaf.keys, i + 1, leaf.keys, i, leaf.count - i - 1);
+                    System.arraycopy(leaf.values, i + 1, leaf.values, i, leaf.count - i - 1);
+                    leaf.values[--leaf.count] = null;
+                    currentSize--;
+                    return;
+                }
+            }
+            return;
+        }
+
+        Inner inner = (Inner) node;
+        int index = upperBound(inner, key);
+        delete(inner.children[index], key);
+        if(removed != null && inner.children[index].count < MIN_KEYS)
+            refill(inner, index);
+    }
+
+    /**
+     * Refills an underfull child by borrowing a key from a sibling, or merges
+     * it with a sibling when neither can spare one.
+     * @param parent, the parent of the underfull child
+     * @param index, the position of the child within the parent
+     */
+    private void refill(Inner parent, int index) {
+        Node child = parent.children[index];
+        Node left = index > 0 ? parent.children[index - 1] : null;
+        Node right = index < parent.count ? parent.children[index + 1] : null;
+
+        if(left != null && left.count > MIN_KEYS)
+            borrowLeft(parent, index, left, child);
+        else if(right != null && right.count > MIN_KEYS)
+            borrowRight(parent, index, child, right);
+        else if(left != null)
+            merge(parent, index - 1, left, child);
+        else
+            merge(parent, index, child, right);
+    }
+
+    // Moves the last key of the left sibling to the front of the child
+    private void borrowLeft(Inner parent, int index, Node left, Node child) {
+        if(child instanceof Leaf) {
+            Leaf from = (Leaf) left;
+            insertAt((Leaf) child, 0, from.keys[from.count - 1], from.values[from.count - 1]);
+            from.values[--from.count] = null;
+            parent.keys[index - 1] = child.keys[0];
+            return;
+        }
+        Inner from = (Inner) left, to = (Inner) child;
+        System.arraycopy(to.keys, 0, to.keys, 1, to.count);
+        System.arraycopy(to.children, 0, to.children, 1, to.count + 1);
+        to.keys[0] = parent.keys[index - 1];
+        to.children[0] = from.children[from.count];
+        to.count++;
+        parent.keys[index - 1] = from.keys[from.count - 1];
+        from.children[from.count] = null;
+        from.count--;
+    }
+
+    // Moves the first key of the right sibling to the end of the child
+    private void borrowRight(Inner parent, int index, Node child, Node right) {
+        if(child instanceof Leaf) {
+            Leaf from = (Leaf) right, to = (Leaf) child;
+            insertAt(to, to.count, from.keys[0], from.values[0]);
+            System.arraycopy(from.keys, 1, from.keys, 0, from.count - 1);
+            System.arraycopy(from.values, 1, from.values, 0, from.count - 1);
+            from.values[--from.count] = null;
+            parent.keys[index] = from.keys[0];
+            return;
+        }
+        Inner from = (Inner) right, to = (Inner) child;
+        to.keys[to.count] = parent.keys[index];
+        to.children[to.count + 1] = from.children[0];
+        to.count++;
+        parent.keys[index] = from.keys[0];
+        System.arraycopy(from.keys, 1, from.keys, 0, from.count - 1);
+        System.arraycopy(from.children, 1, from.children, 0, from.count);
+        from.children[from.count] = null;
+        from.count--;
+    }
+
+    // Appends the right node onto the left node and drops the separator
+    // between them from the parent
+    private void merge(Inner parent, int index, Node left, Node right) {
+        if(left instanceof Leaf) {
+            Leaf to = (Leaf) left, from = (Leaf) right;
+            System.arraycopy(from.keys, 0, to.keys, to.count, from.count);
+            System.arraycopy(from.values, 0, to.values, to.count, from.count);
+            to.count += from.count;
+            to.next = from.next;
+            if(from.next != null)
+                from.next.previous = to;
+        }
+        else {
+            Inner to = (Inner) left, from = (Inner) right;
+            to.keys[to.count] = parent.keys[index];
+            System.arraycopy(from.keys, 0, to.keys, to.count + 1, from.count);
+            System.arraycopy(from.children, 0, to.children, to.count + 1, from.count + 1);
+            to.count += from.count + 1;
+        }
+        removeAt(parent, index);
+    }
+
+    /*
+     * Node classes. Keys are kept in the signed order produced by order(),
+     * so plain int comparisons sort them as unsigned values.
+     */
+    private static abstract class Node {
+        final int[] keys = new int[ORDER];
+        int count;
+    }
+
+    private static final class Leaf extends Node {
+        final Object[] values = new Object[ORDER];
+        Leaf next, previous;
+    }
+
+    private static final class Inner extends Node {
+        final Node[] children = new Node[ORDER + 1];
+    }
+
+    private class LeafIterator implements Iterator<E> {
+        private Leaf leaf;
+        private int index;
+        private final int hi;
+        private final boolean bounded;
+
+        public LeafIterator(Leaf leaf, int index, int hi, boolean bounded) {
+            this.leaf = leaf;
+            this.index = index;
+            this.hi = hi;
+            this.bounded = bounded;
+            skipEmpty();
+        }
+
+        public boolean hasNext() {
+            return leaf != null && (!bounded || leaf.keys[index] < hi);
+        }
+
+        public E next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            E tmp = (E) leaf.values[index++];
+            skipEmpty();
+            return tmp;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        // Moves on to the next leaf once the current one is used up
+        private void skipEmpty() {
+            while(leaf != null && index >= leaf.count) {
+                leaf = leaf.next;
+                index = 0;
+            }
+        }
+    }
+}
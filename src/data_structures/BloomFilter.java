@@ -0,0 +1,134 @@
+package data_structures;
+
+/**
+ * Blocked Bloom filter over LongHashed elements. Answers whether an
+ * element may be in a set, with no false negatives and a chosen rate of
+ * false positives, in a few bits per element.
+ *
+ * The bits are split into 512-bit blocks of 64 contiguous bytes. All
+ * the bits of an element fall in the block picked by the high half of its
+ * hash, so a query touches one block, at most two cache lines, however
+ * many bits it tests. Bits are only ever set, so elements can be added
+ * but not removed; a filter for a set that shrinks has to be rebuilt.
+ *
+ * @author Ruben Ramirez
+ * @param <E> the type of elements in the filter
+ */
+
+public class BloomFilter<E extends LongHashed> {
+    // 64-bit words per block, 512 bits in all
+    private static final int BLOCK_WORDS = 8;
+    private static final int MAX_HASHES = 16;
+    // Blocks fill unevenly, so they need a little more room than a plain filter
+    private static final double BLOCK_OVERHEAD = 1.2;
+
+    private final long[] bits;
+    private final int blocks;
+    private final int hashes;
+    private final int capacity;
+    private int count;
+
+    /**
+     * Creates an empty filter sized for a number of elements
+     * @param capacity, the number of elements the rate holds for
+     * @param falsePositiveRate, the fraction of absent elements let through
+     * @throws IllegalArgumentException if the rate is not in (0, 1) or the
+     * capacity is negative
+     */
+    public BloomFilter(int capacity, double falsePositiveRate) {
+        if(!(falsePositiveRate > 0 && falsePositiveRate < 1))
+            throw new IllegalArgumentException("False positive rate must be in (0, 1): " +
+                    falsePositiveRate);
+        if(capacity < 0)
+            throw new IllegalArgumentException("Negative capacity: " + capacity);
+
+        double bitsPerElement = -Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        long total = (long) Math.ceil(Math.max(1, capacity) * bitsPerElement * BLOCK_OVERHEAD);
+        long blockCount = (total + 64 * BLOCK_WORDS - 1) / (64 * BLOCK_WORDS);
+        if(blockCount * BLOCK_WORDS > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Filter too large for " + capacity + " elements");
+
+        this.blocks = (int) blockCount;
+        this.bits = new long[blocks * BLOCK_WORDS];
+        this.hashes = Math.max(1, Math.min(MAX_HASHES, (int) Math.round(bitsPerElement * Math.log(2))));
+        this.capacity = capacity;
+        this.count = 0;
+    }
+
+    /**
+     * Builds a filter holding every element of a collection
+     * @param elements, the elements to be added
+     * @param count, the number of elements, used to size the filter
+     * @param falsePositiveRate, the fraction of absent elements let through
+     * @return BloomFilter<E>, the filled filter
+     */
+    public static <E extends LongHashed> BloomFilter<E> of(Iterable<? extends E> elements,
+            int count, double falsePositiveRate) {
+        BloomFilter<E> filter = new BloomFilter<>(count, falsePositiveRate);
+        for(E element : elements)
+            filter.add(element);
+        return filter;
+    }
+
+    /**
+     * Sets the bits of an element
+     * @param obj, the element to be added
+     */
+    public void add(E obj) {
+        long hash = obj.longHash();
+        int base = block(hash), a = (int) hash, b = step(hash);
+
+        for(int i = 0; i < hashes; i++, a += b)
+            bits[base + ((a >>> 23) >>> 6)] |= 1L << (a >>> 23);
+        count++;
+    }
+
+    /**
+     * Tests the bits of an element
+     * @param obj, the element to be tested
+     * @return false if the element was never added, true if it may have been
+     */
+    public boolean mightContain(E obj) {
+        long hash = obj.longHash();
+        int base = block(hash), a = (int) hash, b = step(hash);
+
+        for(int i = 0; i < hashes; i++, a += b)
+            if((bits[base + ((a >>> 23) >>> 6)] & (1L << (a >>> 23))) == 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the number of elements added
+     * @return int, the elements added since the filter was created
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Returns the number of elements the filter was sized for
+     * @return int, the capacity
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the size of the filter
+     * @return int, the number of bits
+     */
+    public int sizeInBits() {
+        return bits.length * 64;
+    }
+
+    // First word of the block picked by the high half of a hash
+    private int block(long hash) {
+        return (int) (((hash >>> 32) * blocks) >>> 32) * BLOCK_WORDS;
+    }
+
+    // Odd stride between the bits of an element, from a remix of its hash
+    private static int step(long hash) {
+        return (int) ((hash * 0x9E3779B97F4A7C15L) >>> 32) | 1;
+    }
+}
@@ -0,0 +1,92 @@
+package data_structures;
+
+import java.util.Iterator;
+
+/**
+ * Decorator that counts the lookups going through an index. Every get and
+ * floor counts the key asked for as a client, and the key of the element
+ * found as a block, in two HeavyHitters trackers, so the hottest clients
+ * and blocks can be read at any time in bounded memory. Counting takes no
+ * locks, so the decorator is as thread safe as the index it wraps.
+ *
+ * @author Ruben Ramirez
+ * @param <E> the type of elements stored in the index
+ */
+
+public class CountingIndex<E extends IntKeyed> implements OrderedIndex<E> {
+    private final OrderedIndex<E> index;
+    private final HeavyHitters clients;
+    private final HeavyHitters blocks;
+
+    /**
+     * Wraps an index, tracking up to a number of candidates of each kind
+     * @param index, the index the lookups go to
+     * @param capacity, the number of candidate clients and blocks kept
+     */
+    public CountingIndex(OrderedIndex<E> index, int capacity) {
+        this(index, new HeavyHitters(capacity, 1e-4, 1e-3), new HeavyHitters(capacity, 1e-4, 1e-3));
+    }
+
+    /**
+     * Wraps an index, counting into the trackers given
+     * @param index, the index the lookups go to
+     * @param clients, the tracker of the keys looked up
+     * @param blocks, the tracker of the keys of the elements found
+     */
+    public CountingIndex(OrderedIndex<E> index, HeavyHitters clients, HeavyHitters blocks) {
+        this.index = index;
+        this.clients = clients;
+        this.blocks = blocks;
+    }
+
+    public boolean add(E obj) {
+        return index.add(obj);
+    }
+
+    public E get(E obj) {
+        return count(obj, index.get(obj));
+    }
+
+    public E floor(E obj) {
+        return count(obj, index.floor(obj));
+    }
+
+    public E delete(E obj) {
+        return index.delete(obj);
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    public Iterator<E> iterator() {
+        return index.iterator();
+    }
+
+    /**
+     * Returns the tracker of the keys looked up
+     * @return HeavyHitters, the client counts
+     */
+    public HeavyHitters clients() {
+        return clients;
+    }
+
+    /**
+     * Returns the tracker of the keys of the elements found
+     * @return HeavyHitters, the block counts
+     */
+    public HeavyHitters blocks() {
+        return blocks;
+    }
+
+    private E count(E probe, E found) {
+        clients.add(probe.intKey());
+        if(found != null)
+            blocks.add(found.intKey());
+        return found;
+    }
+}
@@ -0,0 +1,310 @@
+package data_structures;
+
+import java.util.Arrays;
+
+/**
+ * Splay tree whose entries expire. Each key carries an expiry time, and
+ * once that time has passed the entry is invisible to lookups, as if it
+ * had been removed. Entries are also kept in a binary min-heap on their
+ * expiry times, so the ones due are always at its top and are cleaned up
+ * a few at a time: every put removes up to two expired entries, a lookup
+ * that meets an expired entry removes it, and expire() takes a budget for
+ * callers that want to clean up on a timer. Each expiry costs O(log n)
+ * amortized, and no call ever walks the whole tree.
+ *
+ * Time comes from a Clock, the system clock in milliseconds by default.
+ * A tree is used by one thread at a time.
+ *
+ * @author Ruben Ramirez
+ * @param <K> the type of keys in the tree
+ * @param <V> the type of values stored with the keys
+ */
+
+public class ExpiringTree<K,V> {
+
+    /**
+     * Source of the current time, in any unit as long as expiry times use
+     * the same one
+     */
+    public interface Clock {
+        long now();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        public long now() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    // Expired entries removed by each put, enough to outpace the inserts
+    private static final int CLEANUP_PER_PUT = 2;
+
+    private final SplayTree<K, Entry<K,V>> tree = new SplayTree<>();
+    private final Clock clock;
+    @SuppressWarnings("unchecked")
+    private Entry<K,V>[] heap = (Entry<K,V>[]) new Entry<?,?>[16];
+    private int heapSize = 0;
+
+    public ExpiringTree() {
+        this(SYSTEM_CLOCK);
+    }
+
+    /**
+     * Creates an empty tree that reads the time from a clock
+     * @param clock, the source of the current time
+     */
+    public ExpiringTree(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Associates a value with a key for a length of time, replacing any
+     * value and expiry the key had
+     * @param key, the key
+     * @param value, the value to be stored with the key
+     * @param ttl, how long the entry lives, in the unit of the clock
+     * @throws IllegalArgumentException if the time to live is not positive
+     */
+    public void put(K key, V value, long ttl) {
+        if(ttl <= 0)
+            throw new IllegalArgumentException("Time to live must be positive: " + ttl);
+        putUntil(key, value, clock.now() + ttl);
+    }
+
+    /**
+     * Associates a value with a key until a point in time, replacing any
+     * value and expiry the key had
+     * @param key, the key
+     * @param value, the value to be stored with the key
+     * @param expiresAt, the time from which the entry is expired
+     */
+    public void putUntil(K key, V value, long expiresAt) {
+        expire(CLEANUP_PER_PUT);
+
+        Entry<K,V> entry = tree.getValue(key);
+        if(entry == null) {
+            entry = new Entry<>(key, value, expiresAt);
+            tree.add(key, entry);
+            if(heapSize == heap.length)
+                heap = Arrays.copyOf(heap, 2 * heapSize);
+            entry.slot = heapSize++;
+            heap[entry.slot] = entry;
+            siftUp(entry.slot);
+        }
+        else {
+            long previous = entry.expiresAt;
+            entry.value = value;
+            entry.expiresAt = expiresAt;
+            if(expiresAt < previous)
+                siftUp(entry.slot);
+            else
+                siftDown(entry.slot);
+        }
+    }
+
+    /**
+     * Gets the value of a key that has not expired. An expired entry that
+     * is found is removed.
+     * @param key, the key to be searched for
+     * @return V, the value of the key, null if it is absent or expired
+     */
+    public V get(K key) {
+        Entry<K,V> entry = tree.getValue(key);
+        if(entry == null || expired(entry))
+            return null;
+        return entry.value;
+    }
+
+    /**
+     * Checks to see if a key is present and not expired
+     * @param key, the key to be searched for
+     * @return true if the key is live, false otherwise
+     */
+    public boolean contains(K key) {
+        Entry<K,V> entry = tree.getValue(key);
+        return entry != null && !expired(entry);
+    }
+
+    /**
+     * Gets the largest live key less than or equal to the key entered.
+     * Expired entries met on the way are removed.
+     * @param key, the key to be searched for
+     * @return K, the floor of the key, null if no such key exists
+     */
+    public K floor(K key) {
+        Entry<K,V> entry = floorEntry(key);
+        return entry == null ? null : entry.key;
+    }
+
+    /**
+     * Gets the value of the largest live key less than or equal to the key
+     * entered. Used for range lookups, where the keys are the first
+     * address of each block.
+     * @param key, the key to be searched for
+     * @return V, the value of the floor, null if no such key exists
+     */
+    public V floorValue(K key) {
+        Entry<K,V> entry = floorEntry(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Returns the expiry time of a live key
+     * @param key, the key to be searched for
+     * @return long, the time from which the key is expired, -1 if it is
+     * absent or already expired
+     */
+    public long expiresAt(K key) {
+        Entry<K,V> entry = tree.getValue(key);
+        if(entry == null || expired(entry))
+            return -1;
+        return entry.expiresAt;
+    }
+
+    /**
+     * Removes a key and its value, whether or not it has expired
+     * @param key, the key to be removed
+     * @return V, the value of the key, null if it was absent or expired
+     */
+    public V remove(K key) {
+        Entry<K,V> entry = tree.getValue(key);
+        if(entry == null)
+            return null;
+        boolean live = entry.expiresAt > clock.now();
+        unlink(entry);
+        return live ? entry.value : null;
+    }
+
+    /**
+     * Removes entries that have expired, soonest first, up to a budget
+     * @param limit, the largest number of entries to remove
+     * @return int, the number of entries removed
+     */
+    public int expire(int limit) {
+        long now = clock.now();
+        int removed = 0;
+
+        while(removed < limit && heapSize > 0 && heap[0].expiresAt <= now) {
+            unlink(heap[0]);
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the number of entries held, including expired entries that
+     * have not been cleaned up yet
+     * @return int, the number of entries
+     */
+    public int size() {
+        return heapSize;
+    }
+
+    /**
+     * Checks to see if the tree holds no entries, expired or not
+     * @return true if there are no entries, false otherwise
+     */
+    public boolean isEmpty() {
+        return heapSize == 0;
+    }
+
+    /**
+     * Verifies the splay tree, the heap order and that the tree and the
+     * heap hold the same entries.
+     * @throws IllegalStateException if any invariant is broken
+     */
+    public void checkInvariants() {
+        tree.checkInvariants();
+        if(tree.size() != heapSize)
+            throw new IllegalStateException("Tree holds " + tree.size() +
+                    " entries but the heap " + heapSize);
+        for(int i = 0; i < heapSize; i++) {
+            Entry<K,V> entry = heap[i];
+            if(entry.slot != i)
+                throw new IllegalStateException("Bad heap slot at " + entry.key);
+            if(i > 0 && heap[(i - 1) / 2].expiresAt > entry.expiresAt)
+                throw new IllegalStateException("Heap out of order at " + entry.key);
+            if(tree.getValue(entry.key) != entry)
+                throw new IllegalStateException("Heap entry not in the tree: " + entry.key);
+        }
+    }
+
+    // Finds the floor entry, removing expired entries until a live one
+    private Entry<K,V> floorEntry(K key) {
+        while(true) {
+            Entry<K,V> entry = tree.floorValue(key);
+            if(entry == null || !expired(entry))
+                return entry;
+        }
+    }
+
+    // Removes an entry if it has expired
+    private boolean expired(Entry<K,V> entry) {
+        if(entry.expiresAt > clock.now())
+            return false;
+        unlink(entry);
+        return true;
+    }
+
+    // Removes an entry from the tree and the heap
+    private void unlink(Entry<K,V> entry) {
+        tree.remove(entry.key);
+
+        int slot = entry.slot;
+        Entry<K,V> last = heap[--heapSize];
+        heap[heapSize] = null;
+        if(slot < heapSize) {
+            heap[slot] = last;
+            last.slot = slot;
+            siftDown(slot);
+            siftUp(last.slot);
+        }
+        entry.slot = -1;
+    }
+
+    private void siftUp(int slot) {
+        Entry<K,V> entry = heap[slot];
+        while(slot > 0) {
+            int parent = (slot - 1) / 2;
+            if(heap[parent].expiresAt <= entry.expiresAt)
+                break;
+            heap[slot] = heap[parent];
+            heap[slot].slot = slot;
+            slot = parent;
+        }
+        heap[slot] = entry;
+        entry.slot = slot;
+    }
+
+    private void siftDown(int slot) {
+        Entry<K,V> entry = heap[slot];
+        while(2 * slot + 1 < heapSize) {
+            int child = 2 * slot + 1;
+            if(child + 1 < heapSize && heap[child + 1].expiresAt < heap[child].expiresAt)
+                child++;
+            if(heap[child].expiresAt >= entry.expiresAt)
+                break;
+            heap[slot] = heap[child];
+            heap[slot].slot = slot;
+            slot = child;
+        }
+        heap[slot] = entry;
+        entry.slot = slot;
+    }
+
+    /*
+     * Value of a key with its expiry time and its position in the heap.
+     */
+    private static class Entry<K,V> {
+        private final K key;
+        private V value;
+        private long expiresAt;
+        private int slot;
+
+        public Entry(K key, V value, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
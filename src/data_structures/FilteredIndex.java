@@ -0,0 +1,142 @@
+package data_structures;
+
+import java.util.Iterator;
+
+/**
+ * Decorator that puts a BloomFilter in front of the exact lookups of an
+ * index, for membership tests where most keys asked for are absent, such
+ * as block-list checks. A key the filter rejects is answered without
+ * touching the index, so an absent key costs one cache line instead of a
+ * search, and with a SplayTree the tree is not reorganized around it.
+ * Floor lookups go straight to the index.
+ *
+ * Adds are added to the filter as well. Deletes cannot clear bits, so the
+ * filter is rebuilt from the index once the deleted keys it still holds
+ * reach a quarter of the index, or once adds take the index past the size
+ * the filter was built for, which keeps the false positive rate near the
+ * one asked for at an amortized O(1) cost per change. Like the index it
+ * wraps, the decorator is used by one thread at a time.
+ *
+ * @author Ruben Ramirez
+ * @param <E> the type of elements stored in the index
+ */
+
+public class FilteredIndex<E extends LongHashed> implements OrderedIndex<E> {
+    // Room left for adds when the filter is built, and the smallest filter
+    private static final double HEADROOM = 1.25;
+    private static final int MIN_CAPACITY = 64;
+
+    private final OrderedIndex<E> index;
+    private final double falsePositiveRate;
+    private BloomFilter<E> filter;
+    // Deleted keys whose bits are still set
+    private int stale;
+    private long rejected, falsePositives, rebuilds;
+
+    /**
+     * Wraps an index and builds a filter from its contents
+     * @param index, the index the lookups go to
+     * @param falsePositiveRate, the fraction of absent keys let through
+     */
+    public FilteredIndex(OrderedIndex<E> index, double falsePositiveRate) {
+        this.index = index;
+        this.falsePositiveRate = falsePositiveRate;
+        rebuild();
+    }
+
+    /**
+     * Builds a new filter from the current contents of the index
+     */
+    public void rebuild() {
+        int capacity = Math.max(MIN_CAPACITY, (int) Math.min(Integer.MAX_VALUE / 2,
+                (long) (index.size() * HEADROOM)));
+        filter = BloomFilter.of(index, capacity, falsePositiveRate);
+        stale = 0;
+        rebuilds++;
+    }
+
+    public boolean add(E obj) {
+        boolean added = index.add(obj);
+        filter.add(obj);
+        if(filter.count() > filter.capacity())
+            rebuild();
+        return added;
+    }
+
+    /**
+     * Checks to see if an element with the same key is in the index
+     * @param obj, the probe to be searched for
+     * @return true if the index holds the key, false otherwise
+     */
+    public boolean contains(E obj) {
+        return get(obj) != null;
+    }
+
+    public E get(E obj) {
+        if(!filter.mightContain(obj)) {
+            rejected++;
+            return null;
+        }
+        E found = index.get(obj);
+        if(found == null)
+            falsePositives++;
+        return found;
+    }
+
+    public E floor(E obj) {
+        return index.floor(obj);
+    }
+
+    public E delete(E obj) {
+        E removed = index.delete(obj);
+        if(removed != null && ++stale > Math.max(MIN_CAPACITY, index.size() / 4))
+            rebuild();
+        return removed;
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public boolean isEmpty() {
+        return index.isEmpty();
+    }
+
+    public Iterator<E> iterator() {
+        return index.iterator();
+    }
+
+    /**
+     * Returns the number of lookups answered by the filter alone
+     * @return long, the lookups rejected
+     */
+    public long rejected() {
+        return rejected;
+    }
+
+    /**
+     * Returns the fraction of lookups of absent keys that the filter let
+     * through to the index
+     * @return double, the observed false positive rate
+     */
+    public double falsePositiveRate() {
+        long absent = rejected + falsePositives;
+        return absent == 0 ? 0 : (double) falsePositives / absent;
+    }
+
+    /**
+     * Returns the number of times the filter has been built
+     * @return long, the builds including the first
+     */
+    public long rebuilds() {
+        return rebuilds;
+    }
+
+    /**
+     * Returns the size of the current filter
+     * @return int, the number of bits
+     */
+    public int filterBits() {
+        return filter.sizeInBits();
+    }
+}
@@ -0,0 +1,182 @@
+package data_structures;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Immutable index of IntKeyed elements over a flat array of keys in a
+ * blocked layout, a static B+ tree with no pointers. The sorted keys are
+ * cut into blocks of 16, 64 contiguous bytes, and above them sit
+ * levels of nodes of 16 separators each, every separator being the
+ * smallest key below its next child, so a node has 17 children found by
+ * arithmetic. All levels are stored in one int array, root first.
+ *
+ * A lookup reads one 64-byte node per level, a third as many levels as
+ * a binary search has steps, and within a node counts the keys not above
+ * the one searched for instead of branching on each, a fixed loop of 16
+ * compares that the JIT turns into conditional moves or vector code. Elements are ordered
+ * by the unsigned value of their keys; each key is stored once.
+ *
+ * @author Ruben Ramirez
+ * @param <E> the type of elements stored in the index
+ */
+
+public class FlatIndex<E extends IntKeyed> implements OrderedIndex<E> {
+    // Keys per node, 64 bytes of ints
+    private static final int B = 16;
+    private static final int PAD = Integer.MAX_VALUE;
+
+    private final E[] elements;
+    private final int[] tree;
+    // First int of each level, leaves at level 0, and the nodes in each
+    private final int[] offsets, nodes;
+    private final int height;
+
+    /**
+     * Builds the index from elements in strictly increasing key order
+     * @param sorted, the elements in increasing unsigned key order
+     * @throws IllegalArgumentException if the keys are not strictly increasing
+     */
+    public FlatIndex(E[] sorted) {
+        this.elements = sorted.clone();
+        int n = elements.length;
+        for(int i = 1; i < n; i++)
+            if(order(elements[i - 1].intKey()) >= order(elements[i].intKey()))
+                throw new IllegalArgumentException("Keys are not strictly increasing at " + i);
+
+        // Count the nodes of each level up to a single root
+        int levels = 1;
+        for(int count = blocks(n, B); count > 1; count = blocks(count, B + 1))
+            levels++;
+        this.height = levels;
+        this.nodes = new int[levels];
+        this.offsets = new int[levels];
+        nodes[0] = Math.max(1, blocks(n, B));
+        for(int level = 1; level < levels; level++)
+            nodes[level] = blocks(nodes[level - 1], B + 1);
+        int total = 0;
+        for(int level = levels - 1; level >= 0; level--) {
+            offsets[level] = total;
+            total += nodes[level] * B;
+        }
+        this.tree = new int[total];
+        Arrays.fill(tree, PAD);
+
+        for(int i = 0; i < n; i++)
+            tree[offsets[0] + i] = order(elements[i].intKey());
+
+        // Separator j of a node is the first key of the leftmost leaf below child j + 1
+        int span = 1;
+        for(int level = 1; level < levels; level++) {
+            for(int node = 0; node < nodes[level]; node++)
+                for(int j = 0; j < B; j++) {
+                    long leaf = ((long) node * (B + 1) + j + 1) * span;
+                    if(leaf < nodes[0] && leaf * B < n)
+                        tree[offsets[level] + node * B + j] = tree[offsets[0] + (int) leaf * B];
+                }
+            span *= B + 1;
+        }
+    }
+
+    /**
+     * Returns the position of the element with the largest key that is
+     * less than or equal to the key entered
+     * @param key, the unsigned 32-bit key to be searched for
+     * @return int, the position in key order, -1 if no such element exists
+     */
+    public int floorIndex(int key) {
+        key = order(key);
+        int node = 0;
+
+        for(int level = height - 1; level > 0; level--) {
+            int child = node * (B + 1) + rank(offsets[level] + node * B, key);
+            node = Math.min(child, nodes[level - 1] - 1);
+        }
+        int position = node * B + Math.min(rank(offsets[0] + node * B, key),
+                elements.length - node * B);
+        return position - 1;
+    }
+
+    /**
+     * Gets the element with the largest key that is less than or equal to
+     * the key entered. Used for range lookups, where the keys are the
+     * first address of each block.
+     * @param key, the unsigned 32-bit key to be searched for
+     * @return E, the floor element, null if no such element exists
+     */
+    public E floor(int key) {
+        int i = floorIndex(key);
+        return i < 0 ? null : elements[i];
+    }
+
+    /**
+     * Gets the element stored under a key
+     * @param key, the unsigned 32-bit key to be searched for
+     * @return E, the element found, null if not found
+     */
+    public E get(int key) {
+        int i = floorIndex(key);
+        return i >= 0 && tree[offsets[0] + i] == order(key) ? elements[i] : null;
+    }
+
+    public E get(E obj) {
+        return get(obj.intKey());
+    }
+
+    public E floor(E obj) {
+        return floor(obj.intKey());
+    }
+
+    /**
+     * The index is immutable
+     * @throws UnsupportedOperationException always
+     */
+    public boolean add(E obj) {
+        throw new UnsupportedOperationException("FlatIndex is immutable");
+    }
+
+    /**
+     * The index is immutable
+     * @throws UnsupportedOperationException always
+     */
+    public E delete(E obj) {
+        throw new UnsupportedOperationException("FlatIndex is immutable");
+    }
+
+    public int size() {
+        return elements.length;
+    }
+
+    public boolean isEmpty() {
+        return elements.length == 0;
+    }
+
+    public Iterator<E> iterator() {
+        return Arrays.asList(elements).iterator();
+    }
+
+    /**
+     * Returns the number of levels, including the leaves
+     * @return int, the height of the index
+     */
+    public int height() {
+        return height;
+    }
+
+    // Counts the keys of a node that are less than or equal to key
+    private int rank(int base, int key) {
+        int count = 0;
+        for(int i = base; i < base + B; i++)
+            count += tree[i] <= key ? 1 : 0;
+        return count;
+    }
+
+    private static int blocks(int count, int size) {
+        return (count + size - 1) / size;
+    }
+
+    // Maps an unsigned key onto the signed int order used in the array
+    private static int order(int key) {
+        return key ^ Integer.MIN_VALUE;
+    }
+}
@@ -0,0 +1,202 @@
+package data_structures;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks the most frequent 32-bit keys of a stream, such as packed IPv4
+ * addresses, in bounded memory. Any number of threads may add keys at
+ * once; every update is a handful of atomic increments and compare and
+ * sets, with no locks.
+ *
+ * Counts are estimated with a Count-Min sketch: depth rows of width
+ * counters, each key incrementing one counter per row, and the estimate
+ * being the smallest of its counters. An estimate is never below the
+ * true count, and is above it by at most epsilon times the number of
+ * keys added with probability 1 - delta.
+ *
+ * The candidates for the top keys are kept in a Space-Saving list split
+ * into small sets, like a set-associative cache. A key maps to one set,
+ * and a key that is not there takes the place of the set's smallest count
+ * once its own estimate is larger. Reported counts come from the sketch.
+ *
+ * @author Ruben Ramirez
+ */
+
+public class HeavyHitters {
+
+    // Candidates in each set of the list
+    private static final int SET_SIZE = 8;
+    // Counts stored with the candidates are capped to fit beside the key
+    private static final long COUNT_MASK = 0xFFFFFFFFL;
+    private static final int MAX_RETRIES = 4;
+
+    private final AtomicLongArray sketch;
+    private final long[] multipliers, offsets;
+    private final int widthBits, depth;
+    // Key in the high half, count in the low half, 0 for an empty slot
+    private final AtomicLongArray candidates;
+    private final int setMask;
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * Creates a tracker with room for a number of candidates
+     * @param capacity, the number of candidates kept, rounded up to whole sets
+     * @param epsilon, the error of the estimates as a fraction of all adds
+     * @param delta, the probability that an estimate exceeds that error
+     * @throws IllegalArgumentException if any parameter is out of range
+     */
+    public HeavyHitters(int capacity, double epsilon, double delta) {
+        if(capacity < 1 || capacity > 1 << 24)
+            throw new IllegalArgumentException("Capacity out of range: " + capacity);
+        if(!(epsilon > 0 && epsilon < 1) || !(delta > 0 && delta < 1))
+            throw new IllegalArgumentException("Epsilon and delta must be in (0, 1)");
+
+        this.widthBits = Integer.numberOfTrailingZeros(ceilingPowerOfTwo(
+                (int) Math.min(1 << 24, Math.ceil(Math.E / epsilon))));
+        this.depth = Math.max(1, (int) Math.ceil(Math.log(1 / delta)));
+        if((long) depth << widthBits > 1 << 26)
+            throw new IllegalArgumentException("Sketch too large for epsilon " + epsilon +
+                    " and delta " + delta);
+        this.sketch = new AtomicLongArray(depth << widthBits);
+
+        // Fixed seeds, so every tracker hashes the same way
+        Random random = new Random(0x5EED);
+        this.multipliers = new long[depth];
+        this.offsets = new long[depth];
+        for(int row = 0; row < depth; row++) {
+            multipliers[row] = random.nextLong() | 1;
+            offsets[row] = random.nextLong();
+        }
+
+        int sets = ceilingPowerOfTwo((capacity + SET_SIZE - 1) / SET_SIZE);
+        this.setMask = sets - 1;
+        this.candidates = new AtomicLongArray(sets * SET_SIZE);
+    }
+
+    /**
+     * Counts one occurrence of a key
+     * @param key, the key, such as a packed IPv4 address
+     */
+    public void add(int key) {
+        total.incrementAndGet();
+
+        long estimate = Long.MAX_VALUE;
+        for(int row = 0; row < depth; row++)
+            estimate = Math.min(estimate, sketch.incrementAndGet(cell(row, key)));
+        offer(key, Math.min(estimate, COUNT_MASK));
+    }
+
+    /**
+     * Returns the estimated number of occurrences of a key
+     * @param key, the key to be looked up
+     * @return long, an estimate that is never below the true count
+     */
+    public long estimate(int key) {
+        long estimate = Long.MAX_VALUE;
+        for(int row = 0; row < depth; row++)
+            estimate = Math.min(estimate, sketch.get(cell(row, key)));
+        return estimate;
+    }
+
+    /**
+     * Returns the keys with the largest estimated counts among the
+     * candidates, most frequent first
+     * @param k, the number of keys wanted
+     * @return int[], up to k keys
+     */
+    public int[] top(int k) {
+        // Sort by estimate, keeping the key in the low bits. Estimates are
+        // capped below the sign bit so the largest still sort last.
+        long[] ranked = new long[candidates.length()];
+        int count = 0;
+        for(int i = 0; i < candidates.length(); i++) {
+            long slot = candidates.get(i);
+            if((slot & COUNT_MASK) == 0)
+                continue;
+            int key = (int) (slot >>> 32);
+            ranked[count++] = (Math.min(estimate(key), Integer.MAX_VALUE) << 32) | (key & 0xFFFFFFFFL);
+        }
+        Arrays.sort(ranked, 0, count);
+
+        // A key can sit in two slots after racing inserts
+        int[] top = new int[Math.max(0, Math.min(k, count))];
+        int found = 0;
+        for(int i = count - 1; i >= 0 && found < top.length; i--) {
+            int key = (int) ranked[i], j = 0;
+            while(j < found && top[j] != key)
+                j++;
+            if(j == found)
+                top[found++] = key;
+        }
+        return Arrays.copyOf(top, found);
+    }
+
+    /**
+     * Returns the number of keys added
+     * @return long, the total count of all keys
+     */
+    public long total() {
+        return total.get();
+    }
+
+    /**
+     * Returns the number of counters and candidate slots, which bounds the
+     * memory used whatever the number of distinct keys
+     * @return int, the number of 64-bit cells
+     */
+    public int cells() {
+        return sketch.length() + candidates.length();
+    }
+
+    /*
+     * Updates a key in its candidate set, or lets it replace the smallest
+     * count of the set if its estimate is larger. Gives up after a few
+     * lost races, since the key will be offered again.
+     */
+    private void offer(int key, long estimate) {
+        int base = (mix(key) & setMask) * SET_SIZE;
+        long packed = ((long) key << 32) | estimate;
+
+        for(int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+            int smallest = -1;
+            long smallestSlot = 0;
+            boolean raced = false;
+            for(int i = base; i < base + SET_SIZE && !raced; i++) {
+                long slot = candidates.get(i);
+                long count = slot & COUNT_MASK;
+                if(count != 0 && (int) (slot >>> 32) == key) {
+                    if(count >= estimate || candidates.compareAndSet(i, slot, packed))
+                        return;
+                    raced = true;
+                }
+                else if(smallest < 0 || count < (smallestSlot & COUNT_MASK)) {
+                    smallest = i;
+                    smallestSlot = slot;
+                }
+            }
+            if(raced)
+                continue;
+            if((smallestSlot & COUNT_MASK) >= estimate ||
+                    candidates.compareAndSet(smallest, smallestSlot, packed))
+                return;
+        }
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    // Index of the counter of a key in one row of the sketch
+    private int cell(int row, int key) {
+        long hash = multipliers[row] * (key & 0xFFFFFFFFL) + offsets[row];
+        return (row << widthBits) | (int) (hash >>> (64 - widthBits));
+    }
+
+    private static int mix(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,18 @@
+package data_structures;
+
+/**
+ * Interface for elements that can be ordered by a primitive 32-bit key.
+ * Keys are compared as unsigned values, so they can hold a packed IPv4 
+ * address directly.
+ * 
+ * @author Ruben Ramirez
+ */
+
+public interface IntKeyed {
+    
+    /**
+     * Returns the 32-bit key of the element
+     * @return int, the key used to order the element
+     */
+    int intKey();
+}
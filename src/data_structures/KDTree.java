@@ -0,0 +1,324 @@
+package data_structures;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Static k-d tree over elements located on the Earth, answering k-nearest
+ * and radius queries by great-circle distance. Each position is stored as
+ * a point on the unit sphere, so distances need no special handling near
+ * the poles or across the 180th meridian: the straight-line (chord)
+ * distance between two points grows with their great-circle distance.
+ *
+ * The tree is implicit. Elements are reordered in one array so that the
+ * middle of every range is the splitting node and the two halves are its
+ * subtrees, split on the axis with the widest spread. The tree holds the
+ * elements themselves, so it shares them, and their country data, with the
+ * other indexes built from the same table.
+ *
+ * @author Ruben Ramirez
+ * @param <E> the type of elements stored in the tree
+ */
+
+public class KDTree<E extends Located> {
+
+    // Mean radius of the Earth
+    public static final double EARTH_RADIUS_KM = 6371.0088;
+
+    private final E[] elements;
+    // Unit sphere coordinates of the elements, interleaved x, y, z
+    private final double[] points;
+    // Splitting axis of the node at the middle of each range
+    private final byte[] axes;
+
+    /**
+     * Builds a tree holding the elements in O(n log n) time
+     * @param items, the elements to be indexed
+     */
+    public KDTree(Iterable<? extends E> items) {
+        int count = 0;
+        for(Iterator<? extends E> it = items.iterator(); it.hasNext(); it.next())
+            count++;
+
+        this.elements = (E[]) new Located[count];
+        this.points = new double[3 * count];
+        this.axes = new byte[count];
+
+        int i = 0;
+        for(E item : items) {
+            elements[i] = item;
+            toPoint(item.getLatitude(), item.getLongitude(), points, 3 * i);
+            i++;
+        }
+        build(0, count);
+    }
+
+    /**
+     * Builds a tree holding the elements of an array in O(n log n) time.
+     * The array is not changed.
+     * @param items, the elements to be indexed
+     */
+    public KDTree(E[] items) {
+        this(Arrays.asList(items));
+    }
+
+    /**
+     * Returns the number of elements in the tree
+     * @return int, the number of elements
+     */
+    public int size() {
+        return elements.length;
+    }
+
+    /**
+     * Finds the k elements closest to a position
+     * @param latitude, the latitude of the position in degrees
+     * @param longitude, the longitude of the position in degrees
+     * @param k, the number of elements wanted
+     * @return LinkedList, up to k elements, nearest first
+     * @throws IllegalArgumentException if k is negative
+     */
+    public LinkedList<E> nearest(double latitude, double longitude, int k) {
+        if(k < 0)
+            throw new IllegalArgumentException("Negative number of elements: " + k);
+        double[] query = new double[3];
+        toPoint(latitude, longitude, query, 0);
+
+        Neighbors best = new Neighbors(Math.min(k, elements.length));
+        if(k > 0)
+            nearest(0, elements.length, query, best);
+
+        // Take the farthest off the heap first, so the list ends up nearest first
+        LinkedList<E> result = new LinkedList<>();
+        while(best.size > 0)
+            result.addFirst(elements[best.pop()]);
+        return result;
+    }
+
+    /**
+     * Finds every element within a distance of a position
+     * @param latitude, the latitude of the position in degrees
+     * @param longitude, the longitude of the position in degrees
+     * @param km, the great-circle distance in kilometers
+     * @return LinkedList, the elements within the distance, in no particular order
+     */
+    public LinkedList<E> within(double latitude, double longitude, double km) {
+        double[] query = new double[3];
+        toPoint(latitude, longitude, query, 0);
+        LinkedList<E> result = new LinkedList<>();
+
+        if(km >= 0)
+            within(0, elements.length, query, chord(km), result);
+        return result;
+    }
+
+    /**
+     * Returns the great-circle distance between two positions, using the
+     * haversine formula
+     * @return double, the distance in kilometers
+     */
+    public static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1), dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(lat1)) *
+                Math.cos(Math.toRadians(lat2)) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    // Squared chord length on the unit sphere for a great-circle distance
+    private static double chord(double km) {
+        double angle = km / EARTH_RADIUS_KM;
+        if(angle >= Math.PI)
+            return 4;
+        double half = 2 * Math.sin(angle / 2);
+        // Leave room for rounding so points right on the boundary are kept
+        return half * half * (1 + 1e-12) + 1e-15;
+    }
+
+    private static void toPoint(double latitude, double longitude, double[] point, int at) {
+        double lat = Math.toRadians(latitude), lon = Math.toRadians(longitude);
+        point[at] = Math.cos(lat) * Math.cos(lon);
+        point[at + 1] = Math.cos(lat) * Math.sin(lon);
+        point[at + 2] = Math.sin(lat);
+    }
+
+    /*
+     * Puts the median of a range, on the axis of widest spread, in the
+     * middle, with smaller values before it and larger ones after, and
+     * builds both halves the same way.
+     */
+    private void build(int lo, int hi) {
+        if(hi - lo < 2)
+            return;
+        int axis = widestAxis(lo, hi), mid = (lo + hi) >>> 1;
+        axes[mid] = (byte) axis;
+        select(lo, hi - 1, mid, axis);
+        build(lo, mid);
+        build(mid + 1, hi);
+    }
+
+    private int widestAxis(int lo, int hi) {
+        int best = 0;
+        double widest = -1;
+
+        for(int axis = 0; axis < 3; axis++) {
+            double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+            for(int i = lo; i < hi; i++) {
+                double value = points[3 * i + axis];
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if(max - min > widest) {
+                widest = max - min;
+                best = axis;
+            }
+        }
+        return best;
+    }
+
+    // Quickselect on [lo, hi] so position k holds the element of rank k on the axis
+    private void select(int lo, int hi, int k, int axis) {
+        while(lo < hi) {
+            double pivot = points[3 * ((lo + hi) >>> 1) + axis];
+            int i = lo, j = hi;
+
+            while(i <= j) {
+                while(points[3 * i + axis] < pivot)
+                    i++;
+                while(points[3 * j + axis] > pivot)
+                    j--;
+                if(i <= j)
+                    swap(i++, j--);
+            }
+            if(k <= j)
+                hi = j;
+            else if(k >= i)
+                lo = i;
+            else
+                return;
+        }
+    }
+
+    private void swap(int i, int j) {
+        E element = elements[i];
+        elements[i] = elements[j];
+        elements[j] = element;
+        for(int axis = 0; axis < 3; axis++) {
+            double value = points[3 * i + axis];
+            points[3 * i + axis] = points[3 * j + axis];
+            points[3 * j + axis] = value;
+        }
+    }
+
+    private double distanceSquared(int i, double[] query) {
+        double dx = points[3 * i] - query[0];
+        double dy = points[3 * i + 1] - query[1];
+        double dz = points[3 * i + 2] - query[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    // Searches the nearer half first, and the farther half only if the
+    // splitting plane is closer than the worst of the best found so far
+    private void nearest(int lo, int hi, double[] query, Neighbors best) {
+        if(lo >= hi)
+            return;
+        int mid = (lo + hi) >>> 1, axis = axes[mid];
+        best.offer(mid, distanceSquared(mid, query));
+        if(hi - lo == 1)
+            return;
+
+        double diff = query[axis] - points[3 * mid + axis];
+        if(diff < 0) {
+            nearest(lo, mid, query, best);
+            if(!best.isFull() || diff * diff < best.worst())
+                nearest(mid + 1, hi, query, best);
+        }
+        else {
+            nearest(mid + 1, hi, query, best);
+            if(!best.isFull() || diff * diff < best.worst())
+                nearest(lo, mid, query, best);
+        }
+    }
+
+    private void within(int lo, int hi, double[] query, double radius, LinkedList<E> result) {
+        if(lo >= hi)
+            return;
+        int mid = (lo + hi) >>> 1, axis = axes[mid];
+        if(distanceSquared(mid, query) <= radius)
+            result.addLast(elements[mid]);
+        if(hi - lo == 1)
+            return;
+
+        double diff = query[axis] - points[3 * mid + axis];
+        if(diff <= 0 || diff * diff <= radius)
+            within(lo, mid, query, radius, result);
+        if(diff >= 0 || diff * diff <= radius)
+            within(mid + 1, hi, query, radius, result);
+    }
+
+    /*
+     * Bounded max-heap of element positions keyed by squared distance,
+     * holding the best candidates of a k-nearest search.
+     */
+    private static class Neighbors {
+        private final int[] positions;
+        private final double[] distances;
+        private int size;
+
+        public Neighbors(int capacity) {
+            this.positions = new int[capacity];
+            this.distances = new double[capacity];
+            this.size = 0;
+        }
+
+        public boolean isFull() {
+            return size == positions.length;
+        }
+
+        public double worst() {
+            return distances[0];
+        }
+
+        // Keeps the candidate if the heap has room or it beats the worst
+        public void offer(int position, double distance) {
+            if(positions.length == 0)
+                return;
+            if(!isFull()) {
+                int i = size++;
+                while(i > 0 && distances[(i - 1) / 2] < distance) {
+                    positions[i] = positions[(i - 1) / 2];
+                    distances[i] = distances[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                positions[i] = position;
+                distances[i] = distance;
+            }
+            else if(distance < distances[0])
+                siftDown(position, distance);
+        }
+
+        // Removes the farthest candidate and returns its position
+        public int pop() {
+            int top = positions[0];
+            size--;
+            if(size > 0)
+                siftDown(positions[size], distances[size]);
+            return top;
+        }
+
+        private void siftDown(int position, double distance) {
+            int i = 0;
+            while(2 * i + 1 < size) {
+                int child = 2 * i + 1;
+                if(child + 1 < size && distances[child + 1] > distances[child])
+                    child++;
+                if(distances[child] <= distance)
+                    break;
+                positions[i] = positions[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            positions[i] = position;
+            distances[i] = distance;
+        }
+    }
+}
@@ -1,14 +1,17 @@
 package data_structures;
 
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.ListIterator;
 import java.util.NoSuchElementException;
 
 /**
- * Generic singly Linked List data structure which implements
+ * Generic doubly Linked List data structure which implements
  * the ListI interface. Linked List has methods which allow for
- * insertion and removal of elements, as well as a reversal 
- * method used to reverse the order of all of the elements in 
- * the list
+ * insertion and removal of elements at either end in constant time,
+ * bulk transfers used to stage batched updates into the trees, a 
+ * cursor that edits the list in place, and a reversal method used 
+ * to reverse the order of all of the elements in the list
  * 
  * @author Ruben Ramirez 
  * @param <E> the type of elements in the list
@@ -18,11 +21,14 @@ public class LinkedList<E> implements Iterable<E> {
     private Node<E> head;
     private Node<E> tail;
     private int size;
+    // Counts structural changes so cursors can detect outside edits
+    private int modCount;
 
     public LinkedList() {
         this.head = null;
         this.tail = null;
         this.size = 0;
+        this.modCount = 0;
     }
 
     /**
@@ -36,9 +42,11 @@ public class LinkedList<E> implements Iterable<E> {
             tail = head = newNode;
         else {
             newNode.next = head;
+            head.previous = newNode;
             head = newNode;
         }
         size++;
+        modCount++;
     }
 
     /**
@@ -50,9 +58,13 @@ public class LinkedList<E> implements Iterable<E> {
 
         if(size == 0)
             head = tail = newNode;
-        else 
-            tail.next = tail = newNode;
+        else {
+            newNode.previous = tail;
+            tail.next = newNode;
+            tail = newNode;
+        }
         size++;
+        modCount++;
     }
 
     /**
@@ -61,15 +73,9 @@ public class LinkedList<E> implements Iterable<E> {
      * @return the object removed.
      */
     public E removeFirst() {
-        E tmp;
-
         if(size == 0)
             return null;
-
-        tmp = head.data;
-        head = head.next;
-        size--;
-        return tmp;
+        return unlink(head);
     }
 
     /**
@@ -78,60 +84,22 @@ public class LinkedList<E> implements Iterable<E> {
      * @return the object removed.
      */
     public E removeLast() {
-        E tmp;
-        Node<E> index = head;
-        Node<E> trailIndex = null;
-
         if(size == 0)
             return null;
-        else if(size == 1) {
-            tmp = head.data;
-            head = tail = null;
-            size--;
-            return tmp;
-        }
-
-        // Use trailing pointer to get position of the second to last node. 
-        for(int i = 0; i < size - 1; i++) {
-            trailIndex = index;
-            index = index.next;
-        }
-        tmp = index.data;
-        tail = trailIndex;
-        trailIndex.next = null;
-        size--;
-        return tmp;
+        return unlink(tail);
     }
 
+    /**
+     * Finds and removes the last instance of an Object in the list, 
+     * searching backwards from the end.
+     * @param obj the object to be removed from the list.
+     * @return the object removed, null if it was not found.
+     */
     public E removeLastInstance(E obj) {
-        Node<E> chere = null, phere = null;
-        Node<E> previous = null;
-        Node<E> current = head;
-        E tmp;
-
-        if(isEmpty())
-            return null;
-
-        while(current != null) {
-            if(((Comparable<E>)obj).compareTo(current.data) == 0) {
-                phere = previous;
-                chere = current;
-            }
-            previous = current;
-            current = current.next;
-        }
-        if(phere == null && chere == null)
-            return null;
-        else if(phere == null && chere != null)
-            return removeFirst();
-        else if(chere == null && phere != null)
-            return removeLast();
-        else {
-            tmp = chere.data;
-            phere.next = chere.next;
-            size--;
-            return tmp;
-        }
+        for(Node<E> current = tail; current != null; current = current.previous)
+            if(((Comparable<E>)obj).compareTo(current.data) == 0)
+                return unlink(current);
+        return null;
     }
 
     /**
@@ -141,38 +109,79 @@ public class LinkedList<E> implements Iterable<E> {
      * @return the object removed.
      */
     public E remove(E obj) {
-        Node<E> previous = null;
-        Node<E> current = head;
-        E tmp;
+        for(Node<E> current = head; current != null; current = current.next)
+            if(((Comparable<E>)obj).compareTo(current.data) == 0)
+                return unlink(current);
+        return null;
+    }
 
-        if(size == 0)
-            return null;
+    /**
+     * Appends every object of a collection to the end of the list, in the
+     * order the collection returns them.
+     * @param items the objects to be added to the list.
+     */
+    public void addAll(Iterable<? extends E> items) {
+        for(E obj : items)
+            addLast(obj);
+    }
 
-        while(current != null && ((Comparable<E>) obj).compareTo(current.data)!= 0) {
-            previous = current;
-            current = current.next;
-        }
+    /**
+     * Moves every object of this list onto the end of another list in 
+     * constant time by relinking the nodes. This list is left empty.
+     * @param other the list receiving the objects.
+     * @return the number of objects moved.
+     */
+    public int drainTo(LinkedList<E> other) {
+        int moved = size;
 
-        if(current == null)       // Item not found
-            return null;
-        else if(current == head) {  // Item is in the first position
-            tmp = current.data;
-            head = head.next;
-        }
-        else if(current == tail) {  // Item is in the last position
-            tmp = current.data;
-            previous.next = null;
-            tail = previous;
-        }
-        else {                    // Item is in the middle of the list
-            tmp = current.data;
-            previous.next = current.next;
+        if(other == this || size == 0)
+            return 0;
+        if(other.size == 0)
+            other.head = head;
+        else {
+            other.tail.next = head;
+            head.previous = other.tail;
         }
-        if(head == null)
-            tail = null;
+        other.tail = tail;
+        other.size += size;
+        other.modCount++;
+        clear();
+        return moved;
+    }
+
+    /**
+     * Adds every object of this list into a tree or other index, in list 
+     * order, and leaves this list empty. Used to apply a staged batch of 
+     * updates in one call.
+     * @param index the index receiving the objects.
+     * @return the number of objects added.
+     */
+    public int drainTo(OrderedIndex<? super E> index) {
+        int moved = size;
+
+        for(Node<E> current = head; current != null; current = current.next)
+            index.add(current.data);
+        clear();
+        return moved;
+    }
 
+    /*
+     * Unlinks a node from the list in constant time and returns its data.
+     */
+    private E unlink(Node<E> node) {
+        if(node.previous == null)
+            head = node.next;
+        else
+            node.previous.next = node.next;
+        if(node.next == null)
+            tail = node.previous;
+        else
+            node.next.previous = node.previous;
+
+        node.next = node.previous = null;
         size--;
-        return tmp;
+        modCount++;
+        return node.data;
     }
 
     /**
@@ -204,6 +213,7 @@ public class LinkedList<E> implements Iterable<E> {
         this.head = null;
         this.tail = null;
         size = 0;
+        modCount++;
     }
 
     /**
@@ -290,32 +300,49 @@ public class LinkedList<E> implements Iterable<E> {
 
     /**
      * Returns an Iterator of the values in the list, presented in
-     * the same order as the list. 
+     * the same order as the list. The iterator supports remove.
      */
     public Iterator<E> iterator() {
-        return new iteratorHelper();
+        return new ListCursor();
+    }
+
+    /**
+     * Returns a cursor positioned before the first value of the list. The
+     * cursor moves in both directions and can remove, replace or insert
+     * values at its position in constant time.
+     */
+    public ListIterator<E> listIterator() {
+        return new ListCursor();
     }
 
     /*
-     * Node inner class that holds a piece of data and a reference
-     * to another node. Nodes serve as a building block for the 
-     * linked list.
+     * Node inner class that holds a piece of data and references
+     * to the nodes before and after it. Nodes serve as a building 
+     * block for the linked list.
      */
     private class Node<T> {
         private T data;
         private Node<T> next;
+        private Node<T> previous;
 
         public Node(T obj) {
             this.data = obj;
             this.next = null;
+            this.previous = null;
         }
     }
 
-    class iteratorHelper implements Iterator<E> {
-        Node<E> index;   // Pointer used to traverse the list
+    class ListCursor implements ListIterator<E> {
+        Node<E> index;          // Node returned by the next call to next()
+        Node<E> lastReturned;   // Node returned by the last next() or previous()
+        int position;           // Number of values before the cursor
+        int expectedModCount;
 
-        public iteratorHelper(){
+        public ListCursor() {
             index = head;
+            lastReturned = null;
+            position = 0;
+            expectedModCount = modCount;
         }
 
         /*
@@ -324,25 +351,102 @@ public class LinkedList<E> implements Iterable<E> {
          * node, false if index pointer has reached the end of the list.
          */
         public boolean hasNext() { 
-            return index != null;
+            return position < size;
         }
 
         /*
          * Returns the next item on the linked list if there is one.
          */
         public E next() {
-            E tmp; 
+            checkModCount();
             if(!hasNext())
                 throw new NoSuchElementException();
 
-            tmp = index.data;  
+            lastReturned = index;
             index = index.next;
-            return tmp;
+            position++;
+            return lastReturned.data;
         }
 
-        // Unsupported operation
+        public boolean hasPrevious() {
+            return position > 0;
+        }
+
+        /*
+         * Returns the previous item on the linked list if there is one.
+         */
+        public E previous() {
+            checkModCount();
+            if(!hasPrevious())
+                throw new NoSuchElementException();
+
+            index = index == null ? tail : index.previous;
+            lastReturned = index;
+            position--;
+            return lastReturned.data;
+        }
+
+        public int nextIndex() {
+            return position;
+        }
+
+        public int previousIndex() {
+            return position - 1;
+        }
+
+        /*
+         * Removes the item last returned by next or previous.
+         */
         public void remove() {
-            throw new UnsupportedOperationException();
+            checkModCount();
+            if(lastReturned == null)
+                throw new IllegalStateException();
+
+            if(lastReturned == index)
+                index = index.next;
+            else
+                position--;
+            unlink(lastReturned);
+            lastReturned = null;
+            expectedModCount = modCount;
+        }
+
+        /*
+         * Replaces the item last returned by next or previous.
+         */
+        public void set(E obj) {
+            checkModCount();
+            if(lastReturned == null)
+                throw new IllegalStateException();
+            lastReturned.data = obj;
+        }
+
+        /*
+         * Inserts an item before the cursor position.
+         */
+        public void add(E obj) {
+            checkModCount();
+            if(index == null)
+                addLast(obj);
+            else if(index == head)
+                addFirst(obj);
+            else {
+                Node<E> newNode = new Node<>(obj);
+                newNode.previous = index.previous;
+                newNode.next = index;
+                index.previous.next = newNode;
+                index.previous = newNode;
+                size++;
+                modCount++;
+            }
+            position++;
+            lastReturned = null;
+            expectedModCount = modCount;
+        }
+
+        private void checkModCount() {
+            if(modCount != expectedModCount)
+                throw new ConcurrentModificationException();
         }
     }
 }
@@ -0,0 +1,23 @@
+package data_structures;
+
+/**
+ * Interface for elements that have a position on the Earth's surface,
+ * so they can be stored in a KDTree.
+ * 
+ * @author Ruben Ramirez
+ */
+
+public interface Located {
+    
+    /**
+     * Returns the latitude of the element
+     * @return double, the latitude in degrees, from -90 to 90
+     */
+    double getLatitude();
+    
+    /**
+     * Returns the longitude of the element
+     * @return double, the longitude in degrees, from -180 to 180
+     */
+    double getLongitude();
+}
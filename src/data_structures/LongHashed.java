@@ -0,0 +1,18 @@
+package data_structures;
+
+/**
+ * Interface for elements with a well mixed 64-bit hash of their key, so
+ * they can be added to a BloomFilter. Elements with the same key must
+ * have the same hash.
+ * 
+ * @author Ruben Ramirez
+ */
+
+public interface LongHashed {
+    
+    /**
+     * Returns the 64-bit hash of the element's key
+     * @return long, a hash whose bits all depend on the whole key
+     */
+    long longHash();
+}
@@ -0,0 +1,99 @@
+package data_structures;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free FIFO queue for any number of producer and consumer
+ * threads. Every slot carries a sequence number that tells a thread 
+ * whether the slot is ready to be written or read in the current lap, 
+ * so threads only contend on a single compare-and-set of the head or 
+ * tail counter (D. Vyukov's bounded queue design).
+ *
+ * @author Ruben Ramirez
+ * @param <E> the type of elements in the queue
+ */
+
+public class MPMCQueue<E> {
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    // creates a queue holding at least capacity objects
+    public MPMCQueue(int capacity) {
+        int length = 2;
+        while(length < capacity)
+            length <<= 1;
+        this.elements = new AtomicReferenceArray<>(length);
+        this.sequences = new AtomicLongArray(length);
+        this.mask = length - 1;
+        for(int i = 0; i < length; i++)
+            sequences.set(i, i);
+    }
+
+    // inserts obj at the back of the queue, returns false if the queue is full
+    public boolean enqueue(E obj) {
+        if(obj == null)
+            throw new NullPointerException();
+
+        while(true) {
+            long position = tail.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+
+            // Slot is free in this lap, try to claim it
+            if(difference == 0) {
+                if(tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, obj);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+            }
+            // Slot still holds an object from the previous lap
+            else if(difference < 0)
+                return false;
+        }
+    }
+
+    // removes and returns the object at the front of the queue, or null if
+    // the queue is empty
+    public E dequeue() {
+        while(true) {
+            long position = head.get();
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+
+            // Slot has been filled in this lap, try to claim it
+            if(difference == 0) {
+                if(head.compareAndSet(position, position + 1)) {
+                    E data = elements.get(index);
+                    elements.lazySet(index, null);
+                    sequences.lazySet(index, position + mask + 1);
+                    return data;
+                }
+            }
+            // Slot has not been filled yet
+            else if(difference < 0)
+                return null;
+        }
+    }
+
+    // returns the number of objects currently in the queue
+    public int size() {
+        long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) size;
+    }
+
+    // returns true if the queue is empty, otherwise false
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // returns the most objects the queue can hold
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,168 @@
+package data_structures;
+
+import java.util.Arrays;
+
+/**
+ * Slab of tree nodes stored in primitive arrays instead of node objects.
+ * A node is an int index into parallel arrays holding its int key, left
+ * and right links, a small height field and a value reference. Freed
+ * nodes go onto a free list threaded through their left links and are
+ * handed out again before new ones, so a tree whose size has levelled off
+ * inserts and deletes without allocating anything.
+ *
+ * The arrays are split into fixed chunks. Growing adds a chunk, so the
+ * nodes already in use are never copied. Index 0 is a reserved null node
+ * with height 0 that is never handed out, so links can default to it.
+ *
+ * @author Ruben Ramirez
+ */
+
+public class NodeArena {
+
+    public static final int NIL = 0;
+
+    // Nodes per chunk
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private int[][] keys = new int[0][];
+    private int[][] lefts = new int[0][];
+    private int[][] rights = new int[0][];
+    private byte[][] heights = new byte[0][];
+    private Object[][] values = new Object[0][];
+    // Nodes ever handed out, including the null node, and the free list
+    private int used;
+    private int free;
+    private int live;
+
+    public NodeArena() {
+        clear();
+    }
+
+    /**
+     * Hands out a node, reusing a freed one when there is one. Its links
+     * are NIL and its height 1.
+     * @param key, the key of the node
+     * @param value, the value of the node
+     * @return int, the index of the node
+     */
+    public int allocate(int key, Object value) {
+        int node;
+        if(free != NIL) {
+            node = free;
+            free = left(node);
+        }
+        else {
+            if(used == capacity())
+                grow();
+            node = used++;
+        }
+        int chunk = node >>> CHUNK_BITS, slot = node & CHUNK_MASK;
+        keys[chunk][slot] = key;
+        lefts[chunk][slot] = NIL;
+        rights[chunk][slot] = NIL;
+        heights[chunk][slot] = 1;
+        values[chunk][slot] = value;
+        live++;
+        return node;
+    }
+
+    /**
+     * Returns a node to the free list. Its value is cleared so it does not
+     * keep the element reachable.
+     * @param node, the index of the node
+     */
+    public void free(int node) {
+        values[node >>> CHUNK_BITS][node & CHUNK_MASK] = null;
+        setLeft(node, free);
+        free = node;
+        live--;
+    }
+
+    /**
+     * Frees every node at once, keeping the chunks for reuse
+     */
+    public void clear() {
+        for(Object[] chunk : values)
+            Arrays.fill(chunk, null);
+        if(capacity() == 0)
+            grow();
+        used = 1;
+        free = NIL;
+        live = 0;
+    }
+
+    public int key(int node) {
+        return keys[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    }
+
+    public void setKey(int node, int key) {
+        keys[node >>> CHUNK_BITS][node & CHUNK_MASK] = key;
+    }
+
+    public int left(int node) {
+        return lefts[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    }
+
+    public void setLeft(int node, int left) {
+        lefts[node >>> CHUNK_BITS][node & CHUNK_MASK] = left;
+    }
+
+    public int right(int node) {
+        return rights[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    }
+
+    public void setRight(int node, int right) {
+        rights[node >>> CHUNK_BITS][node & CHUNK_MASK] = right;
+    }
+
+    public int height(int node) {
+        return heights[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    }
+
+    public void setHeight(int node, int height) {
+        heights[node >>> CHUNK_BITS][node & CHUNK_MASK] = (byte) height;
+    }
+
+    public Object value(int node) {
+        return values[node >>> CHUNK_BITS][node & CHUNK_MASK];
+    }
+
+    public void setValue(int node, Object value) {
+        values[node >>> CHUNK_BITS][node & CHUNK_MASK] = value;
+    }
+
+    /**
+     * Returns the number of nodes in use
+     * @return int, the nodes handed out and not freed
+     */
+    public int live() {
+        return live;
+    }
+
+    /**
+     * Returns the number of nodes the chunks hold, including the null node
+     * @return int, the capacity of the arena
+     */
+    public int capacity() {
+        return keys.length << CHUNK_BITS;
+    }
+
+    // Adds a chunk of nodes
+    private void grow() {
+        int chunk = keys.length;
+        if(chunk == (1 << (31 - CHUNK_BITS)) - 1)
+            throw new IllegalStateException("Arena is full");
+        keys = Arrays.copyOf(keys, chunk + 1);
+        lefts = Arrays.copyOf(lefts, chunk + 1);
+        rights = Arrays.copyOf(rights, chunk + 1);
+        heights = Arrays.copyOf(heights, chunk + 1);
+        values = Arrays.copyOf(values, chunk + 1);
+        keys[chunk] = new int[CHUNK_SIZE];
+        lefts[chunk] = new int[CHUNK_SIZE];
+        rights[chunk] = new int[CHUNK_SIZE];
+        heights[chunk] = new byte[CHUNK_SIZE];
+        values[chunk] = new Object[CHUNK_SIZE];
+    }
+}
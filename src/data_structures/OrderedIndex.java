@@ -0,0 +1,55 @@
+package data_structures;
+
+/**
+ * Common interface of the ordered search structures. Elements are ordered
+ * by their keys, and lookups take any element with the same key as a probe.
+ * Lets a workload run unchanged against the AVLTree, SplayTree and 
+ * BPlusTree backends.
+ * 
+ * @author Ruben Ramirez
+ * @param <E> the type of elements stored in the index
+ */
+
+public interface OrderedIndex<E> extends Iterable<E> {
+    
+    /**
+     * Adds an element to the index.
+     * @param obj, the element to be added
+     * @return true if the element was added
+     */
+    boolean add(E obj);
+    
+    /**
+     * Gets the element with the same key as the object entered.
+     * @param obj, the probe to be searched for
+     * @return E, the element found, null if it is not in the index
+     */
+    E get(E obj);
+    
+    /**
+     * Gets the largest element whose key is less than or equal to the key
+     * of the object entered.
+     * @param obj, the probe to be searched for
+     * @return E, the floor element, null if no such element exists
+     */
+    E floor(E obj);
+    
+    /**
+     * Removes the element with the same key as the object entered.
+     * @param obj, the probe to be removed
+     * @return E, the element removed, null if it was not found
+     */
+    E delete(E obj);
+    
+    /**
+     * Returns the number of elements in the index
+     * @return int, the number of elements
+     */
+    int size();
+    
+    /**
+     * Checks to see if the index is empty
+     * @return true if the index is empty, false otherwise
+     */
+    boolean isEmpty();
+}
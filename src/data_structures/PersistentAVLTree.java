@@ -0,0 +1,329 @@
+package data_structures;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable balanced binary search tree (persistent AVL tree). Adding or
+ * deleting an element returns a new tree that copies only the nodes on the
+ * path to the change, O(log n) nodes, and shares every other subtree with
+ * the old tree. Old trees stay valid and unchanged, so a reader holding one
+ * sees a consistent version while a writer builds newer ones, and versions
+ * nobody references are reclaimed by the garbage collector.
+ * Adding an element whose key is already present replaces the old element.
+ *
+ * @author Ruben Ramirez
+ * @param <E> the type of values to be stored in the tree
+ */
+
+public final class PersistentAVLTree<E> implements Iterable<E> {
+    private static final PersistentAVLTree<?> EMPTY = new PersistentAVLTree<>(null);
+
+    private final Node<E> root;
+
+    private PersistentAVLTree(Node<E> root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns the empty tree
+     * @return the tree holding no elements
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentAVLTree<E> empty() {
+        return (PersistentAVLTree<E>) EMPTY;
+    }
+
+    /**
+     * Builds a tree from objects in strictly increasing order in linear time
+     * @param sorted, the objects in increasing order
+     * @return the tree holding the objects
+     * @throws IllegalArgumentException if the objects are not strictly increasing
+     */
+    public static <E> PersistentAVLTree<E> of(E[] sorted) {
+        for(int i = 1; i < sorted.length; i++)
+            if(((Comparable<E>)sorted[i - 1]).compareTo(sorted[i]) >= 0)
+                throw new IllegalArgumentException("Objects are not strictly increasing at " + i);
+        return wrap(build(sorted, 0, sorted.length - 1));
+    }
+
+    /**
+     * Returns a tree with an object added, replacing any object with the
+     * same key. This tree is not changed.
+     * @param obj, the object to be added
+     * @return the new version of the tree
+     */
+    public PersistentAVLTree<E> add(E obj) {
+        return wrap(insert(root, obj));
+    }
+
+    /**
+     * Returns a tree without the object with the same key as the one entered.
+     * This tree is not changed, and is returned as is if the key is absent.
+     * @param obj, the object to be removed
+     * @return the new version of the tree
+     */
+    public PersistentAVLTree<E> delete(E obj) {
+        Node<E> node = remove(root, obj);
+        return node == root ? this : wrap(node);
+    }
+
+    /**
+     * Gets an object from the tree, if it's stored in the tree
+     * @param obj, the object to be retrieved
+     * @return E, the object being retrieved, null if not found
+     */
+    public E get(E obj) {
+        Node<E> node = root;
+
+        while(node != null) {
+            int cmp = ((Comparable<E>)obj).compareTo(node.data);
+            if(cmp == 0)
+                return node.data;
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the largest object in the tree that is less than or equal to the
+     * object entered.
+     * @param obj, the object to be searched for
+     * @return E, the floor of the object, null if no such object exists
+     */
+    public E floor(E obj) {
+        Node<E> node = root;
+        E best = null;
+
+        while(node != null) {
+            int cmp = ((Comparable<E>)obj).compareTo(node.data);
+            if(cmp == 0)
+                return node.data;
+            if(cmp < 0)
+                node = node.left;
+            else {
+                best = node.data;
+                node = node.right;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Gets the smallest object in the tree that is greater than the object
+     * entered, such as the start of the next block after an address.
+     * @param obj, the object to be searched for
+     * @return E, the successor of the object, null if no such object exists
+     */
+    public E higher(E obj) {
+        Node<E> node = root;
+        E best = null;
+
+        while(node != null) {
+            if(((Comparable<E>)obj).compareTo(node.data) < 0) {
+                best = node.data;
+                node = node.left;
+            }
+            else
+                node = node.right;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the number of elements stored in the tree
+     * @return int, the number of elements in the tree
+     */
+    public int size() {
+        return sizeOf(root);
+    }
+
+    /**
+     * Checks to see if the tree is empty
+     * @return true if the tree is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * Returns the height of the tree
+     * @return int, the height value of the tree
+     */
+    public int height() {
+        return heightOf(root);
+    }
+
+    /**
+     * Returns an iterator of the data in the tree, in in-order sequence
+     * @return an iterator that traverses the data in the tree
+     */
+    public Iterator<E> iterator() {
+        return new TreeIterator();
+    }
+
+    /**
+     * Verifies ordering, stored heights and sizes, and AVL balance.
+     * @throws IllegalStateException if any invariant is broken
+     */
+    public void checkInvariants() {
+        checkNode(root, null, null);
+    }
+
+    private static <E> void checkNode(Node<E> node, E lo, E hi) {
+        if(node == null)
+            return;
+        if((lo != null && ((Comparable<E>)lo).compareTo(node.data) >= 0) ||
+                (hi != null && ((Comparable<E>)hi).compareTo(node.data) <= 0))
+            throw new IllegalStateException("Out of order at " + node.data);
+        checkNode(node.left, lo, node.data);
+        checkNode(node.right, node.data, hi);
+        if(node.height != Math.max(heightOf(node.left), heightOf(node.right)) + 1)
+            throw new IllegalStateException("Bad height at " + node.data);
+        if(node.size != sizeOf(node.left) + sizeOf(node.right) + 1)
+            throw new IllegalStateException("Bad subtree size at " + node.data);
+        if(Math.abs(heightOf(node.left) - heightOf(node.right)) > 1)
+            throw new IllegalStateException("Unbalanced at " + node.data);
+    }
+
+    private static <E> PersistentAVLTree<E> wrap(Node<E> root) {
+        return root == null ? PersistentAVLTree.<E>empty() : new PersistentAVLTree<>(root);
+    }
+
+    private static <E> Node<E> build(E[] sorted, int lo, int hi) {
+        if(lo > hi)
+            return null;
+        int mid = (lo + hi) >>> 1;
+        return new Node<>(sorted[mid], build(sorted, lo, mid - 1), build(sorted, mid + 1, hi));
+    }
+
+    // Returns a copy of the path to obj with obj inserted
+    private static <E> Node<E> insert(Node<E> node, E obj) {
+        if(node == null)
+            return new Node<>(obj, null, null);
+
+        int cmp = ((Comparable<E>)obj).compareTo(node.data);
+        if(cmp < 0)
+            return balance(node.data, insert(node.left, obj), node.right);
+        if(cmp > 0)
+            return balance(node.data, node.left, insert(node.right, obj));
+        return new Node<>(obj, node.left, node.right);
+    }
+
+    // Returns a copy of the path to obj with obj removed, or the same node
+    // if obj is not in the subtree
+    private static <E> Node<E> remove(Node<E> node, E obj) {
+        if(node == null)
+            return null;
+
+        int cmp = ((Comparable<E>)obj).compareTo(node.data);
+        if(cmp < 0) {
+            Node<E> left = remove(node.left, obj);
+            return left == node.left ? node : balance(node.data, left, node.right);
+        }
+        if(cmp > 0) {
+            Node<E> right = remove(node.right, obj);
+            return right == node.right ? node : balance(node.data, node.left, right);
+        }
+        if(node.left == null)
+            return node.right;
+        if(node.right == null)
+            return node.left;
+
+        // Replace the node with its in-order successor
+        Node<E> next = node.right;
+        while(next.left != null)
+            next = next.left;
+        return balance(next.data, node.left, removeFirst(node.right));
+    }
+
+    private static <E> Node<E> removeFirst(Node<E> node) {
+        if(node.left == null)
+            return node.right;
+        return balance(node.data, removeFirst(node.left), node.right);
+    }
+
+    /*
+     * Creates a node from a value and two subtrees whose heights differ by at
+     * most two, rotating with new nodes if needed to restore the balance.
+     */
+    private static <E> Node<E> balance(E data, Node<E> left, Node<E> right) {
+        int difference = heightOf(left) - heightOf(right);
+
+        // Imbalance in left subtree
+        if(difference > 1) {
+            if(heightOf(left.left) >= heightOf(left.right))
+                return new Node<>(left.data, left.left, new Node<>(data, left.right, right));
+            return new Node<>(left.right.data,
+                    new Node<>(left.data, left.left, left.right.left),
+                    new Node<>(data, left.right.right, right));
+        }
+        // Imbalance in right subtree
+        if(difference < -1) {
+            if(heightOf(right.right) >= heightOf(right.left))
+                return new Node<>(right.data, new Node<>(data, left, right.left), right.right);
+            return new Node<>(right.left.data,
+                    new Node<>(data, left, right.left.left),
+                    new Node<>(right.data, right.left.right, right.right));
+        }
+        return new Node<>(data, left, right);
+    }
+
+    private static int heightOf(Node<?> node) {
+        return node == null ? -1 : node.height;
+    }
+
+    private static int sizeOf(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /*
+     * Immutable node holding a piece of data, its two subtrees, and the
+     * height and size of the subtree it roots.
+     */
+    private static final class Node<T> {
+        private final T data;
+        private final Node<T> left, right;
+        private final int height, size;
+
+        public Node(T data, Node<T> left, Node<T> right) {
+            this.data = data;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(heightOf(left), heightOf(right)) + 1;
+            this.size = sizeOf(left) + sizeOf(right) + 1;
+        }
+    }
+
+    // In-order iterator using a stack of the nodes still to be visited
+    private class TreeIterator implements Iterator<E> {
+        @SuppressWarnings("unchecked")
+        private final Node<E>[] stack = (Node<E>[]) new Node<?>[heightOf(root) + 2];
+        private int top = 0;
+
+        public TreeIterator() {
+            pushLeft(root);
+        }
+
+        public boolean hasNext() {
+            return top > 0;
+        }
+
+        public E next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            Node<E> node = stack[--top];
+            pushLeft(node.right);
+            return node.data;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void pushLeft(Node<E> node) {
+            for(; node != null; node = node.left)
+                stack[top++] = node;
+        }
+    }
+}
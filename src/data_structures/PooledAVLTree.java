@@ -0,0 +1,318 @@
+package data_structures;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * AVL tree of IntKeyed elements whose nodes live in a NodeArena rather
+ * than being objects of their own. Deleted nodes are reused by later
+ * inserts, and the path walked by an update is kept in an array owned by
+ * the tree, so under constant churn at a steady size inserts and deletes
+ * allocate nothing and leave no garbage behind.
+ *
+ * Elements are ordered by the unsigned value of their keys. Each key is
+ * stored once; adding an element with a key already present replaces it.
+ * A tree is used by one thread at a time.
+ *
+ * @author Ruben Ramirez
+ * @param <E> the type of elements stored in the tree
+ */
+
+public class PooledAVLTree<E extends IntKeyed> implements OrderedIndex<E> {
+    // Deeper than any AVL tree with fewer than 2^31 nodes
+    private static final int MAX_HEIGHT = 64;
+    private static final int NIL = NodeArena.NIL;
+
+    private final NodeArena arena = new NodeArena();
+    private final int[] path = new int[MAX_HEIGHT];
+    private int root = NIL;
+    private int currentSize = 0;
+
+    /**
+     * Adds an element, replacing the element with the same key if any
+     * @param obj, the element to be added
+     * @return true once the element is added
+     */
+    public boolean add(E obj) {
+        int key = order(obj.intKey());
+        int node = root, depth = 0;
+
+        while(node != NIL) {
+            int other = arena.key(node);
+            if(key == other) {
+                arena.setValue(node, obj);
+                return true;
+            }
+            path[depth++] = node;
+            node = key < other ? arena.left(node) : arena.right(node);
+        }
+
+        node = arena.allocate(key, obj);
+        if(depth == 0)
+            root = node;
+        else if(key < arena.key(path[depth - 1]))
+            arena.setLeft(path[depth - 1], node);
+        else
+            arena.setRight(path[depth - 1], node);
+        currentSize++;
+        rebalance(depth);
+        return true;
+    }
+
+    public E get(E obj) {
+        return get(obj.intKey());
+    }
+
+    /**
+     * Gets the element stored under a key
+     * @param key, the unsigned 32-bit key to be searched for
+     * @return E, the element found, null if not found
+     */
+    public E get(int key) {
+        int node = root;
+        key = order(key);
+
+        while(node != NIL) {
+            int other = arena.key(node);
+            if(key == other)
+                return (E) arena.value(node);
+            node = key < other ? arena.left(node) : arena.right(node);
+        }
+        return null;
+    }
+
+    public E floor(E obj) {
+        return floor(obj.intKey());
+    }
+
+    /**
+     * Gets the element with the largest key that is less than or equal to
+     * the key entered
+     * @param key, the unsigned 32-bit key to be searched for
+     * @return E, the floor element, null if no such element exists
+     */
+    public E floor(int key) {
+        int node = root, best = NIL;
+        key = order(key);
+
+        while(node != NIL) {
+            int other = arena.key(node);
+            if(key == other)
+                return (E) arena.value(node);
+            if(key < other)
+                node = arena.left(node);
+            else {
+                best = node;
+                node = arena.right(node);
+            }
+        }
+        return best == NIL ? null : (E) arena.value(best);
+    }
+
+    public E delete(E obj) {
+        return remove(obj.intKey());
+    }
+
+    /**
+     * Removes the element stored under a key. A node with two subtrees
+     * takes the key and element of its in-order successor, whose node is
+     * unlinked instead.
+     * @param key, the unsigned 32-bit key to be removed
+     * @return E, the element removed, null if not found
+     */
+    public E remove(int key) {
+        int node = root, depth = 0;
+        key = order(key);
+
+        while(node != NIL && arena.key(node) != key) {
+            path[depth++] = node;
+            node = key < arena.key(node) ? arena.left(node) : arena.right(node);
+        }
+        if(node == NIL)
+            return null;
+        E removed = (E) arena.value(node);
+
+        if(arena.left(node) != NIL && arena.right(node) != NIL) {
+            path[depth++] = node;
+            int next = arena.right(node);
+            while(arena.left(next) != NIL) {
+                path[depth++] = next;
+                next = arena.left(next);
+            }
+            arena.setKey(node, arena.key(next));
+            arena.setValue(node, arena.value(next));
+            node = next;
+        }
+
+        int child = arena.left(node) != NIL ? arena.left(node) : arena.right(node);
+        replaceChild(depth == 0 ? NIL : path[depth - 1], node, child);
+        arena.free(node);
+        currentSize--;
+        rebalance(depth);
+        return removed;
+    }
+
+    /**
+     * Removes every element, keeping the arena's chunks for reuse
+     */
+    public void clear() {
+        arena.clear();
+        root = NIL;
+        currentSize = 0;
+    }
+
+    public int size() {
+        return currentSize;
+    }
+
+    public boolean isEmpty() {
+        return currentSize == 0;
+    }
+
+    /**
+     * Returns the number of nodes the arena holds before it has to grow
+     * @return int, the capacity of the arena
+     */
+    public int capacity() {
+        return arena.capacity();
+    }
+
+    /**
+     * Returns an iterator over the elements in increasing key order
+     * @return an iterator over the elements
+     */
+    public Iterator<E> iterator() {
+        return new PooledIterator();
+    }
+
+    /**
+     * Verifies the structure of the whole tree: key ordering, stored
+     * heights, AVL balance, the element count and the nodes in use in
+     * the arena.
+     * Used by randomized stress tests.
+     * @throws IllegalStateException if any invariant is broken
+     */
+    public void checkInvariants() {
+        if(checkNode(root, Long.MIN_VALUE, Long.MAX_VALUE) != currentSize)
+            throw new IllegalStateException("Size is " + currentSize +
+                    " but tree holds a different number of nodes");
+        if(arena.live() != currentSize)
+            throw new IllegalStateException(arena.live() + " nodes in use for " +
+                    currentSize + " elements");
+    }
+
+    // Checks a subtree whose keys lie strictly between lo and hi
+    private int checkNode(int node, long lo, long hi) {
+        if(node == NIL)
+            return 0;
+        int key = arena.key(node), left = arena.left(node), right = arena.right(node);
+        if(key <= lo || key >= hi)
+            throw new IllegalStateException("Out of order at " + order(key));
+        int count = checkNode(left, lo, key) + checkNode(right, key, hi) + 1;
+        if(arena.height(node) != Math.max(arena.height(left), arena.height(right)) + 1)
+            throw new IllegalStateException("Bad height at " + order(key));
+        if(Math.abs(arena.height(left) - arena.height(right)) > 1)
+            throw new IllegalStateException("Unbalanced at " + order(key));
+        return count;
+    }
+
+    /**
+     * Restores the heights and balance of the nodes on the path, from the
+     * deepest up to the root.
+     * @param depth, the number of nodes on the path
+     */
+    private void rebalance(int depth) {
+        for(int i = depth - 1; i >= 0; i--) {
+            int node = path[i], top = balance(node);
+            if(top != node)
+                replaceChild(i == 0 ? NIL : path[i - 1], node, top);
+        }
+    }
+
+    // Links a replacement in place of a child of parent, or of the root
+    private void replaceChild(int parent, int node, int replacement) {
+        if(parent == NIL)
+            root = replacement;
+        else if(arena.left(parent) == node)
+            arena.setLeft(parent, replacement);
+        else
+            arena.setRight(parent, replacement);
+    }
+
+    // Updates the height of a node and rotates it when out of balance
+    private int balance(int node) {
+        int left = arena.left(node), right = arena.right(node);
+        int factor = arena.height(left) - arena.height(right);
+
+        if(factor > 1) {
+            if(arena.height(arena.left(left)) < arena.height(arena.right(left)))
+                arena.setLeft(node, rotateLeft(left));
+            return rotateRight(node);
+        }
+        if(factor < -1) {
+            if(arena.height(arena.right(right)) < arena.height(arena.left(right)))
+                arena.setRight(node, rotateRight(right));
+            return rotateLeft(node);
+        }
+        setHeight(node);
+        return node;
+    }
+
+    private int rotateRight(int node) {
+        int top = arena.left(node);
+        arena.setLeft(node, arena.right(top));
+        arena.setRight(top, node);
+        setHeight(node);
+        setHeight(top);
+        return top;
+    }
+
+    private int rotateLeft(int node) {
+        int top = arena.right(node);
+        arena.setRight(node, arena.left(top));
+        arena.setLeft(top, node);
+        setHeight(node);
+        setHeight(top);
+        return top;
+    }
+
+    private void setHeight(int node) {
+        arena.setHeight(node, Math.max(arena.height(arena.left(node)),
+                arena.height(arena.right(node))) + 1);
+    }
+
+    // Maps an unsigned key onto the signed int order stored in the arena
+    private static int order(int key) {
+        return key ^ Integer.MIN_VALUE;
+    }
+
+    private class PooledIterator implements Iterator<E> {
+        private final int[] stack = new int[MAX_HEIGHT];
+        private int depth = 0;
+
+        public PooledIterator() {
+            pushLeft(root);
+        }
+
+        public boolean hasNext() {
+            return depth > 0;
+        }
+
+        public E next() {
+            if(depth == 0)
+                throw new NoSuchElementException();
+            int node = stack[--depth];
+            pushLeft(arena.right(node));
+            return (E) arena.value(node);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void pushLeft(int node) {
+            for(; node != NIL; node = arena.left(node))
+                stack[depth++] = node;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package data_structures;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Top-down splay tree of IntKeyed elements whose nodes live in a
+ * NodeArena rather than being objects of their own. Deleted nodes are
+ * reused by later inserts and the splay header is a node of the arena, so
+ * under constant churn at a steady size inserts and deletes allocate
+ * nothing and leave no garbage behind.
+ *
+ * Elements are ordered by the unsigned value of their keys. Each key is
+ * stored once; adding an element with a key already present replaces it.
+ * A tree is used by one thread at a time.
+ *
+ * @author Ruben Ramirez
+ * @param <E> the type of elements stored in the tree
+ */
+
+public class PooledSplayTree<E extends IntKeyed> implements OrderedIndex<E> {
+    private static final int NIL = NodeArena.NIL;
+
+    private final NodeArena arena = new NodeArena();
+    // Reused by splay() to collect the left and right trees
+    private int header;
+    private int root = NIL;
+    private int currentSize = 0;
+
+    public PooledSplayTree() {
+        this.header = arena.allocate(0, null);
+    }
+
+    /**
+     * Adds an element, replacing the element with the same key if any.
+     * The new node becomes the root.
+     * @param obj, the element to be added
+     * @return true once the element is added
+     */
+    public boolean add(E obj) {
+        int key = order(obj.intKey());
+
+        if(root == NIL) {
+            root = arena.allocate(key, obj);
+            currentSize++;
+            return true;
+        }
+        splay(key);
+        int other = arena.key(root);
+        if(key == other) {
+            arena.setValue(root, obj);
+            return true;
+        }
+
+        int node = arena.allocate(key, obj);
+        if(key < other) {
+            arena.setLeft(node, arena.left(root));
+            arena.setRight(node, root);
+            arena.setLeft(root, NIL);
+        }
+        else {
+            arena.setRight(node, arena.right(root));
+            arena.setLeft(node, root);
+            arena.setRight(root, NIL);
+        }
+        root = node;
+        currentSize++;
+        return true;
+    }
+
+    public E get(E obj) {
+        return get(obj.intKey());
+    }
+
+    /**
+     * Gets the element stored under a key, splaying it to the root
+     * @param key, the unsigned 32-bit key to be searched for
+     * @return E, the element found, null if not found
+     */
+    public E get(int key) {
+        if(root == NIL)
+            return null;
+        key = order(key);
+        splay(key);
+        return arena.key(root) == key ? (E) arena.value(root) : null;
+    }
+
+    public E floor(E obj) {
+        return floor(obj.intKey());
+    }
+
+    /**
+     * Gets the element with the largest key that is less than or equal to
+     * the key entered. The last node visited is splayed to the root.
+     * @param key, the unsigned 32-bit key to be searched for
+     * @return E, the floor element, null if no such element exists
+     */
+    public E floor(int key) {
+        if(root == NIL)
+            return null;
+        key = order(key);
+        splay(key);
+        if(arena.key(root) <= key)
+            return (E) arena.value(root);
+
+        // Root is the successor, so the floor is the largest key on its left
+        int node = arena.left(root);
+        if(node == NIL)
+            return null;
+        while(arena.right(node) != NIL)
+            node = arena.right(node);
+        return (E) arena.value(node);
+    }
+
+    public E delete(E obj) {
+        return remove(obj.intKey());
+    }
+
+    /**
+     * Removes the element stored under a key
+     * @param key, the unsigned 32-bit key to be removed
+     * @return E, the element removed, null if not found
+     */
+    public E remove(int key) {
+        if(root == NIL)
+            return null;
+        key = order(key);
+        splay(key);
+        if(arena.key(root) != key)
+            return null;
+
+        int node = root;
+        E removed = (E) arena.value(node);
+        if(arena.left(node) == NIL)
+            root = arena.right(node);
+        else {
+            // Splaying the left tree brings its largest key to its root,
+            // which then has no right subtree
+            root = arena.left(node);
+            splay(key);
+            arena.setRight(root, arena.right(node));
+        }
+        arena.free(node);
+        currentSize--;
+        return removed;
+    }
+
+    /**
+     * Removes every element, keeping the arena's chunks for reuse
+     */
+    public void clear() {
+        arena.clear();
+        header = arena.allocate(0, null);
+        root = NIL;
+        currentSize = 0;
+    }
+
+    public int size() {
+        return currentSize;
+    }
+
+    public boolean isEmpty() {
+        return currentSize == 0;
+    }
+
+    /**
+     * Returns the number of nodes the arena holds before it has to grow
+     * @return int, the capacity of the arena
+     */
+    public int capacity() {
+        return arena.capacity();
+    }
+
+    /**
+     * Returns an iterator over the elements in increasing key order. The
+     * elements are collected up front with an explicit stack, since a
+     * splay tree can be as deep as it is large.
+     * @return an iterator over the elements
+     */
+    public Iterator<E> iterator() {
+        IntKeyed[] elements = new IntKeyed[currentSize];
+        int[] stack = new int[16];
+        int node = root, depth = 0, count = 0;
+
+        while(node != NIL || depth > 0) {
+            while(node != NIL) {
+                if(depth == stack.length)
+                    stack = Arrays.copyOf(stack, 2 * depth);
+                stack[depth++] = node;
+                node = arena.left(node);
+            }
+            node = stack[--depth];
+            elements[count++] = (IntKeyed) arena.value(node);
+            node = arena.right(node);
+        }
+        return Arrays.asList((E[]) elements).iterator();
+    }
+
+    /**
+     * Verifies the structure of the whole tree: strictly increasing keys
+     * in order, the element count, the header left clean by the last
+     * splay and the nodes in use in the arena.
+     * @throws IllegalStateException if any invariant is broken
+     */
+    public void checkInvariants() {
+        if(arena.left(header) != NIL || arena.right(header) != NIL)
+            throw new IllegalStateException("Header still links to the tree");
+
+        int[] stack = new int[16];
+        int node = root, depth = 0, count = 0;
+        long previous = Long.MIN_VALUE;
+        while(node != NIL || depth > 0) {
+            while(node != NIL) {
+                if(depth == stack.length)
+                    stack = Arrays.copyOf(stack, 2 * depth);
+                stack[depth++] = node;
+                node = arena.left(node);
+            }
+            node = stack[--depth];
+            if(arena.key(node) <= previous)
+                throw new IllegalStateException("Out of order at " + order(arena.key(node)));
+            if(++count > currentSize)
+                throw new IllegalStateException("Size is " + currentSize +
+                        " but tree holds more nodes");
+            previous = arena.key(node);
+            node = arena.right(node);
+        }
+        if(count != currentSize)
+            throw new IllegalStateException("Size is " + currentSize +
+                    " but tree holds " + count + " nodes");
+        if(arena.live() != currentSize + 1)
+            throw new IllegalStateException(arena.live() + " nodes in use for " +
+                    currentSize + " elements and the header");
+    }
+
+    /**
+     * Performs a top-down splay of a key, the same way as SplayTree. The
+     * last node visited gets placed at the root position.
+     * @param key, the ordered key to search for
+     */
+    private void splay(int key) {
+        int left = header, right = header, top = root;
+        arena.setLeft(header, NIL);
+        arena.setRight(header, NIL);
+
+        while(true) {
+            int other = arena.key(top);
+            if(key < other) {
+                int child = arena.left(top);
+                if(child == NIL)
+                    break;
+                if(key < arena.key(child)) {
+                    top = rotateRight(top);
+                    if(arena.left(top) == NIL)
+                        break;
+                }
+                arena.setLeft(right, top);
+                right = top;
+                top = arena.left(right);
+                arena.setLeft(right, NIL);
+            }
+            else if(key > other) {
+                int child = arena.right(top);
+                if(child == NIL)
+                    break;
+                if(key > arena.key(child)) {
+                    top = rotateLeft(top);
+                    if(arena.right(top) == NIL)
+                        break;
+                }
+                arena.setRight(left, top);
+                left = top;
+                top = arena.right(left);
+                arena.setRight(left, NIL);
+            }
+            else
+                break;
+        }
+        // Assemble tree
+        arena.setRight(left, arena.left(top));
+        arena.setLeft(right, arena.right(top));
+        arena.setLeft(top, arena.right(header));
+        arena.setRight(top, arena.left(header));
+        arena.setLeft(header, NIL);
+        arena.setRight(header, NIL);
+        root = top;
+    }
+
+    private int rotateRight(int node) {
+        int top = arena.left(node);
+        arena.setLeft(node, arena.right(top));
+        arena.setRight(top, node);
+        return top;
+    }
+
+    private int rotateLeft(int node) {
+        int top = arena.right(node);
+        arena.setRight(node, arena.left(top));
+        arena.setLeft(top, node);
+        return top;
+    }
+
+    // Maps an unsigned key onto the signed int order stored in the arena
+    private static int order(int key) {
+        return key ^ Integer.MIN_VALUE;
+    }
+}
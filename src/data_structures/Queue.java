@@ -5,73 +5,148 @@
  */
 package data_structures;
 
-import searchtrees.*;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Generic FIFO queue backed by a ring buffer. The buffer length is a power
+ * of two so positions wrap with a mask, and it doubles when full, so
+ * enqueue and dequeue are amortized O(1) and allocate nothing once the
+ * buffer has grown to the working size.
+ *
+ * @author Ruben Ramirez
+ * @param <E> the type of elements in the queue
+ */
 
 public class Queue<E> {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private Object[] elements;
+    private int head;
     private int size;
-    private LinkedList<E> list;
-    
+
     public Queue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // creates a queue whose buffer holds at least capacity objects before growing
+    public Queue(int capacity) {
+        int length = DEFAULT_CAPACITY;
+        while(length < capacity)
+            length <<= 1;
+        this.elements = new Object[length];
+        this.head = 0;
         this.size = 0;
-        this.list = new LinkedList<>();
     }
-    
+
     // inserts the object obj into the queue
     public void enqueue(E obj) {
-        list.addLast(obj);
+        if(size == elements.length)
+            grow();
+        elements[(head + size) & (elements.length - 1)] = obj;
         size++;
     }
-     
-    // removes and returns the object at the front of the queue   
+
+    // removes and returns the object at the front of the queue
     public E dequeue() {
-        E data = list.peekFirst();
-        if(list.removeFirst() != null) {
-            size--;
-            return data;
-        }
-        return null;
+        if(size == 0)
+            return null;
+        E data = (E) elements[head];
+        elements[head] = null;
+        head = (head + 1) & (elements.length - 1);
+        size--;
+        return data;
     }
-    
-    // returns the number of objects currently in the queue    
+
+    // returns the number of objects currently in the queue
     public int size() {
         return size;
     }
-    
-    // returns true if the queue is empty, otherwise false   
+
+    // returns true if the queue is empty, otherwise false
     public boolean isEmpty() {
-        return list.isEmpty();
+        return size == 0;
     }
-    
-    // returns but does not remove the object at the front of the queue   
+
+    // returns but does not remove the object at the front of the queue
     public E peek() {
-        return list.peekFirst();
+        if(size == 0)
+            return null;
+        return (E) elements[head];
     }
-    
-    // returns true if the Object obj is in the queue    
+
+    // returns true if the Object obj is in the queue
     public boolean contains(E obj) {
-        return list.contains(obj);
+        return indexOf(obj) >= 0;
     }
-     
-    // returns the queue to an empty state  
+
+    // returns the queue to an empty state
     public void makeEmpty() {
+        for(int i = 0; i < size; i++)
+            elements[(head + i) & (elements.length - 1)] = null;
+        head = 0;
         size = 0;
-        list.clear();
     }
-    
+
     // removes the Object obj if it is in the queue and
     // returns true, otherwise returns false.
     public boolean remove(E obj) {
-        if(list.remove(obj) == null)
+        int mask = elements.length - 1;
+        int index = indexOf(obj);
+
+        if(index < 0)
             return false;
+
+        // Close the gap by shifting the later objects forward
+        for(int i = index; i < size - 1; i++)
+            elements[(head + i) & mask] = elements[(head + i + 1) & mask];
+        elements[(head + size - 1) & mask] = null;
         size--;
         return true;
     }
-    
+
     // returns an iterator of the elements in the queue.  The elements
-    // must be in the same sequence as dequeue would return them.    
+    // must be in the same sequence as dequeue would return them.
     public Iterator<E> iterator() {
-        return list.iterator();
+        return new IteratorHelper();
+    }
+
+    // returns the position of obj counted from the front, or -1, using the
+    // object's compareTo method to determine whether two objects are the same
+    private int indexOf(E obj) {
+        for(int i = 0; i < size; i++)
+            if(((Comparable<E>)obj).compareTo(
+                    (E) elements[(head + i) & (elements.length - 1)]) == 0)
+                return i;
+        return -1;
+    }
+
+    // doubles the buffer, unwrapping the objects to the start of the new one
+    private void grow() {
+        Object[] larger = new Object[elements.length << 1];
+        int front = elements.length - head;
+
+        System.arraycopy(elements, head, larger, 0, front);
+        System.arraycopy(elements, 0, larger, front, head);
+        elements = larger;
+        head = 0;
+    }
+
+    private class IteratorHelper implements Iterator<E> {
+        private int index = 0;
+
+        public boolean hasNext() {
+            return index < size;
+        }
+
+        public E next() {
+            if(!hasNext())
+                throw new NoSuchElementException();
+            return (E) elements[(head + index++) & (elements.length - 1)];
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
     }
-    
 }
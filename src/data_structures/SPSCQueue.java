@@ -0,0 +1,84 @@
+package data_structures;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free FIFO queue for exactly one producer thread and one
+ * consumer thread, such as a reader thread handing parsed addresses to a
+ * lookup thread. Each side owns one counter and publishes it with an 
+ * ordered write, so neither enqueue nor dequeue locks or allocates.
+ *
+ * @author Ruben Ramirez
+ * @param <E> the type of elements in the queue
+ */
+
+public class SPSCQueue<E> {
+    private final Object[] elements;
+    private final int mask;
+    // Next position to write, advanced only by the producer
+    private final AtomicLong tail = new AtomicLong();
+    // Next position to read, advanced only by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // Each side's last view of the other side's counter
+    private long headCache, tailCache;
+
+    // creates a queue holding at least capacity objects
+    public SPSCQueue(int capacity) {
+        int length = 2;
+        while(length < capacity)
+            length <<= 1;
+        this.elements = new Object[length];
+        this.mask = length - 1;
+    }
+
+    // inserts obj at the back of the queue, returns false if the queue is
+    // full. Must only be called from the producer thread.
+    public boolean enqueue(E obj) {
+        if(obj == null)
+            throw new NullPointerException();
+        long position = tail.get();
+
+        if(position - headCache == elements.length) {
+            headCache = head.get();
+            if(position - headCache == elements.length)
+                return false;
+        }
+        elements[(int) position & mask] = obj;
+        tail.lazySet(position + 1);
+        return true;
+    }
+
+    // removes and returns the object at the front of the queue, or null if
+    // the queue is empty. Must only be called from the consumer thread.
+    public E dequeue() {
+        long position = head.get();
+
+        if(position == tailCache) {
+            tailCache = tail.get();
+            if(position == tailCache)
+                return null;
+        }
+        int index = (int) position & mask;
+        E data = (E) elements[index];
+        elements[index] = null;
+        head.lazySet(position + 1);
+        return data;
+    }
+
+    // returns the number of objects currently in the queue. Head is read
+    // first, so a dequeue in between cannot take it past the tail read.
+    public int size() {
+        long position = head.get();
+        return (int) (tail.get() - position);
+    }
+
+    // returns true if the queue is empty, otherwise false
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // returns the most objects the queue can hold
+    public int capacity() {
+        return elements.length;
+    }
+}
@@ -11,13 +11,46 @@ import searchtrees.*;
  * @param <V>, values stored in the tree
  */
 
-public class SplayTree<K,V> implements Iterable<K> {
+public class SplayTree<K,V> implements OrderedIndex<K> {
     private Node<K,V> root;
     private int currentSize;
+    // Reused by splay() to collect the left and right trees
+    private final Node<K,V> header;
     
     public SplayTree() {
         this.root = null;
         this.currentSize = 0;
+        this.header = new Node<>(null, null);
+    }
+    
+    /**
+     * Builds a balanced tree from keys in increasing order in linear time.
+     * @param sorted, the keys in strictly increasing order
+     * @param values, the value for each key, or null to store no values
+     * @throws IllegalStateException if the tree is not empty
+     * @throws IllegalArgumentException if the keys are not strictly increasing
+     */
+    public void bulkLoad(K[] sorted, V[] values) {
+        if(currentSize != 0)
+            throw new IllegalStateException("Bulk load requires an empty tree");
+        for(int i = 1; i < sorted.length; i++)
+            if(((Comparable<K>)sorted[i - 1]).compareTo(sorted[i]) >= 0)
+                throw new IllegalArgumentException("Keys are not strictly increasing at " + i);
+        
+        root = build(sorted, values, 0, sorted.length - 1);
+        currentSize = sorted.length;
+    }
+    
+    // Recursively builds a balanced subtree from a range of the sorted keys
+    private Node<K,V> build(K[] sorted, V[] values, int lo, int hi) {
+        if(lo > hi)
+            return null;
+        
+        int mid = (lo + hi) >>> 1;
+        Node<K,V> node = new Node<>(sorted[mid], values == null ? null : values[mid]);
+        node.left = build(sorted, values, lo, mid - 1);
+        node.right = build(sorted, values, mid + 1, hi);
+        return node;
     }
     
     /**
@@ -27,24 +60,26 @@ public class SplayTree<K,V> implements Iterable<K> {
      * @return true if the item was successfully added to the tree
      */
     public boolean add(K key, V value) {
-        Node<K,V> newNode = new Node<>(key, value);
+        Node<K,V> newNode;
         
         if(root == null) {
-            root = newNode;
+            root = new Node<>(key, value);
             this.currentSize++;
             return true;
         }
-        splay(newNode);
+        splay(key);
+        int cmp = ((Comparable<K>)key).compareTo(root.key);
         
         // If element is already in the tree, override it's value
-        if(((Comparable<K>)key).compareTo(root.key) == 0) {
+        if(cmp == 0) {
             root.value = value;
             root.key = key;
             return true;
         }
         
         // Insert new node at the root of the tree
-        if(((Comparable<K>)key).compareTo(root.key) < 0) {
+        newNode = new Node<>(key, value);
+        if(cmp < 0) {
             newNode.left = root.left;
             newNode.right = root;
             root.left = null;
@@ -59,17 +94,25 @@ public class SplayTree<K,V> implements Iterable<K> {
         this.currentSize++;
         return true;
     }
+    
+    /**
+     * Adds a key with no associated value into the splay tree.
+     * @param key, the key to be added to the tree
+     * @return true if the key was successfully added to the tree
+     */
+    public boolean add(K key) {
+        return add(key, null);
+    }
+    
     /**
      * Searches the tree to see if an item exists in the structure
      * @param obj, the object to be searched for
      * @return true if the object is found, false otherwise
      */
     public boolean contains(K key) {
-        Node<K,V> node = new Node<>(key, null);
-        
         if(root == null) 
             return false;
-        splay(node);
+        splay(key);
         if(((Comparable<K>)key).compareTo(root.key) == 0) 
             return true;
         return false;
@@ -81,11 +124,9 @@ public class SplayTree<K,V> implements Iterable<K> {
      * @return V, the value associated with the key, null if key is not found
      */
     public V getValue(K key) {
-        Node<K,V> node = new Node<>(key, null);
-        
         if(root == null) 
             return null;
-        splay(node);
+        splay(key);
         if(((Comparable<K>)key).compareTo(root.key) == 0) 
             return root.value;
         return null;
@@ -97,16 +138,59 @@ public class SplayTree<K,V> implements Iterable<K> {
      * @return K, the key associated with the object, null if key is not found
      */
     public K get(K key) {
-        Node<K,V> node = new Node<>(key, null);
-        
         if(root == null) 
             return null;
-        splay(node);
+        splay(key);
         if(((Comparable<K>)key).compareTo(root.key) == 0) 
             return root.key;
         return null;
     }
     
+    /**
+     * Searches for the largest key that is less than or equal to the key 
+     * entered. Used for range lookups, where the keys are the first address
+     * of each block.
+     * @param key, used to search the tree
+     * @return K, the floor of the key, null if no such key exists
+     */
+    public K floor(K key) {
+        if(root == null) 
+            return null;
+        splay(key);
+        if(((Comparable<K>)key).compareTo(root.key) >= 0) 
+            return root.key;
+        
+        // Root is the successor, so the floor is the largest key on its left
+        Node<K,V> node = root.left;
+        if(node == null)
+            return null;
+        while(node.right != null)
+            node = node.right;
+        return node.key;
+    }
+    
+    /**
+     * Returns the value stored with the floor of a key, the largest key
+     * less than or equal to it. Splays once, like floor, so the floor is
+     * either the root or the largest key on its left.
+     * @param key, the key to be searched for
+     * @return V, the value of the floor, null if no such key exists
+     */
+    public V floorValue(K key) {
+        if(root == null) 
+            return null;
+        splay(key);
+        if(((Comparable<K>)key).compareTo(root.key) >= 0) 
+            return root.value;
+        
+        Node<K,V> node = root.left;
+        if(node == null)
+            return null;
+        while(node.right != null)
+            node = node.right;
+        return node.value;
+    }
+    
     /**
      * Returns the value of the element stored at the root of the tree
      * @return the value stored in the root node
@@ -120,30 +204,40 @@ public class SplayTree<K,V> implements Iterable<K> {
     /**
      * Deletes a node if it is in the tree.
      * @param key, the key of the node to be deleted
-     * @return K, the key of the deleted node, null if node was not found
+     * @return K, the key stored in the deleted node, null if node was not found
      */
     public K remove(K key) {
-        Node<K,V> node = new Node<>(key, null);
         Node<K,V> tmp; 
         if(root == null)
             return null;
         
-        splay(node);
+        splay(key);
         
         // If object is not in the tree
         if(((Comparable<K>)key).compareTo(root.key) != 0) 
             return null;
+        K removed = root.key;
         
         // If largest element has to be deleted
         if(root.right == null) {
             root = root.left;
             currentSize--;
-            return key;
+            return removed;
         }
         // Get the in order successor and delete it
         tmp = deleteNext(root);
         root.key = tmp.key;
-        return key;
+        root.value = tmp.value;
+        return removed;
+    }
+    
+    /**
+     * Deletes a node if it is in the tree. Same as remove.
+     * @param key, the key of the node to be deleted
+     * @return K, the key stored in the deleted node, null if node was not found
+     */
+    public K delete(K key) {
+        return remove(key);
     }
     
     /**
@@ -200,20 +294,24 @@ public class SplayTree<K,V> implements Iterable<K> {
     
     /**
      * Performs a splay operation. Traverses down the tree and splits the tree
-     * into sub sections. The last node visited gets placed at the root position/
-     * @param node, node to search for
+     * into sub sections. The last node visited gets placed at the root position.
+     * The key is passed directly and the tree's header node is reused, so 
+     * a splay does not allocate.
+     * @param key, key to search for
      */
-    private void splay(Node<K,V> node) {
-        Node<K,V> holder = new Node<>(null, null);
+    private void splay(K key) {
+        Comparable<K> target = (Comparable<K>)key;
         Node<K,V> L, R, top;
         top = root;
-        L = R = holder;
+        L = R = header;
+        header.left = header.right = null;
         
         while(true) {
-            if(((Comparable<K>)node.key).compareTo(top.key) < 0) {
+            int cmp = target.compareTo(top.key);
+            if(cmp < 0) {
                 if(top.left == null) 
                         break;
-                if(((Comparable<K>)node.key).compareTo(top.left.key) < 0) {
+                if(target.compareTo(top.left.key) < 0) {
                     top = rightRotate(top);
                     if(top.left == null) 
                         break;
@@ -223,10 +321,10 @@ public class SplayTree<K,V> implements Iterable<K> {
                 top = R.left;
                 R.left = null;
             }
-            else if(((Comparable<K>)node.key).compareTo(top.key) > 0) {
+            else if(cmp > 0) {
                 if(top.right == null) 
                         break;
-                if(((Comparable<K>)node.key).compareTo(top.right.key) > 0) {
+                if(target.compareTo(top.right.key) > 0) {
                     top = leftRotate(top);
                     if(top.right == null) 
                         break;
@@ -242,8 +340,9 @@ public class SplayTree<K,V> implements Iterable<K> {
         // Assemble tree
         L.right = top.left;
         R.left = top.right;
-        top.left = holder.right;
-        top.right = holder.left;
+        top.left = header.right;
+        top.right = header.left;
+        header.left = header.right = null;
         root = top;
     }
     
@@ -262,6 +361,39 @@ public class SplayTree<K,V> implements Iterable<K> {
     public boolean isEmpty() {
         return this.currentSize == 0;
     }
+
+    /**
+     * Verifies the structure of the whole tree: strictly increasing keys in
+     * order, the element count and the reused header left clean by the
+     * last splay. Walks the tree with an explicit stack, since it can be
+     * as deep as it is large.
+     * @throws IllegalStateException if any invariant is broken
+     */
+    public void checkInvariants() {
+        if(header.left != null || header.right != null)
+            throw new IllegalStateException("Header still links to the tree");
+
+        LinkedList<Node<K,V>> stack = new LinkedList<>();
+        Node<K,V> node = root, previous = null;
+        int count = 0;
+        while(node != null || !stack.isEmpty()) {
+            while(node != null) {
+                stack.addFirst(node);
+                node = node.left;
+            }
+            node = stack.removeFirst();
+            if(previous != null && ((Comparable<K>)previous.key).compareTo(node.key) >= 0)
+                throw new IllegalStateException("Out of order at " + node.key);
+            if(++count > currentSize)
+                throw new IllegalStateException("Size is " + currentSize +
+                        " but tree holds more nodes");
+            previous = node;
+            node = node.right;
+        }
+        if(count != currentSize)
+            throw new IllegalStateException("Size is " + currentSize +
+                    " but tree holds " + count + " nodes");
+    }
     
     /**
      * Performs a right rotation on a given node. 
@@ -349,12 +481,19 @@ public class SplayTree<K,V> implements Iterable<K> {
         }
 
         // Performs an in-order traversal of the tree and adds
-        // each element to an array.
+        // each element to an array. Uses an explicit stack, since a 
+        // splay tree can be as deep as it is large.
         private void fillArray(Node<K,V> node) {
-        if(node != null) {
-            fillArray(node.left);
+        LinkedList<Node<K,V>> stack = new LinkedList<>();
+        
+        while(node != null || !stack.isEmpty()) {
+            while(node != null) {
+                stack.addFirst(node);
+                node = node.left;
+            }
+            node = stack.removeFirst();
             array[index++] = node;
-            fillArray(node.right);
+            node = node.right;
         }
     }
 }
@@ -0,0 +1,188 @@
+package data_structures;
+
+/**
+ * Two-tier lookup engine for range lookups. A small SplayTree holds the
+ * blocks looked up recently, each with the start of the block after it, in
+ * front of an immutable PersistentAVLTree holding the whole table. A lookup
+ * whose address falls inside a cached block is answered by the hot tier,
+ * which keeps the most requested blocks near its root. Anything else is
+ * answered by the full index and its block promoted into the hot tier,
+ * evicting a block not used since the last sweep of a clock hand when the
+ * tier is full.
+ *
+ * The splay tree changes shape on every lookup, so lookups are serialized.
+ * Threads with their own TieredIndex over the same full index share the
+ * table without contending.
+ *
+ * @author Ruben Ramirez
+ * @param <E> the type of elements, ordered by the start of their block
+ */
+
+public class TieredIndex<E> {
+    private final PersistentAVLTree<E> full;
+    private final SplayTree<E, Block<E>> hot = new SplayTree<>();
+    // Cached blocks in clock order, for eviction
+    private final Block<E>[] clock;
+    private int hand;
+    private int cached;
+
+    private long hotHits;
+    private long fullHits;
+    private long misses;
+
+    /**
+     * Creates a lookup engine over a full index
+     * @param full, the immutable index holding every element
+     * @param hotCapacity, the number of blocks the hot tier holds
+     * @throws IllegalArgumentException if the capacity is less than 1
+     */
+    public TieredIndex(PersistentAVLTree<E> full, int hotCapacity) {
+        if(hotCapacity < 1)
+            throw new IllegalArgumentException("Hot tier capacity must be positive: " + hotCapacity);
+        this.full = full;
+        @SuppressWarnings("unchecked")
+        Block<E>[] clock = (Block<E>[]) new Block<?>[hotCapacity];
+        this.clock = clock;
+        this.hand = 0;
+        this.cached = 0;
+    }
+
+    /**
+     * Gets the element with the same key as the object entered
+     * @param obj, the probe to be searched for
+     * @return E, the element found, null if not found
+     */
+    public synchronized E get(E obj) {
+        E block = lookup(obj);
+        return block != null && ((Comparable<E>)obj).compareTo(block) == 0 ? block : null;
+    }
+
+    /**
+     * Gets the largest element less than or equal to the object entered,
+     * the block holding an address
+     * @param obj, the probe to be searched for
+     * @return E, the floor of the object, null if no such element exists
+     */
+    public synchronized E floor(E obj) {
+        return lookup(obj);
+    }
+
+    /**
+     * Returns the number of elements in the full index
+     * @return int, the number of elements
+     */
+    public int size() {
+        return full.size();
+    }
+
+    /**
+     * Returns the number of blocks held by the hot tier
+     * @return int, the number of cached blocks
+     */
+    public synchronized int hotSize() {
+        return cached;
+    }
+
+    /**
+     * Returns the number of lookups answered by the hot tier
+     * @return long, the hot tier hits
+     */
+    public synchronized long hotHits() {
+        return hotHits;
+    }
+
+    /**
+     * Returns the number of lookups that missed the hot tier and found a
+     * block in the full index
+     * @return long, the full index hits
+     */
+    public synchronized long fullHits() {
+        return fullHits;
+    }
+
+    /**
+     * Returns the number of lookups that found no block in either tier
+     * @return long, the lookups below the first block
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Returns the fraction of all lookups answered by the hot tier
+     * @return double, the hot tier hit rate, 0 before any lookup
+     */
+    public synchronized double hotHitRate() {
+        long lookups = hotHits + fullHits + misses;
+        return lookups == 0 ? 0 : (double) hotHits / lookups;
+    }
+
+    /**
+     * Returns the fraction of the lookups reaching the full index that
+     * found a block there
+     * @return double, the full index hit rate, 0 before any lookup reached it
+     */
+    public synchronized double fullHitRate() {
+        long lookups = fullHits + misses;
+        return lookups == 0 ? 0 : (double) fullHits / lookups;
+    }
+
+    /**
+     * Clears the hit counters, keeping the cached blocks
+     */
+    public synchronized void resetStatistics() {
+        hotHits = fullHits = misses = 0;
+    }
+
+    private E lookup(E obj) {
+        Block<E> block = hot.floorValue(obj);
+        if(block != null && (block.next == null || ((Comparable<E>)obj).compareTo(block.next) < 0)) {
+            block.referenced = true;
+            hotHits++;
+            return block.start;
+        }
+
+        E start = full.floor(obj);
+        if(start == null) {
+            misses++;
+            return null;
+        }
+        fullHits++;
+        promote(new Block<>(start, full.higher(start)));
+        return start;
+    }
+
+    // Caches a block, evicting the first block the clock hand finds unused
+    private void promote(Block<E> block) {
+        if(cached < clock.length) {
+            clock[cached++] = block;
+            hot.add(block.start, block);
+            return;
+        }
+        while(clock[hand].referenced) {
+            clock[hand].referenced = false;
+            hand = (hand + 1) % clock.length;
+        }
+        hot.remove(clock[hand].start);
+        clock[hand] = block;
+        hand = (hand + 1) % clock.length;
+        hot.add(block.start, block);
+    }
+
+    /*
+     * Cached block: its first element, the first element of the next block
+     * (null for the last block), and whether it was used since the clock
+     * hand last passed it.
+     */
+    private static class Block<T> {
+        private final T start;
+        private final T next;
+        private boolean referenced;
+
+        public Block(T start, T next) {
+            this.start = start;
+            this.next = next;
+            this.referenced = false;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package data_structures;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Index holding a current PersistentAVLTree version plus the last few
+ * versions for rollback. Readers take the current version with a single
+ * volatile read and never lock, so a lookup or a full iteration always sees
+ * one consistent version. Writers are serialized with each other, build the
+ * next version by path copying, and publish it atomically.
+ *
+ * @author Ruben Ramirez
+ * @param <E> the type of values to be stored in the index
+ */
+
+public class VersionedIndex<E> implements OrderedIndex<E> {
+    private final AtomicReference<PersistentAVLTree<E>> current;
+    // Ring of the versions replaced most recently, guarded by this
+    private final PersistentAVLTree<E>[] history;
+    private int next;
+    private int saved;
+
+    /**
+     * Creates an empty index
+     * @param versions, the number of previous versions kept for rollback
+     */
+    public VersionedIndex(int versions) {
+        this(PersistentAVLTree.<E>empty(), versions);
+    }
+
+    /**
+     * Creates an index starting from a given version
+     * @param initial, the first version of the index
+     * @param versions, the number of previous versions kept for rollback
+     */
+    public VersionedIndex(PersistentAVLTree<E> initial, int versions) {
+        if(versions < 0)
+            throw new IllegalArgumentException("Negative number of versions: " + versions);
+        this.current = new AtomicReference<>(initial);
+        @SuppressWarnings("unchecked")
+        PersistentAVLTree<E>[] history = (PersistentAVLTree<E>[]) new PersistentAVLTree<?>[versions];
+        this.history = history;
+        this.next = 0;
+        this.saved = 0;
+    }
+
+    /**
+     * Returns the current version. It never changes, so it can be read and
+     * iterated while writers publish newer versions.
+     * @return the current version of the tree
+     */
+    public PersistentAVLTree<E> snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Adds an object, replacing any object with the same key, and publishes
+     * the result as a new version.
+     * @param obj, the object to be added
+     * @return true once the new version is published
+     */
+    public synchronized boolean add(E obj) {
+        publish(current.get().add(obj));
+        return true;
+    }
+
+    /**
+     * Adds a batch of objects and publishes them as one version, so readers
+     * see either none or all of the batch.
+     * @param items, the objects to be added
+     */
+    public synchronized void addAll(Iterable<? extends E> items) {
+        PersistentAVLTree<E> tree = current.get();
+        for(E obj : items)
+            tree = tree.add(obj);
+        publish(tree);
+    }
+
+    /**
+     * Removes the object with the same key as the one entered, publishing
+     * a new version if it was present.
+     * @param obj, the object to be removed
+     * @return E, the object that was removed, null if not found
+     */
+    public synchronized E delete(E obj) {
+        PersistentAVLTree<E> tree = current.get();
+        E tmp = tree.get(obj);
+
+        if(tmp != null)
+            publish(tree.delete(obj));
+        return tmp;
+    }
+
+    /**
+     * Restores the version that was current before the last update.
+     * @return true if a saved version was restored, false if none is left
+     */
+    public synchronized boolean rollback() {
+        if(saved == 0)
+            return false;
+
+        next = (next + history.length - 1) % history.length;
+        current.set(history[next]);
+        history[next] = null;
+        saved--;
+        return true;
+    }
+
+    /**
+     * Returns the number of previous versions available for rollback
+     * @return int, the number of saved versions
+     */
+    public synchronized int versions() {
+        return saved;
+    }
+
+    public E get(E obj) {
+        return current.get().get(obj);
+    }
+
+    public E floor(E obj) {
+        return current.get().floor(obj);
+    }
+
+    public int size() {
+        return current.get().size();
+    }
+
+    public boolean isEmpty() {
+        return current.get().isEmpty();
+    }
+
+    public Iterator<E> iterator() {
+        return current.get().iterator();
+    }
+
+    // Saves the current version in the history ring and publishes a new one.
+    // The oldest saved version is dropped once the ring is full.
+    private void publish(PersistentAVLTree<E> tree) {
+        if(history.length > 0) {
+            history[next] = current.get();
+            next = (next + 1) % history.length;
+            saved = Math.min(saved + 1, history.length);
+        }
+        current.set(tree);
+    }
+}
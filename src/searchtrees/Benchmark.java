@@ -0,0 +1,140 @@
+package searchtrees;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import data_structures.*;
+
+/**
+ * Micro benchmark for the read paths of the search trees. Reports the
+ * average time and the number of bytes allocated per operation, measured
+ * with the per-thread allocation counter of the JVM.
+ *
+ * Usage: Benchmark [size] [operations]
+ */
+public class Benchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+
+    private static Integer[] keys;
+    private static int[] order;
+    private static Object sink;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        Random random = new Random(42);
+
+        final SplayTree<Integer, Integer> splay = new SplayTree<>();
+        final AVLTree<Integer> avl = new AVLTree<>();
+
+        // Keys are boxed once up front so lookups measure only the trees
+        keys = new Integer[size];
+        for(int i = 0; i < size; i++) {
+            keys[i] = random.nextInt();
+            splay.add(keys[i], keys[i]);
+            avl.add(keys[i]);
+        }
+        order = new int[operations];
+        for(int i = 0; i < operations; i++)
+            order[i] = random.nextInt(size);
+
+        System.out.println("Operation               ns/op    bytes/op");
+        run("SplayTree.get", new Operation() {
+            void run(Integer key) { sink = splay.get(key); }
+        });
+        run("SplayTree.getValue", new Operation() {
+            void run(Integer key) { sink = splay.getValue(key); }
+        });
+        run("SplayTree.contains", new Operation() {
+            void run(Integer key) { sink = splay.contains(key); }
+        });
+        run("SplayTree.floor", new Operation() {
+            void run(Integer key) { sink = splay.floor(key); }
+        });
+        run("AVLTree.get", new Operation() {
+            void run(Integer key) { sink = avl.get(key); }
+        });
+        run("AVLTree.floor", new Operation() {
+            void run(Integer key) { sink = avl.floor(key); }
+        });
+
+        // The same keys as IntKeyed elements, unsigned order, once each
+        final int[] sorted = new int[size];
+        for(int i = 0; i < size; i++)
+            sorted[i] = keys[i] ^ Integer.MIN_VALUE;
+        Arrays.sort(sorted);
+        int unique = 0;
+        for(int i = 0; i < size; i++)
+            if(i == 0 || sorted[i] != sorted[i - 1])
+                sorted[unique++] = sorted[i];
+        final Block[] blocks = new Block[unique];
+        final AVLTree<Block> blockTree = new AVLTree<>();
+        for(int i = 0; i < unique; i++) {
+            blocks[i] = new Block(sorted[i] ^ Integer.MIN_VALUE);
+            blockTree.add(blocks[i]);
+        }
+        final int[] flatKeys = Arrays.copyOf(sorted, unique);
+        final FlatIndex<Block> flat = new FlatIndex<>(blocks);
+
+        run("AVLTree.get(int)", new Operation() {
+            void run(Integer key) { sink = blockTree.get(key.intValue()); }
+        });
+        run("binarySearch", new Operation() {
+            void run(Integer key) {
+                int i = Arrays.binarySearch(flatKeys, key ^ Integer.MIN_VALUE);
+                sink = i < 0 ? null : blocks[i];
+            }
+        });
+        run("FlatIndex.get", new Operation() {
+            void run(Integer key) { sink = flat.get(key.intValue()); }
+        });
+        run("FlatIndex.floor", new Operation() {
+            void run(Integer key) { sink = flat.floor(key.intValue()); }
+        });
+    }
+
+    /* Runs an operation over the whole key order, after a few warmup rounds,
+     * and prints the time and allocation per operation.
+     */
+    private static void run(String name, Operation op) {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        for(int round = 0; round < WARMUP_ROUNDS; round++)
+            for(int i = 0; i < order.length; i++)
+                op.run(keys[order[i]]);
+
+        long bytes = bean.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for(int i = 0; i < order.length; i++)
+            op.run(keys[order[i]]);
+        long stop = System.nanoTime();
+        bytes = bean.getThreadAllocatedBytes(thread) - bytes;
+
+        System.out.printf("%-22s %6.1f %11.2f%n", name,
+                (double) (stop - start) / order.length, (double) bytes / order.length);
+    }
+
+    private static abstract class Operation {
+        abstract void run(Integer key);
+    }
+
+    /* IntKeyed element for the int key lookups */
+    private static class Block implements IntKeyed, Comparable<Block> {
+        private final int key;
+
+        public Block(int key) {
+            this.key = key;
+        }
+
+        public int intKey() {
+            return key;
+        }
+
+        public int compareTo(Block block) {
+            return Integer.compare(key ^ Integer.MIN_VALUE, block.key ^ Integer.MIN_VALUE);
+        }
+    }
+}
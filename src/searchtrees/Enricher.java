@@ -0,0 +1,308 @@
+package searchtrees;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import data.Countries;
+import data.IPAddress;
+import data.TableLoader;
+import data_structures.BPlusTree;
+import data_structures.Queue;
+
+/**
+ * Enriches a log file with the country of the first IPv4 address on each
+ * line, appended after a tab ("-" when there is none). The log is memory
+ * mapped in chunks that are enriched in parallel and written out in order,
+ * with only a few chunks in flight at a time, so files of any size stream
+ * through in bounded memory.
+ *
+ * Within a chunk, addresses are scanned from the bytes without building
+ * strings, looked up first in a small per-thread cache of recent
+ * addresses, and the misses resolved as one sorted batch against a shared
+ * B+ tree, so consecutive lookups walk the same paths.
+ *
+ * Usage: Enricher log output [table] [threads]
+ *
+ * @author Ruben Ramirez
+ */
+
+public class Enricher {
+
+    private static final int CHUNK_SIZE = 1 << 22;
+    private static final int MAX_LINE_LENGTH = 1 << 16;
+    // Slots of the direct-mapped cache of each thread
+    private static final int CACHE_BITS = 16;
+    private static final int CACHE_SIZE = 1 << CACHE_BITS;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte[] NONE = { '-' };
+
+    private final BPlusTree<IPAddress> index;
+    private final byte[][] names;
+    private final AtomicLong lines = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final ThreadLocal<Cache> caches = new ThreadLocal<Cache>() {
+        protected Cache initialValue() {
+            return new Cache();
+        }
+    };
+
+    public Enricher(BPlusTree<IPAddress> index) {
+        this.index = index;
+        this.names = new byte[Countries.size() + 1][];
+        for(int id = 1; id < names.length; id++)
+            names[id] = Countries.name(id).getBytes(UTF8);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length < 2) {
+            System.out.println("Usage: Enricher log output [table] [threads]");
+            return;
+        }
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) :
+                Runtime.getRuntime().availableProcessors();
+        BPlusTree<IPAddress> index = new BPlusTree<>();
+        index.bulkLoad(TableLoader.load(new File(args.length > 2 ? args[2] : "ip2country.tsv")));
+
+        Enricher enricher = new Enricher(index);
+        long start = System.nanoTime();
+        try(OutputStream out = new FileOutputStream(args[1])) {
+            enricher.enrich(new File(args[0]), out, threads);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d lines in %.2f s, %.0f lines/s%n", enricher.lines(), seconds,
+                enricher.lines() / seconds);
+        System.out.printf("%d addresses, %.1f%% answered by the cache%n", enricher.lookups(),
+                100.0 * enricher.cacheHits() / Math.max(1, enricher.lookups()));
+    }
+
+    /**
+     * Enriches a log, writing the lines in their original order
+     * @param log, the log file to be read
+     * @param out, the stream the enriched lines are written to
+     * @param threads, the number of chunks enriched at the same time
+     * @throws IOException if the log cannot be read or the output written
+     */
+    public void enrich(File log, OutputStream out, int threads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Queue<Future<byte[]>> inFlight = new Queue<>(2 * threads);
+
+        try(RandomAccessFile raf = new RandomAccessFile(log, "r")) {
+            final FileChannel channel = raf.getChannel();
+            final long length = channel.size();
+
+            for(long start = 0; start < length || !inFlight.isEmpty(); ) {
+                // Keep two chunks per thread queued, then write the oldest
+                while(start < length && inFlight.size() < 2 * threads) {
+                    final long from = start;
+                    start += CHUNK_SIZE;
+                    inFlight.enqueue(pool.submit(new Callable<byte[]>() {
+                        public byte[] call() throws IOException {
+                            return enrichChunk(channel, from, Math.min(length, from + CHUNK_SIZE), length);
+                        }
+                    }));
+                }
+                out.write(inFlight.dequeue().get());
+            }
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public long lines() {
+        return lines.get();
+    }
+
+    public long lookups() {
+        return lookups.get();
+    }
+
+    public long cacheHits() {
+        return hits.get();
+    }
+
+    /*
+     * Enriches the lines that start within a chunk. Like TableLoader, the
+     * mapping starts one byte early to see whether the chunk starts a line,
+     * and runs past the end to finish its last line.
+     */
+    private byte[] enrichChunk(FileChannel channel, long start, long end, long length) throws IOException {
+        long from = Math.max(0, start - 1);
+        long to = Math.min(length, end + MAX_LINE_LENGTH);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        int limit = (int) (end - from), position = start == 0 ? 0 : 1;
+
+        // Skip the tail of a line owned by the previous chunk
+        if(start > 0 && buffer.get(0) != '\n')
+            while(position < buffer.limit() && buffer.get(position - 1) != '\n')
+                position++;
+
+        // Find the lines and the first address on each
+        int[] bounds = new int[1024];
+        int[] addresses = new int[512];
+        boolean[] found = new boolean[512];
+        int count = 0;
+        while(position < limit) {
+            int lineEnd = position;
+            while(lineEnd < buffer.limit() && buffer.get(lineEnd) != '\n')
+                lineEnd++;
+            if(lineEnd - position > MAX_LINE_LENGTH)
+                throw new IOException("Line too long at offset " + (from + position));
+            if(count == addresses.length) {
+                bounds = Arrays.copyOf(bounds, 4 * count);
+                addresses = Arrays.copyOf(addresses, 2 * count);
+                found = Arrays.copyOf(found, 2 * count);
+            }
+            long address = findIPv4(buffer, position, lineEnd);
+            found[count] = address >= 0;
+            addresses[count] = (int) address;
+            bounds[2 * count] = position;
+            bounds[2 * count + 1] = lineEnd;
+            count++;
+            position = lineEnd + 1;
+        }
+
+        short[] countries = resolve(addresses, found, count);
+
+        // Copy each line with its country appended
+        byte[] output = new byte[(int) Math.min(Integer.MAX_VALUE - 8, (limit - 1) + 32L * count)];
+        int size = 0;
+        for(int i = 0; i < count; i++) {
+            int lineStart = bounds[2 * i], lineEnd = bounds[2 * i + 1];
+            if(lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r')
+                lineEnd--;
+            byte[] name = countries[i] > 0 ? names[countries[i]] : NONE;
+            int needed = lineEnd - lineStart + name.length + 2;
+            if(size + needed > output.length)
+                output = Arrays.copyOf(output, Math.max(2 * output.length, size + needed));
+            for(int j = lineStart; j < lineEnd; j++)
+                output[size++] = buffer.get(j);
+            output[size++] = '\t';
+            System.arraycopy(name, 0, output, size, name.length);
+            size += name.length;
+            output[size++] = '\n';
+        }
+        lines.addAndGet(count);
+        return Arrays.copyOf(output, size);
+    }
+
+    /*
+     * Resolves the addresses of a chunk to country ids, 0 for none. Cache
+     * misses are sorted and looked up together.
+     */
+    private short[] resolve(int[] addresses, boolean[] found, int count) {
+        Cache cache = caches.get();
+        short[] countries = new short[count];
+        long[] misses = new long[count];
+        int missed = 0, looked = 0;
+
+        for(int i = 0; i < count; i++) {
+            if(!found[i])
+                continue;
+            looked++;
+            int slot = cache.slot(addresses[i]);
+            if(cache.valid[slot] && cache.addresses[slot] == addresses[i])
+                countries[i] = cache.countries[slot];
+            else
+                // Sort by unsigned address, keeping the line number in the low bits
+                misses[missed++] = ((addresses[i] & 0xFFFFFFFFL) << 31) | i;
+        }
+        Arrays.sort(misses, 0, missed);
+
+        for(int k = 0; k < missed; k++) {
+            int i = (int) (misses[k] & 0x7FFFFFFF);
+            if(k > 0 && (misses[k] >>> 31) == (misses[k - 1] >>> 31))
+                countries[i] = countries[(int) (misses[k - 1] & 0x7FFFFFFF)];
+            else {
+                IPAddress block = index.floor(addresses[i]);
+                countries[i] = block == null ? 0 : block.getCountryId();
+            }
+            int slot = cache.slot(addresses[i]);
+            cache.addresses[slot] = addresses[i];
+            cache.countries[slot] = countries[i];
+            cache.valid[slot] = true;
+        }
+        lookups.addAndGet(looked);
+        hits.addAndGet(looked - missed);
+        return countries;
+    }
+
+    /*
+     * Returns the first dotted IPv4 address in a line, packed into the low
+     * 32 bits, or -1. Four groups of one to three digits, each at most 255,
+     * separated by dots and not part of a longer run of digits and dots.
+     */
+    static long findIPv4(MappedByteBuffer buffer, int from, int to) {
+        for(int i = from; i < to; i++) {
+            if(!isDigit(buffer.get(i)) || (i > from && isPart(buffer.get(i - 1))))
+                continue;
+            long value = 0;
+            int j = i, groups = 0;
+            while(groups < 4) {
+                int octet = 0, digits = 0;
+                while(j < to && isDigit(buffer.get(j)) && digits < 4) {
+                    octet = octet * 10 + buffer.get(j++) - '0';
+                    digits++;
+                }
+                if(digits == 0 || digits > 3 || octet > 255)
+                    break;
+                value = (value << 8) | octet;
+                if(++groups < 4) {
+                    if(j >= to || buffer.get(j) != '.')
+                        break;
+                    j++;
+                }
+            }
+            // A dot may end the sentence, but not start another group
+            if(groups == 4 && (j == to || !isDigit(buffer.get(j))) &&
+                    (j + 1 >= to || buffer.get(j) != '.' || !isDigit(buffer.get(j + 1))))
+                return value;
+            // Skip the rest of this run so its digits are not tried again
+            while(i + 1 < to && isPart(buffer.get(i + 1)))
+                i++;
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean isPart(byte b) {
+        return isDigit(b) || b == '.';
+    }
+
+    // Direct-mapped cache from an address to its country id
+    private static class Cache {
+        private final int[] addresses = new int[CACHE_SIZE];
+        private final short[] countries = new short[CACHE_SIZE];
+        private final boolean[] valid = new boolean[CACHE_SIZE];
+
+        public int slot(int address) {
+            return (address * 0x9E3779B9) >>> (32 - CACHE_BITS);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package searchtrees;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import data.IPAddress;
+import data.TableLoader;
+import data_structures.*;
+
+/**
+ * Measures the heap retained per entry of the ip2country table, for the
+ * compact IPAddress layout against the earlier layout that kept the address
+ * string, a country reference and two doubles, and for the trees holding
+ * the entries. Retained size is the growth of the used heap after a full
+ * collection while the structure is still referenced.
+ *
+ * For IPv4 tables it also runs churn at a steady size, deleting a random
+ * entry and adding it back, and prints the bytes each tree allocates per
+ * delete and add, as counted by the JVM for the running thread. The
+ * pooled trees reuse their freed nodes, so they should allocate nothing.
+ *
+ * Usage: Footprint [table]
+ */
+public class Footprint {
+
+    private static Object sink;
+
+    public static void main(String[] args) throws IOException {
+        final IPAddress[] table = TableLoader.load(new File(args.length > 0 ? args[0] : "ip2country.tsv"));
+        final int n = table.length;
+
+        System.out.println("Structure                  bytes/entry");
+        measure("Earlier IPAddress layout", n, new Builder() {
+            Object build() {
+                LegacyEntry[] entries = new LegacyEntry[n];
+                for(int i = 0; i < n; i++)
+                    entries[i] = new LegacyEntry(table[i]);
+                return entries;
+            }
+        });
+        measure("Compact IPAddress", n, new Builder() {
+            Object build() {
+                IPAddress[] entries = new IPAddress[n];
+                for(int i = 0; i < n; i++)
+                    entries[i] = new IPAddress(table[i].getHigh(), table[i].getLow(),
+                            table[i].getCountry(), table[i].getLatitude(), table[i].getLongitude());
+                return entries;
+            }
+        });
+        measure("AVLTree nodes", n, new Builder() {
+            Object build() {
+                AVLTree<IPAddress> avl = new AVLTree<>();
+                avl.bulkLoad(table);
+                return avl;
+            }
+        });
+        measure("SplayTree nodes", n, new Builder() {
+            Object build() {
+                SplayTree<IPAddress, String> splay = new SplayTree<>();
+                splay.bulkLoad(table, null);
+                return splay;
+            }
+        });
+        measure("BPlusTree nodes", n, new Builder() {
+            Object build() {
+                BPlusTree<IPAddress> bplus = new BPlusTree<>();
+                bplus.bulkLoad(table);
+                return bplus;
+            }
+        });
+
+        // The pooled trees are keyed by 32-bit values
+        for(IPAddress entry : table)
+            if(!entry.isIPv4())
+                return;
+        measure("PooledAVLTree arena", n, new Builder() {
+            Object build() {
+                PooledAVLTree<IPAddress> pooled = new PooledAVLTree<>();
+                for(IPAddress entry : table)
+                    pooled.add(entry);
+                return pooled;
+            }
+        });
+        measure("PooledSplayTree arena", n, new Builder() {
+            Object build() {
+                PooledSplayTree<IPAddress> pooled = new PooledSplayTree<>();
+                for(IPAddress entry : table)
+                    pooled.add(entry);
+                return pooled;
+            }
+        });
+
+        AVLTree<IPAddress> avl = new AVLTree<>();
+        avl.bulkLoad(table);
+        SplayTree<IPAddress, String> splay = new SplayTree<>();
+        splay.bulkLoad(table, null);
+        PooledAVLTree<IPAddress> pooledAVL = new PooledAVLTree<>();
+        PooledSplayTree<IPAddress> pooledSplay = new PooledSplayTree<>();
+        for(IPAddress entry : table) {
+            pooledAVL.add(entry);
+            pooledSplay.add(entry);
+        }
+
+        System.out.println();
+        System.out.println("Churn                 bytes/delete+add");
+        churn("AVLTree", avl, table);
+        churn("SplayTree", splay, table);
+        churn("PooledAVLTree", pooledAVL, table);
+        churn("PooledSplayTree", pooledSplay, table);
+    }
+
+    /* Deletes a random entry and adds it back, first untimed so the JIT
+     * settles, then counting the bytes the thread allocates.
+     */
+    private static void churn(String name, OrderedIndex<IPAddress> index, IPAddress[] table) {
+        final int rounds = 1000000;
+        Random random = new Random(42);
+        for(int i = 0; i < rounds; i++) {
+            IPAddress entry = table[random.nextInt(table.length)];
+            index.delete(entry);
+            index.add(entry);
+        }
+
+        long before = allocatedBytes();
+        for(int i = 0; i < rounds; i++) {
+            IPAddress entry = table[random.nextInt(table.length)];
+            index.delete(entry);
+            index.add(entry);
+        }
+        long after = allocatedBytes();
+
+        System.out.printf("%-26s %8.1f%n", name, (double) (after - before) / rounds);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // Prints the heap retained by a structure divided by its entries
+    private static void measure(String name, int entries, Builder builder) {
+        long before = usedHeap();
+        sink = builder.build();
+        long after = usedHeap();
+        sink = null;
+
+        System.out.printf("%-26s %8.1f%n", name, (double) (after - before) / entries);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 4; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static abstract class Builder {
+        abstract Object build();
+    }
+
+    // Layout of an entry before it was made compact, with its own address string
+    private static class LegacyEntry {
+        private final String ip_address;
+        private final String country;
+        private final double latitude;
+        private final double longitude;
+        private final long high;
+        private final long low;
+
+        public LegacyEntry(IPAddress entry) {
+            this.ip_address = entry.getAddress();
+            this.country = entry.getCountry();
+            this.latitude = entry.getLatitude();
+            this.longitude = entry.getLongitude();
+            this.high = entry.getHigh();
+            this.low = entry.getLow();
+        }
+    }
+}
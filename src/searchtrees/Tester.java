@@ -2,112 +2,260 @@
 package searchtrees;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import static java.lang.Double.parseDouble;
-import java.util.Scanner;
-import java.util.StringTokenizer;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Random;
+import data.CountryIndex;
 import data.IPAddress;
+import data.Snapshot;
+import data.TableLoader;
 import data_structures.*;
 
 public class Tester {
   
-    public static void main(String[] args) throws FileNotFoundException {
+    public static void main(String[] args) throws IOException, InterruptedException {
         SplayTree<IPAddress, String> splay = new SplayTree<>();
         AVLTree<IPAddress> avl = new AVLTree<>();
+        BPlusTree<IPAddress> bplus = new BPlusTree<>();
+        boolean v4Only = true;
 
-        String[] array = new String[10000];
-        String stream = "", ip = "", country = "";
-        double latitude = 0.0, longitude = 0.0;
-        int ticker = 0, index = 0;
-
-        File input = new File("ip2country.tsv");
-        Scanner in = new Scanner(input);
-        StringTokenizer line;	
-
-        stream = in.nextLine(); // Remove first line
-
-        // Read lines until the end of the file
-        while(in.hasNextLine()) {
-
-            stream = in.nextLine();
-
-            line = new StringTokenizer(stream);
-            ip = line.nextToken();
-            country = line.nextToken();
+        // Parse the table in parallel and bulk build the trees from the 
+        // sorted entries
+        long start = System.currentTimeMillis();
+        IPAddress[] table = TableLoader.load(new File("ip2country.tsv"));
+        long parsed = System.currentTimeMillis();
+        
+        avl.bulkLoad(table);
+        splay.bulkLoad(table, null);
+        
+        // B+ tree is keyed by 32-bit values, so it only holds IPv4 tables
+        for(IPAddress address : table)
+            v4Only &= address.isIPv4();
+        if(v4Only)
+            bplus.bulkLoad(table);
+        long stop = System.currentTimeMillis();
+        
+        System.out.println("Loaded " + table.length + " entries: " + (parsed - start) + 
+                " ms to parse, " + (stop - parsed) + " ms to build the trees");
 
-            // Handle country names consisting of more than one word
-            if(line.countTokens() > 2) {
-                int count = line.countTokens() - 2;
-                for(int j = 0; j < count; j++)
-                    country = country + " " + line.nextToken();
-            }
+        // Save the trees to a binary snapshot and rebuild them from it
+        File snapshot = File.createTempFile("ip2country", ".snapshot");
+        snapshot.deleteOnExit();
+        Snapshot.write(snapshot, avl);
+        start = System.currentTimeMillis();
+        IPAddress[] restored = Snapshot.read(snapshot);
+        avl = new AVLTree<>();
+        avl.bulkLoad(restored);
+        splay = new SplayTree<>();
+        splay.bulkLoad(restored, null);
+        stop = System.currentTimeMillis();
 
-            // Read in floating point values
-            latitude = parseDouble(line.nextToken());
-            longitude = parseDouble(line.nextToken());
+        System.out.println("Snapshot is " + snapshot.length() + " bytes against " +
+                new File("ip2country.tsv").length() + " for the table, reloaded in " +
+                (stop - start) + " ms");
+        if(!sameKeys(table, restored))
+            System.out.println("Error in snapshot round trip");
 
-            // Choose 10000 IP addresses for later lookup
-            if(ticker % 3 == 0) {
-                if(index < 10000)
-                    array[index++] = ip;
+        // Index the same entries by location and look up blocks near a point
+        start = System.currentTimeMillis();
+        KDTree<IPAddress> geo = new KDTree<>(table);
+        stop = System.currentTimeMillis();
+        LinkedList<IPAddress> near = geo.within(48.86, 2.35, 500);
+        IPAddress closest = geo.nearest(48.86, 2.35, 1).peekFirst();
+        
+        System.out.println("Built k-d tree in " + (stop - start) + " ms: " + near.size() + 
+                " blocks within 500 km of Paris, nearest in " + closest.getCountry());
+        
+        // Coalesce the blocks of each country into ranges
+        if(v4Only) {
+            start = System.currentTimeMillis();
+            CountryIndex countries = new CountryIndex(avl);
+            stop = System.currentTimeMillis();
+            System.out.println("Built country index in " + (stop - start) + " ms: " +
+                    countries.rangeCount() + " ranges, Canada has " + 
+                    countries.ranges("Canada").length / 2 + " ranges in " + 
+                    countries.cidrs("Canada").size() + " CIDR blocks");
+            
+            // Look up packed addresses by their bare key, with no probe objects
+            FlatIndex<IPAddress> flat = new FlatIndex<>(table);
+            Random random = new Random(42);
+            start = System.currentTimeMillis();
+            for(int i = 0; i < 200000; i++) {
+                int address = random.nextInt();
+                IPAddress one = avl.floor(address), two = bplus.floor(address);
+                if(one == null ? two != null : two == null || one.compareTo(two) != 0 ||
+                        flat.floor(address) != two)
+                    System.out.println("Error in primitive key lookup of " + address);
             }
-            ticker++;
-
-            splay.add(new IPAddress(ip, country, latitude, longitude), ip);
-            avl.add(new IPAddress(ip, country, latitude, longitude));
-        } // End of addition operations
+            stop = System.currentTimeMillis();
+            System.out.println("Matched 200000 primitive key lookups on the AVL and B+ trees " +
+                    "and the flat index in " + (stop - start) + " ms");
+            
+            // Count the hottest blocks of skewed lookups from several threads
+            heavyHitters(bplus, table);
+        }
+        
+        // Run skewed lookups through a small hot tier in front of the table
+        tiered(PersistentAVLTree.of(table), table);
+        
+        // Check addresses against a block list that rarely holds them
+        blockList(table);
         
         // Run tests on search operations
-        test(array, avl, splay); 
+        test(table, avl, splay, v4Only ? bplus : null); 
     }
     
-    /* Function does search operations on an AVL and Splay tree.
-     * String array contains 10000 ip addresses to be used for search operations.
+    /* Sends lookups where 9 in 10 go to 500 popular addresses through a
+     * tiered index with room for 1024 blocks, and prints the hit rate of
+     * each tier.
      */
-    public static void test(String[] array, AVLTree<IPAddress> avl, 
-            SplayTree<IPAddress, String> splay) {
+    public static void tiered(PersistentAVLTree<IPAddress> full, IPAddress[] table) {
+        TieredIndex<IPAddress> tiered = new TieredIndex<>(full, 1024);
+        Random random = new Random(42);
         
-        IPAddress tmp = null;
-        boolean error = false;
-        //Test splay tree
-        long start = System.currentTimeMillis();            
-        for(int i=0; i < 10000; i++)
-            tmp = splay.get(new IPAddress(array[i], null, 0, 0));
+        long start = System.currentTimeMillis();
+        for(int i = 0; i < 200000; i++) {
+            // Popular addresses are spread over the table
+            int pick = random.nextInt(10) < 9 ? random.nextInt(500) * (table.length / 500) :
+                    random.nextInt(table.length);
+            if(tiered.floor(table[pick]) != full.floor(table[pick]))
+                System.out.println("Error in tiered lookup of " + table[pick].getAddress());
+        }
         long stop = System.currentTimeMillis();
-
-        System.out.println("Time for Splay tree search operation with 10000 elements: " +
-        		(stop-start));
         
-        //Test avl tree search operations
-        start = System.currentTimeMillis();            
-        for(int i=0; i < 10000; i++)
-            tmp = avl.get(new IPAddress(array[i], null, 0, 0));
-        stop = System.currentTimeMillis();
-
-        System.out.println("\nTime for AVL tree search operation with 10000 elements: " +
-        		(stop-start));
+        System.out.printf("Tiered index: %.1f%% of lookups from the hot tier, %.1f%% found " +
+                "in the full index, %d ms for 200000 lookups%n", 100 * tiered.hotHitRate(),
+                100 * tiered.fullHitRate(), stop - start);
+    }
+    
+    /* Checks 200000 random addresses against a block list of 5000 table
+     * entries held in a splay tree, with and without a Bloom filter with a
+     * 1% false positive rate in front of it.
+     */
+    public static void blockList(IPAddress[] table) {
+        Random random = new Random(42);
+        SplayTree<IPAddress, String> blocked = new SplayTree<>();
+        for(int i = 0; i < 5000; i++)
+            blocked.add(table[random.nextInt(table.length)], null);
+        FilteredIndex<IPAddress> filtered = new FilteredIndex<>(blocked, 0.01);
         
-        System.out.println("\nNow testing delete operations....");
+        IPAddress[] queries = new IPAddress[200000];
+        for(int i = 0; i < queries.length; i++)
+            queries[i] = random.nextInt(100) == 0 ? table[random.nextInt(table.length)] : 
+                    new IPAddress(0, 0x0000FFFF00000000L | (random.nextInt() & 0xFFFFFFFFL), null, 0, 0);
         
-        // Test delete operation is the splay tree
-        for(IPAddress e : splay)
-            splay.remove(e);
-        if(splay.size() != 0) {
-            System.out.println("Error in Splay tree delete operation");
-            error = true;
-        }
+        int hits = 0;
+        long start = System.nanoTime();
+        for(IPAddress query : queries)
+            if(blocked.contains(query))
+                hits++;
+        long plain = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        for(IPAddress query : queries)
+            if(filtered.contains(query))
+                hits--;
+        long filter = System.nanoTime() - start;
+        
+        if(hits != 0)
+            System.out.println("Error in filtered block list lookups");
+        System.out.printf("Block list: %.1f ms for 200000 checks on the splay tree, %.1f ms with " +
+                "a %d KB Bloom filter, %.2f%% false positives%n", plain / 1e6, filter / 1e6,
+                filtered.filterBits() / 8192, 100 * filtered.falsePositiveRate());
+    }
+    
+    /* Sends Zipf-distributed lookups from four threads through a counting
+     * decorator on the B+ tree, and compares the five hottest blocks it
+     * reports with exact counts taken from the traces.
+     */
+    public static void heavyHitters(BPlusTree<IPAddress> bplus, IPAddress[] table)
+            throws InterruptedException {
+        CountingIndex<IPAddress> counting = new CountingIndex<>(bplus, 256);
+        Workload.Trace[] traces = Workload.generate(table, 4, "operations=400000",
+                "reads=100", "adds=0", "deletes=0", "zipf=0.99", "locality=0");
+        Workload.run("counting", counting, traces);
         
-        // Test delete operation is the avl tree
-        for(IPAddress e : avl)
-            avl.delete(e);
-        if(avl.size() != 0) {
-            System.out.println("Error in AVL tree delete operation");
-            error = true;
+        HashMap<Integer, Integer> exact = new HashMap<>();
+        for(Workload.Trace trace : traces)
+            for(int i = 0; i < trace.size; i++) {
+                IPAddress block = trace.ops[i] == Workload.GET ? bplus.get(trace.keys[i]) :
+                        bplus.floor(trace.keys[i]);
+                if(block != null) {
+                    Integer count = exact.get(block.intKey());
+                    exact.put(block.intKey(), count == null ? 1 : count + 1);
+                }
+            }
+        
+        System.out.print("Hottest blocks of " + counting.blocks().total() + " lookups:");
+        for(int key : counting.blocks().top(5)) {
+            IPAddress block = bplus.get(key);
+            System.out.print(" " + block.getAddress() + " (" + block.getCountry() + ") " +
+                    counting.blocks().estimate(key) + "/" + exact.get(key));
+            if(counting.blocks().estimate(key) < exact.get(key))
+                System.out.println("Error in heavy hitter count of " + block.getAddress());
         }
+        System.out.println();
+    }
+    
+    /* Runs uniform exact and range lookups on an AVL, Splay and B+ tree with
+     * the workload driver, then deletes every element. The B+ tree is null 
+     * when the table holds IPv6 addresses.
+     */
+    public static void test(IPAddress[] table, AVLTree<IPAddress> avl, 
+            SplayTree<IPAddress, String> splay, BPlusTree<IPAddress> bplus) 
+            throws InterruptedException {
+        
+        boolean error = false;
+        Workload.Trace[] reads = Workload.generate(table, 1, "operations=20000", 
+                "reads=100", "adds=0", "deletes=0", "floors=50", "zipf=0", "locality=0");
+        
+        System.out.println();
+        Workload.printHeader();
+        Workload.print(Workload.run("splay", splay, reads));
+        Workload.print(Workload.run("avl", avl, reads));
+        if(bplus != null)
+            Workload.print(Workload.run("bplus", bplus, reads));
+        
+        System.out.println("\nNow testing delete operations....");
+        
+        error |= !deleteAll("Splay tree", splay);
+        error |= !deleteAll("AVL tree", avl);
+        if(bplus != null)
+            error |= !deleteAll("B+ tree", bplus);
         
         if(error)
             System.out.println("\nTesting complete.");
         else
             System.out.println("\nTesting complete. No errors found.");
     }
+    
+    /* Checks that a snapshot restored every address, country and coordinate.
+     */
+    public static boolean sameKeys(IPAddress[] table, IPAddress[] restored) {
+        if(table.length != restored.length)
+            return false;
+        for(int i = 0; i < table.length; i++)
+            if(!table[i].equals(restored[i]) || table[i].getCountryId() != restored[i].getCountryId() ||
+                    table[i].getLatitude() != restored[i].getLatitude() ||
+                    table[i].getLongitude() != restored[i].getLongitude())
+                return false;
+        return true;
+    }
+
+    /* Deletes every element of a backend. Elements are collected first, since
+     * not every backend's iterator survives deletes.
+     */
+    public static boolean deleteAll(String name, OrderedIndex<IPAddress> index) {
+        LinkedList<IPAddress> elements = new LinkedList<>();
+        
+        for(IPAddress e : index)
+            elements.addLast(e);
+        for(IPAddress e : elements)
+            index.delete(e);
+        if(index.size() != 0) {
+            System.out.println("Error in " + name + " delete operation");
+            return false;
+        }
+        return true;
+    }
 }
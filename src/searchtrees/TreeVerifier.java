@@ -0,0 +1,1194 @@
+package searchtrees;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import data.CountryIndex;
+import data.IPAddress;
+import data_structures.*;
+
+/**
+ * Randomized stress test for the search trees. Runs long sequences of
+ * mixed operations against a tree and a java.util.TreeMap model, checking
+ * every result against the model and the tree invariants along the way.
+ * The AVL, splay and B+ trees are then run through many short sequences
+ * with sorted, reversed and clustered keys as well as random ones, with
+ * the invariants checked after every single operation. A failing sequence
+ * reports its seed, which replays it on its own.
+ *
+ * Usage: TreeVerifier [operations] [seed]
+ */
+public class TreeVerifier {
+
+    private static final int KEY_RANGE = 2048;
+    private static final int CHECK_INTERVAL = 64;
+    // Length and key range of the sequences checked after every operation
+    private static final int STRICT_OPERATIONS = 2000;
+    private static final int STRICT_RANGE = 256;
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+
+        System.out.println("Running " + operations + " operations with seed " + seed);
+        verifyAVL(operations, new Random(seed));
+        System.out.println("AVL tree: no errors found.");
+        verifySplay(operations, new Random(seed));
+        System.out.println("Splay tree: no errors found.");
+        verifyBPlus(operations, new Random(seed));
+        System.out.println("B+ tree: no errors found.");
+        verifyMap(operations, new Random(seed));
+        System.out.println("AVL map: no errors found.");
+        verifyPooled(operations, new Random(seed));
+        System.out.println("Pooled AVL and splay trees: no errors found.");
+        verifyExpiring(operations, new Random(seed));
+        System.out.println("Expiring tree: no errors found.");
+        verifyHeavyHitters(operations, new Random(seed));
+        System.out.println("Heavy hitters: no errors found.");
+        verifyFiltered(operations, new Random(seed));
+        System.out.println("Filtered index: no errors found.");
+        verifyFlat(operations, new Random(seed));
+        System.out.println("Flat index: no errors found.");
+        verifyQueues(operations, new Random(seed));
+        System.out.println("Concurrent queues: no errors found.");
+        verifyLinkedList(operations / 4, new Random(seed));
+        System.out.println("Linked list: no errors found.");
+        verifyEveryOperation(Math.max(20, operations / 10000), new Random(seed));
+        System.out.println("Every-operation invariant checks: no errors found.");
+        verifySetOperations(Math.max(20, operations / 20000), new Random(seed));
+        System.out.println("AVL set operations: no errors found.");
+        verifyPersistent(operations, new Random(seed));
+        System.out.println("Persistent AVL tree: no errors found.");
+        verifyKDTree(Math.max(20, operations / 20000), new Random(seed));
+        System.out.println("k-d tree: no errors found.");
+        verifyCountryIndex(operations / 10, new Random(seed));
+        System.out.println("Country index: no errors found.");
+        verifyTiered(operations, new Random(seed));
+        System.out.println("Tiered index: no errors found.");
+    }
+
+    /* Runs random add, delete, get and floor operations on an AVL tree.
+     * The tree allows duplicates, so the model keeps a count per key.
+     */
+    public static void verifyAVL(int operations, Random random) {
+        verifyAVL(operations, new Keys(KEY_RANGE, Keys.UNIFORM), CHECK_INTERVAL, random);
+    }
+
+    private static void verifyAVL(int operations, Keys keys, int interval, Random random) {
+        AVLTree<Integer> avl = new AVLTree<>();
+        TreeMap<Integer, Integer> model = new TreeMap<>();
+
+        for(int i = 0; i < operations; i++) {
+            Integer key = keys.next(random);
+            int op = random.nextInt(10);
+
+            if(op < 3) {
+                avl.add(key);
+                Integer count = model.get(key);
+                model.put(key, count == null ? 1 : count + 1);
+            }
+            else if(op < 6) {
+                Integer removed = avl.delete(key);
+                Integer count = model.get(key);
+                check(equal(removed, count == null ? null : key), "delete", key, i);
+                if(count != null) {
+                    if(count == 1)
+                        model.remove(key);
+                    else
+                        model.put(key, count - 1);
+                }
+            }
+            else if(op < 9)
+                check(equal(avl.get(key), model.containsKey(key) ? key : null),
+                        "get", key, i);
+            else
+                check(equal(avl.floor(key), model.floorKey(key)), "floor", key, i);
+
+            if(i % interval == 0 || avl.size() < CHECK_INTERVAL) {
+                avl.checkInvariants();
+                check(avl.size() == total(model), "size", key, i);
+                checkOrderStatistics(avl, model, key, keys.range, i);
+            }
+        }
+        avl.checkInvariants();
+
+        // Drain the tree completely
+        for(Map.Entry<Integer, Integer> e : model.entrySet())
+            for(int j = 0; j < e.getValue(); j++)
+                check(e.getKey().equals(avl.delete(e.getKey())), "drain", e.getKey(), j);
+        check(avl.isEmpty(), "drain", null, operations);
+        avl.checkInvariants();
+    }
+
+    /* Runs random add, remove, get, getValue, floor and floorValue
+     * operations on a splay tree. Adding an existing key overrides its value.
+     */
+    public static void verifySplay(int operations, Random random) {
+        verifySplay(operations, new Keys(KEY_RANGE, Keys.UNIFORM), CHECK_INTERVAL, random);
+    }
+
+    private static void verifySplay(int operations, Keys keys, int interval, Random random) {
+        SplayTree<Integer, Integer> splay = new SplayTree<>();
+        TreeMap<Integer, Integer> model = new TreeMap<>();
+
+        for(int i = 0; i < operations; i++) {
+            Integer key = keys.next(random);
+            int op = random.nextInt(10);
+
+            if(op < 3) {
+                splay.add(key, i);
+                model.put(key, i);
+            }
+            else if(op < 6)
+                check(equal(splay.remove(key), model.remove(key) == null ? null : key),
+                        "remove", key, i);
+            else if(op < 7)
+                check(equal(splay.get(key), model.containsKey(key) ? key : null),
+                        "get", key, i);
+            else if(op < 9)
+                check(equal(splay.getValue(key), model.get(key)), "getValue", key, i);
+            else if(random.nextBoolean())
+                check(equal(splay.floor(key), model.floorKey(key)), "floor", key, i);
+            else
+                check(equal(splay.floorValue(key), model.floorEntry(key) == null ? null :
+                        model.floorEntry(key).getValue()), "floorValue", key, i);
+
+            check(splay.size() == model.size(), "size", key, i);
+            if(i % interval == 0)
+                splay.checkInvariants();
+        }
+        splay.checkInvariants();
+
+        // In-order iteration must match the model
+        int index = 0;
+        Integer[] expected = model.keySet().toArray(new Integer[0]);
+        for(Integer key : splay)
+            check(key.equals(expected[index++]), "iterator", key, index);
+        check(index == expected.length, "iterator", null, index);
+    }
+
+    /* Bulk loads a B+ tree and then runs random add, delete, get, floor and
+     * range operations on it. Keys are spread over the whole unsigned range,
+     * and the model orders them as unsigned values.
+     */
+    public static void verifyBPlus(int operations, Random random) {
+        verifyBPlus(operations, new Keys(KEY_RANGE, Keys.UNIFORM), CHECK_INTERVAL, random);
+    }
+
+    private static void verifyBPlus(int operations, Keys keys, int interval, Random random) {
+        BPlusTree<Key> tree = new BPlusTree<>();
+        TreeMap<Long, Key> model = new TreeMap<>();
+
+        ArrayList<Key> sorted = new ArrayList<>();
+        for(int k = 0; k < keys.range; k += 1 + random.nextInt(4)) {
+            Key key = new Key(keys.spread(k));
+            sorted.add(key);
+            model.put(key.unsigned(), key);
+        }
+        tree.bulkLoad(sorted.toArray(new Key[0]));
+        tree.checkInvariants();
+
+        for(int i = 0; i < operations; i++) {
+            Key key = new Key(keys.spread(keys.next(random)));
+            int op = random.nextInt(10);
+
+            if(op < 3) {
+                tree.add(key);
+                model.put(key.unsigned(), key);
+            }
+            else if(op < 6)
+                check(tree.delete(key) == model.remove(key.unsigned()), "delete", key.value, i);
+            else if(op < 8)
+                check(tree.get(key) == model.get(key.unsigned()), "get", key.value, i);
+            else if(op < 9) {
+                Map.Entry<Long, Key> floor = model.floorEntry(key.unsigned());
+                check(tree.floor(key) == (floor == null ? null : floor.getValue()),
+                        "floor", key.value, i);
+            }
+            else {
+                Key hi = new Key(key.value + (1 << 26));
+                Iterator<Key> range = tree.range(key.value, hi.value);
+                if(key.unsigned() < hi.unsigned())
+                    for(Key expected : model.subMap(key.unsigned(), hi.unsigned()).values())
+                        check(range.hasNext() && range.next() == expected, "range", key.value, i);
+                check(!range.hasNext(), "range", key.value, i);
+            }
+
+            check(tree.size() == model.size(), "size", key.value, i);
+            if(i % interval == 0)
+                tree.checkInvariants();
+        }
+        tree.checkInvariants();
+
+        Iterator<Key> all = tree.iterator();
+        for(Key expected : model.values())
+            check(all.next() == expected, "iterator", expected.value, operations);
+        check(!all.hasNext(), "iterator", null, operations);
+    }
+
+    /* Runs random add, delete, get and floor operations on the pooled AVL
+     * and splay trees side by side, so nodes are constantly freed and
+     * reused. Every few operations the trees are emptied and refilled from
+     * the free lists.
+     */
+    public static void verifyPooled(int operations, Random random) {
+        verifyPooled(operations, new Keys(KEY_RANGE, Keys.UNIFORM), CHECK_INTERVAL, random);
+    }
+
+    private static void verifyPooled(int operations, Keys keys, int interval, Random random) {
+        PooledAVLTree<Key> avl = new PooledAVLTree<>();
+        PooledSplayTree<Key> splay = new PooledSplayTree<>();
+        TreeMap<Long, Key> model = new TreeMap<>();
+
+        for(int i = 0; i < operations; i++) {
+            Key key = new Key(keys.spread(keys.next(random)));
+            int op = random.nextInt(10);
+
+            if(op < 3) {
+                avl.add(key);
+                splay.add(key);
+                model.put(key.unsigned(), key);
+            }
+            else if(op < 6) {
+                Key removed = model.remove(key.unsigned());
+                check(avl.delete(key) == removed, "delete", key.value, i);
+                check(splay.delete(key) == removed, "delete", key.value, i);
+            }
+            else if(op < 8) {
+                check(avl.get(key) == model.get(key.unsigned()), "get", key.value, i);
+                check(splay.get(key) == model.get(key.unsigned()), "get", key.value, i);
+            }
+            else {
+                Map.Entry<Long, Key> floor = model.floorEntry(key.unsigned());
+                Key expected = floor == null ? null : floor.getValue();
+                check(avl.floor(key) == expected, "floor", key.value, i);
+                check(splay.floor(key) == expected, "floor", key.value, i);
+            }
+
+            check(avl.size() == model.size() && splay.size() == model.size(), "size", key.value, i);
+            if(i % interval == 0) {
+                avl.checkInvariants();
+                splay.checkInvariants();
+            }
+            if(random.nextInt(operations / 4 + 1) == 0) {
+                avl.clear();
+                splay.clear();
+                model.clear();
+            }
+        }
+        avl.checkInvariants();
+        splay.checkInvariants();
+
+        Iterator<Key> one = avl.iterator(), two = splay.iterator();
+        for(Key expected : model.values())
+            check(one.next() == expected && two.next() == expected, "iterator", expected.value, operations);
+        check(!one.hasNext() && !two.hasNext(), "iterator", null, operations);
+    }
+
+    /* Runs random put, get, floor and remove operations on an expiring
+     * tree whose clock moves forward a little at every step. The model
+     * keeps every entry with its expiry time, and an entry is expected to
+     * be visible exactly while that time is ahead of the clock.
+     */
+    public static void verifyExpiring(int operations, Random random) {
+        final long[] time = { 0 };
+        ExpiringTree<Integer, Integer> tree = new ExpiringTree<>(new ExpiringTree.Clock() {
+            public long now() {
+                return time[0];
+            }
+        });
+        TreeMap<Integer, long[]> model = new TreeMap<>();
+
+        for(int i = 0; i < operations; i++) {
+            Integer key = random.nextInt(KEY_RANGE);
+            int op = random.nextInt(10);
+            time[0] += random.nextInt(3);
+
+            if(op < 3) {
+                long ttl = 1 + random.nextInt(2 * KEY_RANGE);
+                tree.put(key, i, ttl);
+                model.put(key, new long[] { i, time[0] + ttl });
+            }
+            else if(op < 6) {
+                long[] entry = model.get(key);
+                boolean live = entry != null && entry[1] > time[0];
+                check(equal(tree.get(key), live ? (int) entry[0] : null), "get", key, i);
+                check(tree.contains(key) == live, "contains", key, i);
+                check(tree.expiresAt(key) == (live ? entry[1] : -1), "expiresAt", key, i);
+            }
+            else if(op < 8) {
+                Map.Entry<Integer, long[]> floor = model.floorEntry(key);
+                while(floor != null && floor.getValue()[1] <= time[0])
+                    floor = model.lowerEntry(floor.getKey());
+                check(equal(tree.floor(key), floor == null ? null : floor.getKey()), "floor", key, i);
+            }
+            else if(op < 9) {
+                long[] entry = model.remove(key);
+                boolean live = entry != null && entry[1] > time[0];
+                check(equal(tree.remove(key), live ? (int) entry[0] : null), "remove", key, i);
+            }
+            else
+                tree.expire(random.nextInt(8));
+
+            if(i % CHECK_INTERVAL == 0) {
+                tree.checkInvariants();
+                int live = 0;
+                for(long[] entry : model.values())
+                    if(entry[1] > time[0])
+                        live++;
+                check(tree.size() >= live && tree.size() <= model.size(), "size", key, i);
+            }
+        }
+
+        // Once the clock passes every expiry, cleanup empties the tree
+        time[0] += 2 * KEY_RANGE + 1;
+        while(tree.expire(16) > 0)
+            ;
+        check(tree.isEmpty(), "expire", null, operations);
+        tree.checkInvariants();
+    }
+
+    /* Adds a skewed stream of keys from three threads at once, then checks
+     * that no estimate is below the true count, that the total is exact,
+     * and that the ten reported top keys are the ten most frequent, give
+     * or take the error of the sketch.
+     */
+    public static void verifyHeavyHitters(int operations, Random random) {
+        final HeavyHitters tracker = new HeavyHitters(64, 1e-3, 1e-3);
+        final int[] stream = new int[operations];
+        HashMap<Integer, Integer> exact = new HashMap<>();
+
+        // Key i is drawn with probability proportional to 1 / (i + 1)^1.2
+        double[] cdf = new double[KEY_RANGE];
+        double sum = 0;
+        for(int i = 0; i < KEY_RANGE; i++)
+            cdf[i] = sum += Math.pow(i + 1, -1.2);
+        for(int i = 0; i < operations; i++) {
+            int rank = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+            int key = Math.min(KEY_RANGE - 1, rank >= 0 ? rank : -rank - 1) * 0x9E3779B9;
+            stream[i] = key;
+            Integer count = exact.get(key);
+            exact.put(key, count == null ? 1 : count + 1);
+        }
+
+        Thread[] threads = new Thread[3];
+        for(int t = 0; t < threads.length; t++) {
+            final int first = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for(int i = first; i < stream.length; i += 3)
+                        tracker.add(stream[i]);
+                }
+            };
+            threads[t].start();
+        }
+        for(Thread thread : threads)
+            try {
+                thread.join();
+            }
+            catch(InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+
+        check(tracker.total() == operations, "total", null, operations);
+        for(Map.Entry<Integer, Integer> e : exact.entrySet())
+            check(tracker.estimate(e.getKey()) >= e.getValue(), "estimate", e.getKey(), operations);
+
+        ArrayList<Integer> expected = new ArrayList<>(exact.keySet());
+        final HashMap<Integer, Integer> counts = exact;
+        Collections.sort(expected, new Comparator<Integer>() {
+            public int compare(Integer one, Integer two) {
+                return counts.get(two) - counts.get(one);
+            }
+        });
+        int[] top = tracker.top(10);
+        check(top.length == Math.min(10, expected.size()), "top", null, operations);
+        double lowest = counts.get(expected.get(top.length - 1)) - 1e-3 * operations;
+        for(int key : top)
+            check(exact.get(key) >= lowest, "top", key, operations);
+    }
+
+    /* Runs random add, delete and get operations through a Bloom filter
+     * in front of a splay tree, with IPv4 and IPv6 keys. The filter must
+     * never hide a present key, and must let through about as many absent
+     * keys as asked for, across the rebuilds the deletes cause.
+     */
+    public static void verifyFiltered(int operations, Random random) {
+        final double rate = 0.02;
+        FilteredIndex<IPAddress> filtered = new FilteredIndex<>(new SplayTree<IPAddress, String>(), rate);
+        TreeMap<IPAddress, IPAddress> model = new TreeMap<>();
+
+        for(int i = 0; i < operations; i++) {
+            // Keys are drawn from a range 16 times the size of the set
+            long low = random.nextInt(16 * KEY_RANGE);
+            IPAddress key = random.nextBoolean() ? new IPAddress(0, 0x0000FFFF00000000L | low, null, 0, 0) :
+                    new IPAddress(0x20010DB800000000L, low, null, 0, 0);
+            int op = random.nextInt(10);
+
+            if(op < 2) {
+                if(model.size() < KEY_RANGE) {
+                    filtered.add(key);
+                    model.put(key, key);
+                }
+            }
+            else if(op < 4)
+                check(filtered.delete(key) == model.remove(key), "delete", (int) low, i);
+            else
+                check(filtered.get(key) == model.get(key), "get", (int) low, i);
+            check(filtered.size() == model.size(), "size", (int) low, i);
+        }
+
+        check(filtered.rebuilds() > 1 || operations < 100000, "rebuild", null, operations);
+        check(filtered.rejected() < 10000 || filtered.falsePositiveRate() < 2 * rate,
+                "falsePositiveRate", null, operations);
+    }
+
+    /* Builds flat indexes of many sizes, around the block and fan-out
+     * boundaries and up to a few levels, and runs get and floor lookups on
+     * each. The extreme unsigned keys are included half the time, since the
+     * largest one is also the value used to pad the blocks.
+     */
+    public static void verifyFlat(int operations, Random random) {
+        int[] sizes = {0, 1, 15, 16, 17, 272, 288, 289, 4913, 4914, 100000};
+        int lookups = Math.max(1000, operations / (sizes.length + 20));
+
+        for(int round = 0; round < sizes.length + 20; round++) {
+            int size = round < sizes.length ? sizes[round] : random.nextInt(20000);
+            TreeMap<Long, Key> model = new TreeMap<>();
+            if(random.nextBoolean() && size > 1) {
+                model.put(0L, new Key(0));
+                model.put(0xFFFFFFFFL, new Key(-1));
+            }
+            while(model.size() < size) {
+                Key key = new Key(random.nextInt());
+                model.put(key.unsigned(), key);
+            }
+            Key[] sorted = model.values().toArray(new Key[model.size()]);
+            FlatIndex<Key> flat = new FlatIndex<>(sorted);
+            check(flat.size() == model.size(), "size", size, round);
+
+            for(int i = 0; i < lookups; i++) {
+                // Half the lookups are for keys in the index
+                int key = random.nextBoolean() && size > 0 ? sorted[random.nextInt(size)].intKey() :
+                        random.nextInt(8) == 0 ? -random.nextInt(2) : random.nextInt();
+                Map.Entry<Long, Key> floor = model.floorEntry(key & 0xFFFFFFFFL);
+                check(flat.floor(key) == (floor == null ? null : floor.getValue()), "floor", key, i);
+                check(flat.get(key) == model.get(key & 0xFFFFFFFFL), "get", key, i);
+            }
+        }
+    }
+
+    /* Passes numbered elements through the concurrent queues, small enough
+     * to wrap and fill many times over. The SPSC queue must deliver every
+     * element in order, and report a size in range to a third thread. The MPMC queue, with several producers and
+     * consumers, must deliver every element exactly once, and each consumer
+     * must see the elements of any one producer in the order they were sent.
+     */
+    public static void verifyQueues(int operations, Random random) {
+        final SPSCQueue<Integer> spsc = new SPSCQueue<>(1 + random.nextInt(64));
+        final int count = operations;
+        final Thread producer = new Thread() {
+            public void run() {
+                for(int i = 0; i < count; i++)
+                    while(!spsc.enqueue(i))
+                        Thread.yield();
+            }
+        };
+        // A third thread watches the size while elements move
+        final int[] sizes = {Integer.MAX_VALUE, Integer.MIN_VALUE};
+        Thread observer = new Thread() {
+            public void run() {
+                while(producer.isAlive()) {
+                    int size = spsc.size();
+                    sizes[0] = Math.min(sizes[0], size);
+                    sizes[1] = Math.max(sizes[1], size);
+                    Thread.yield();
+                }
+            }
+        };
+        producer.start();
+        observer.start();
+        for(int i = 0; i < count; i++) {
+            Integer element;
+            while((element = spsc.dequeue()) == null)
+                Thread.yield();
+            check(element == i, "dequeue", element, i);
+        }
+        join(producer);
+        join(observer);
+        check(spsc.isEmpty() && spsc.dequeue() == null, "isEmpty", null, count);
+        check(sizes[0] >= 0 && sizes[1] <= spsc.capacity(), "size", sizes[0], count);
+
+        // Elements are producer * perProducer + sequence
+        final MPMCQueue<Integer> mpmc = new MPMCQueue<>(1 + random.nextInt(64));
+        final int producers = 3, consumers = 3, perProducer = Math.max(1, operations / producers);
+        final int total = producers * perProducer;
+        final AtomicInteger received = new AtomicInteger();
+        final int[][] seen = new int[consumers][total];
+        final int[] seenCount = new int[consumers];
+        Thread[] threads = new Thread[producers + consumers];
+
+        for(int t = 0; t < producers; t++) {
+            final int first = t * perProducer;
+            threads[t] = new Thread() {
+                public void run() {
+                    for(int i = first; i < first + perProducer; i++)
+                        while(!mpmc.enqueue(i))
+                            Thread.yield();
+                }
+            };
+        }
+        for(int t = 0; t < consumers; t++) {
+            final int consumer = t;
+            threads[producers + t] = new Thread() {
+                public void run() {
+                    while(received.get() < total) {
+                        Integer element = mpmc.dequeue();
+                        if(element == null)
+                            Thread.yield();
+                        else {
+                            seen[consumer][seenCount[consumer]++] = element;
+                            received.incrementAndGet();
+                        }
+                    }
+                }
+            };
+        }
+        for(Thread thread : threads)
+            thread.start();
+        for(Thread thread : threads)
+            join(thread);
+
+        boolean[] delivered = new boolean[total];
+        for(int c = 0; c < consumers; c++) {
+            int[] last = new int[producers];
+            Arrays.fill(last, -1);
+            for(int i = 0; i < seenCount[c]; i++) {
+                int element = seen[c][i];
+                check(element >= 0 && element < total && !delivered[element], "duplicate", element, i);
+                delivered[element] = true;
+                check(element > last[element / perProducer], "order", element, i);
+                last[element / perProducer] = element;
+            }
+        }
+        check(received.get() == total && mpmc.isEmpty() && mpmc.dequeue() == null,
+                "count", received.get(), total);
+    }
+
+    /* Runs random operations on a linked list and on java.util.LinkedList,
+     * with a cursor stepping through both at once, and drains them into
+     * other lists and into an AVL tree. A cursor must fail fast once the
+     * list is changed around it. The two lists check a stale cursor in a
+     * different order in set, so stale cursors are only stepped with next,
+     * previous, remove and add before being replaced.
+     */
+    public static void verifyLinkedList(int operations, Random random) {
+        LinkedList<Integer> list = new LinkedList<>();
+        java.util.LinkedList<Integer> model = new java.util.LinkedList<>();
+        ListIterator<Integer> cursor = list.listIterator(), modelCursor = model.listIterator();
+        boolean stale = false;
+
+        for(int i = 0; i < operations; i++) {
+            Integer value = random.nextInt(64);
+            int op = random.nextInt(20), size = model.size();
+            // Adds turn into removes once the list is long
+            if(size > 256 && op >= 8 && op < 12)
+                op = 12 + (op & 1);
+
+            if(op < 8) {
+                int step = random.nextInt(stale ? 4 : 8);
+                check(equal(step(cursor, step, value), step(modelCursor, step, value)), "cursor", step, i);
+                if(stale) {
+                    cursor = list.listIterator();
+                    modelCursor = model.listIterator();
+                    stale = false;
+                }
+            }
+            else if(op < 10) {
+                list.addFirst(value);
+                model.addFirst(value);
+            }
+            else if(op < 12) {
+                list.addLast(value);
+                model.addLast(value);
+            }
+            else if(op == 12)
+                check(equal(list.removeFirst(), model.pollFirst()), "removeFirst", null, i);
+            else if(op == 13)
+                check(equal(list.removeLast(), model.pollLast()), "removeLast", null, i);
+            else if(op == 14)
+                check(equal(list.remove(value), model.removeFirstOccurrence(value) ? value : null),
+                        "remove", value, i);
+            else if(op == 15)
+                check(equal(list.removeLastInstance(value), model.removeLastOccurrence(value) ? value : null),
+                        "removeLastInstance", value, i);
+            else if(op == 16) {
+                check(list.contains(value) == model.contains(value), "contains", value, i);
+                check(equal(list.get(value), model.contains(value) ? value : null), "get", value, i);
+            }
+            else if(op == 17) {
+                list.reverse();
+                Collections.reverse(model);
+            }
+            else if(op == 18) {
+                // Drain onto a short list, which then takes the place of this one
+                LinkedList<Integer> other = new LinkedList<>();
+                java.util.LinkedList<Integer> otherModel = new java.util.LinkedList<>();
+                for(int k = random.nextInt(4); k > 0; k--) {
+                    other.addLast(k);
+                    otherModel.addLast(k);
+                }
+                check(list.drainTo(list) == 0, "drainTo", null, i);
+                check(list.drainTo(other) == size && list.isEmpty(), "drainTo", size, i);
+                if(size > 0) {
+                    otherModel.addAll(model);
+                    model.clear();
+                    check(equal(step(cursor, 0, value), step(modelCursor, 0, value)), "cursor", 0, i);
+                }
+                list = other;
+                model = otherModel;
+                cursor = list.listIterator();
+                modelCursor = model.listIterator();
+                stale = false;
+                checkList(list, model, i);
+                continue;
+            }
+            else if(random.nextInt(32) == 0) {
+                AVLTree<Integer> tree = new AVLTree<>();
+                check(list.drainTo(tree) == size && list.isEmpty(), "drainTo", size, i);
+                ArrayList<Integer> sorted = new ArrayList<>(model);
+                Collections.sort(sorted);
+                Iterator<Integer> all = tree.iterator();
+                for(Integer expected : sorted)
+                    check(all.hasNext() && all.next().equals(expected), "drainTo", expected, i);
+                check(!all.hasNext() && tree.size() == size, "drainTo", size, i);
+                // Both lists count a clear as a change, even when empty
+                model.clear();
+                stale = true;
+            }
+            else {
+                check(equal(list.peekFirst(), model.peekFirst()), "peekFirst", null, i);
+                check(equal(list.peekLast(), model.peekLast()), "peekLast", null, i);
+            }
+
+            if(op >= 8 && model.size() != size)
+                stale = true;
+            check(list.size() == model.size() && list.isEmpty() == model.isEmpty(), "size", value, i);
+            if(i % CHECK_INTERVAL == 0)
+                checkList(list, model, i);
+        }
+        checkList(list, model, operations);
+    }
+
+    /* Runs random put, remove, get, floor and ceiling operations on an AVL
+     * map ordered by a reversed comparator, with lookups by bare key, and
+     * int key lookups on an AVL tree of IntKeyed elements.
+     */
+    public static void verifyMap(int operations, Random random) {
+        AVLMap<Integer, Integer> map = new AVLMap<>(Collections.<Integer>reverseOrder());
+        TreeMap<Integer, Integer> model = new TreeMap<>(Collections.<Integer>reverseOrder());
+        AVLTree<Key> tree = new AVLTree<>();
+        TreeMap<Long, Key> keys = new TreeMap<>();
+
+        for(int i = 0; i < operations; i++) {
+            Integer key = random.nextInt(KEY_RANGE);
+            int op = random.nextInt(10);
+
+            if(op < 3) {
+                check(equal(map.put(key, i), model.put(key, i)), "put", key, i);
+                Key element = new Key(key * 0x9E3779B9);
+                if(!keys.containsKey(element.unsigned())) {
+                    tree.add(element);
+                    keys.put(element.unsigned(), element);
+                }
+            }
+            else if(op < 6) {
+                check(equal(map.remove(key), model.remove(key)), "remove", key, i);
+                Key element = keys.remove(new Key(key * 0x9E3779B9).unsigned());
+                if(element != null)
+                    check(tree.delete(element) == element, "delete", key, i);
+            }
+            else if(op < 8) {
+                check(equal(map.get(key), model.get(key)), "get", key, i);
+                check(map.containsKey(key) == model.containsKey(key), "containsKey", key, i);
+                Key element = new Key(key * 0x9E3779B9);
+                check(tree.get(element.value) == keys.get(element.unsigned()), "get", key, i);
+            }
+            else {
+                check(equal(map.floorKey(key), model.floorKey(key)), "floorKey", key, i);
+                check(equal(map.floorValue(key), model.floorEntry(key) == null ? null :
+                        model.floorEntry(key).getValue()), "floorValue", key, i);
+                check(equal(map.ceilingKey(key), model.ceilingKey(key)), "ceilingKey", key, i);
+                Key element = new Key(key * 0x9E3779B9);
+                Map.Entry<Long, Key> floor = keys.floorEntry(element.unsigned());
+                check(tree.floor(element.value) == (floor == null ? null : floor.getValue()),
+                        "floor", key, i);
+            }
+
+            check(map.size() == model.size(), "size", key, i);
+            if(i % CHECK_INTERVAL == 0)
+                map.checkInvariants();
+        }
+        map.checkInvariants();
+
+        Iterator<Integer> all = map.iterator();
+        for(Integer expected : model.keySet())
+            check(all.hasNext() && all.next().equals(expected), "iterator", expected, operations);
+        check(!all.hasNext(), "iterator", null, operations);
+    }
+
+    /* Runs short sequences over a small key range through the AVL, splay,
+     * B+ and pooled trees, checking the invariants after every operation. Each
+     * sequence draws its keys in one of the patterns of Keys and has its
+     * own seed, which a failure reports.
+     */
+    public static void verifyEveryOperation(int sequences, Random random) {
+        for(int s = 0; s < sequences; s++) {
+            long seed = random.nextLong();
+            int pattern = s % Keys.PATTERNS;
+            try {
+                verifyAVL(STRICT_OPERATIONS, new Keys(STRICT_RANGE, pattern), 1, new Random(seed));
+                verifySplay(STRICT_OPERATIONS, new Keys(STRICT_RANGE, pattern), 1, new Random(seed));
+                verifyBPlus(STRICT_OPERATIONS, new Keys(STRICT_RANGE, pattern), 1, new Random(seed));
+                verifyPooled(STRICT_OPERATIONS, new Keys(STRICT_RANGE, pattern), 1, new Random(seed));
+            }
+            catch(RuntimeException e) {
+                throw new IllegalStateException("Sequence " + s + " with key pattern " + pattern +
+                        " and seed " + seed + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /* Runs random updates on a versioned index while holding on to older
+     * snapshots, checking that every snapshot still matches the model taken
+     * when it was current, and that rollback restores earlier versions.
+     */
+    public static void verifyPersistent(int operations, Random random) {
+        final int versions = 8;
+        VersionedIndex<Integer> index = new VersionedIndex<>(versions);
+        TreeMap<Integer, Integer> model = new TreeMap<>();
+        @SuppressWarnings("unchecked")
+        PersistentAVLTree<Integer>[] snapshots = (PersistentAVLTree<Integer>[]) new PersistentAVLTree<?>[versions];
+        @SuppressWarnings("unchecked")
+        TreeMap<Integer, Integer>[] models = (TreeMap<Integer, Integer>[]) new TreeMap<?, ?>[versions];
+
+        // Undo record for each saved version: the key changed and whether
+        // it was present before the change
+        ArrayDeque<Integer> undoKeys = new ArrayDeque<>();
+        ArrayDeque<Boolean> undoPresent = new ArrayDeque<>();
+
+        for(int i = 0; i < operations; i++) {
+            Integer key = random.nextInt(KEY_RANGE);
+            int op = random.nextInt(10);
+            boolean present = model.containsKey(key);
+
+            if(op < 4 || (op < 8 && present)) {
+                if(op < 4) {
+                    index.add(key);
+                    model.put(key, key);
+                }
+                else
+                    check(equal(index.delete(key), model.remove(key)), "delete", key, i);
+                undoKeys.addLast(key);
+                undoPresent.addLast(present);
+                if(undoKeys.size() > versions) {
+                    undoKeys.removeFirst();
+                    undoPresent.removeFirst();
+                }
+            }
+            else if(op < 8)
+                check(index.delete(key) == null, "delete", key, i);
+            else if(op < 9)
+                check(equal(index.floor(key), model.floorKey(key)), "floor", key, i);
+            else {
+                check(index.rollback() == !undoKeys.isEmpty(), "rollback", key, i);
+                if(!undoKeys.isEmpty()) {
+                    Integer undone = undoKeys.removeLast();
+                    if(undoPresent.removeLast())
+                        model.put(undone, undone);
+                    else
+                        model.remove(undone);
+                }
+            }
+            check(index.versions() == undoKeys.size(), "versions", key, i);
+            check(index.size() == model.size(), "size", key, i);
+
+            if(i % CHECK_INTERVAL == 0) {
+                int slot = random.nextInt(versions);
+                snapshots[slot] = index.snapshot();
+                models[slot] = new TreeMap<>(model);
+                snapshots[slot].checkInvariants();
+                for(int j = 0; j < versions; j++) {
+                    if(snapshots[j] == null)
+                        continue;
+                    Iterator<Integer> all = snapshots[j].iterator();
+                    for(Integer expected : models[j].keySet())
+                        check(all.next().equals(expected), "snapshot", expected, i);
+                    check(!all.hasNext(), "snapshot", null, i);
+                }
+            }
+        }
+    }
+
+    /* Runs union, intersection and difference on pairs of random AVL trees
+     * of very different sizes, checking the results and that elements from
+     * the second tree override those of the first.
+     */
+    public static void verifySetOperations(int rounds, Random random) {
+        for(int i = 0; i < rounds; i++) {
+            int range = 1 + random.nextInt(1 << (4 + random.nextInt(14)));
+            for(int op = 0; op < 3; op++) {
+                TreeMap<Long, Key> one = randomSet(random, range), two = randomSet(random, range);
+                AVLTree<Key> first = toTree(one), second = toTree(two);
+
+                if(op == 0) {
+                    first.union(second);
+                    one.putAll(two);
+                }
+                else if(op == 1) {
+                    first.intersection(second);
+                    one.keySet().retainAll(two.keySet());
+                    for(Map.Entry<Long, Key> e : one.entrySet())
+                        e.setValue(two.get(e.getKey()));
+                }
+                else {
+                    first.difference(second);
+                    one.keySet().removeAll(two.keySet());
+                }
+
+                first.checkInvariants();
+                second.checkInvariants();
+                check(second.size() == two.size(), "set operation input", null, i);
+                Iterator<Key> all = first.iterator();
+                for(Key expected : one.values())
+                    check(all.hasNext() && all.next() == expected, "set operation " + op,
+                            expected.value, i);
+                check(!all.hasNext(), "set operation " + op, null, i);
+            }
+        }
+    }
+
+    /* Builds k-d trees over random places, many of them sharing a position
+     * as table entries do, and compares nearest and radius queries against
+     * a scan of all places.
+     */
+    public static void verifyKDTree(int rounds, Random random) {
+        for(int i = 0; i < rounds; i++) {
+            ArrayList<Place> places = new ArrayList<>();
+            int count = random.nextInt(1 << (2 + random.nextInt(11)));
+            for(int j = 0; j < count; j++)
+                places.add(j > 0 && random.nextInt(4) == 0 ?
+                        places.get(random.nextInt(j)) : Place.random(random));
+            KDTree<Place> tree = new KDTree<>(places);
+            check(tree.size() == count, "k-d tree size", count, i);
+
+            for(int q = 0; q < 20; q++) {
+                Place query = Place.random(random);
+                int k = random.nextInt(count + 2);
+                double[] expected = new double[count];
+                for(int j = 0; j < count; j++)
+                    expected[j] = query.distance(places.get(j));
+                Arrays.sort(expected);
+
+                LinkedList<Place> nearest = tree.nearest(query.latitude, query.longitude, k);
+                check(nearest.size() == Math.min(k, count), "nearest", k, i);
+                int rank = 0;
+                for(Place place : nearest)
+                    check(Math.abs(query.distance(place) - expected[rank++]) < 1e-6,
+                            "nearest", k, i);
+
+                double km = random.nextDouble() * 3000;
+                int inside = 0;
+                for(Place place : tree.within(query.latitude, query.longitude, km)) {
+                    check(query.distance(place) <= km + 1e-6, "within", (int) km, i);
+                    inside++;
+                }
+                int low = 0, high = 0;
+                for(double distance : expected) {
+                    low += distance < km - 1e-6 ? 1 : 0;
+                    high += distance <= km + 1e-6 ? 1 : 0;
+                }
+                check(inside >= low && inside <= high, "within", (int) km, i);
+            }
+        }
+    }
+
+    /* Runs random adds, replacements and deletes through a country index,
+     * with addresses spread over the whole IPv4 space, and compares the
+     * ranges and CIDR blocks of a country against ones built from the model.
+     */
+    public static void verifyCountryIndex(int operations, Random random) {
+        String[] countries = { "Atlantis", "Lemuria", "Mu" };
+        CountryIndex index = new CountryIndex(new AVLTree<IPAddress>());
+        TreeMap<Long, String> model = new TreeMap<>();
+
+        for(int i = 0; i < operations; i++) {
+            int key = random.nextInt(KEY_RANGE);
+            long address = (long) key << 21;
+            IPAddress entry = new IPAddress(0, 0x0000FFFF00000000L | address,
+                    countries[random.nextInt(countries.length)], 0, 0);
+
+            if(random.nextInt(10) < 5) {
+                index.add(entry);
+                model.put(address, entry.getCountry());
+            }
+            else
+                check((index.delete(entry) != null) == (model.remove(address) != null),
+                        "delete", key, i);
+
+            if(i % CHECK_INTERVAL == 0) {
+                index.checkInvariants();
+                check(index.size() == model.size(), "size", key, i);
+                checkRanges(index, model, countries[i % countries.length], i);
+            }
+        }
+        index.checkInvariants();
+    }
+
+    private static void checkRanges(CountryIndex index, TreeMap<Long, String> model,
+            String country, int step) {
+        ArrayList<Long> expected = new ArrayList<>();
+        Map.Entry<Long, String> previous = null;
+
+        // Coalesce the model's blocks, with ends taken modulo 2^32
+        for(Map.Entry<Long, String> e : model.entrySet()) {
+            boolean inside = previous != null && previous.getValue().equals(country);
+            if(inside && !e.getValue().equals(country))
+                expected.add(e.getKey());
+            else if(!inside && e.getValue().equals(country))
+                expected.add(e.getKey());
+            previous = e;
+        }
+        if(expected.size() % 2 == 1)
+            expected.add(0L);
+
+        int[] ranges = index.ranges(country);
+        check(ranges.length == expected.size(), "ranges", null, step);
+        long covered = 0, blocks = 0;
+        for(int i = 0; i < ranges.length; i++) {
+            check((ranges[i] & 0xFFFFFFFFL) == expected.get(i), "ranges", null, step);
+            if(i % 2 == 1)
+                covered += ((ranges[i] - ranges[i - 1]) & 0xFFFFFFFFL) == 0 ? 1L << 32 :
+                        (ranges[i] - ranges[i - 1]) & 0xFFFFFFFFL;
+        }
+        for(String block : index.cidrs(country))
+            blocks += 1L << (32 - Integer.parseInt(block.substring(block.indexOf('/') + 1)));
+        check(covered == blocks, "cidrs", null, step);
+    }
+
+    /* Runs skewed get and floor lookups through a tiered index with a small
+     * hot tier, so blocks are promoted and evicted all the time, and checks
+     * the answers and hit counters against the model.
+     */
+    public static void verifyTiered(int operations, Random random) {
+        TreeMap<Integer, Integer> model = new TreeMap<>();
+        for(int i = 0; i < KEY_RANGE / 4; i++)
+            model.put(random.nextInt(KEY_RANGE), 0);
+        TieredIndex<Integer> tiered = new TieredIndex<>(
+                PersistentAVLTree.of(model.keySet().toArray(new Integer[0])), 1 + random.nextInt(64));
+
+        for(int i = 0; i < operations; i++) {
+            Integer key = random.nextBoolean() ? random.nextInt(KEY_RANGE / 16) : random.nextInt(KEY_RANGE);
+            if(random.nextBoolean())
+                check(equal(tiered.floor(key), model.floorKey(key)), "tiered floor", key, i);
+            else
+                check(equal(tiered.get(key), model.containsKey(key) ? key : null),
+                        "tiered get", key, i);
+        }
+        check(tiered.hotHits() + tiered.fullHits() + tiered.misses() == operations,
+                "tiered counters", null, operations);
+    }
+
+    private static TreeMap<Long, Key> randomSet(Random random, int range) {
+        TreeMap<Long, Key> set = new TreeMap<>();
+        int count = random.nextInt(range + 1);
+        for(int i = 0; i < count; i++) {
+            Key key = new Key(random.nextInt(range * 2));
+            set.put(key.unsigned(), key);
+        }
+        return set;
+    }
+
+    private static AVLTree<Key> toTree(TreeMap<Long, Key> set) {
+        AVLTree<Key> tree = new AVLTree<>();
+        for(Key key : set.values())
+            tree.add(key);
+        return tree;
+    }
+
+    /* Compares rank, select and countInRange against the model. */
+    private static void checkOrderStatistics(AVLTree<Integer> avl,
+            TreeMap<Integer, Integer> model, Integer key, int range, int step) {
+        int below = total(model.headMap(key)), hi = key + range / 8;
+        check(avl.rank(key) == below, "rank", key, step);
+        check(avl.countInRange(key, hi) == total(model.subMap(key, hi)),
+                "countInRange", key, step);
+        if(below < avl.size())
+            check(avl.select(below).equals(model.ceilingKey(key)), "select", key, step);
+    }
+
+    /* Source of keys in [0, range) for the tree runs. Besides uniform keys,
+     * it walks up or down the range, which drives the trees through long
+     * runs of the same rotations and splits, or stays near a slowly
+     * drifting point, which repeats keys and their neighbours.
+     */
+    private static class Keys {
+        public static final int UNIFORM = 0, ASCENDING = 1, DESCENDING = 2, CLUSTERED = 3;
+        public static final int PATTERNS = 4;
+
+        private final int range, pattern, shift;
+        private int cursor;
+
+        public Keys(int range, int pattern) {
+            if(Integer.bitCount(range) != 1)
+                throw new IllegalArgumentException("Key range must be a power of two: " + range);
+            this.range = range;
+            this.pattern = pattern;
+            this.shift = Integer.numberOfLeadingZeros(range) + 1;
+            this.cursor = 0;
+        }
+
+        public int next(Random random) {
+            // Sweeps jump somewhere else now and then
+            if(pattern != UNIFORM && random.nextInt(64) == 0)
+                cursor = random.nextInt(range);
+
+            if(pattern == ASCENDING)
+                cursor = (cursor + 1) & (range - 1);
+            else if(pattern == DESCENDING)
+                cursor = (cursor - 1) & (range - 1);
+            else if(pattern == CLUSTERED) {
+                cursor = (cursor + random.nextInt(3) - 1) & (range - 1);
+                return (cursor + random.nextInt(16)) & (range - 1);
+            }
+            else
+                return random.nextInt(range);
+            return cursor;
+        }
+
+        // Spreads a key over the whole unsigned int range, keeping its order
+        public int spread(int key) {
+            return key << shift;
+        }
+    }
+
+    /* Element type for the B+ tree and set operation runs */
+    private static class Key implements IntKeyed, Comparable<Key> {
+        private final int value;
+
+        public Key(int value) {
+            this.value = value;
+        }
+
+        public int intKey() {
+            return value;
+        }
+
+        public long unsigned() {
+            return value & 0xFFFFFFFFL;
+        }
+
+        public int compareTo(Key key) {
+            return Long.valueOf(unsigned()).compareTo(key.unsigned());
+        }
+    }
+
+    /* Element type for the k-d tree runs */
+    private static class Place implements Located {
+        private final double latitude, longitude;
+
+        public Place(double latitude, double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        // Whole degrees half the time, like most of the table
+        public static Place random(Random random) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            if(random.nextBoolean())
+                return new Place(Math.rint(latitude), Math.rint(longitude));
+            return new Place(latitude, longitude);
+        }
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+
+        public double distance(Place place) {
+            return KDTree.distance(latitude, longitude, place.latitude, place.longitude);
+        }
+    }
+
+    private static int total(Map<Integer, Integer> model) {
+        int total = 0;
+        for(Integer count : model.values())
+            total += count;
+        return total;
+    }
+
+    /* Steps a cursor, returning what it returned or the class of the
+     * exception it threw, so two cursors can be compared
+     */
+    private static Object step(ListIterator<Integer> cursor, int step, Integer value) {
+        try {
+            switch(step) {
+                case 0: return cursor.next();
+                case 1: return cursor.previous();
+                case 2: cursor.remove(); return "remove";
+                case 3: cursor.add(value); return "add";
+                case 4: cursor.set(value); return "set";
+                case 5: return cursor.nextIndex();
+                case 6: return cursor.previousIndex();
+                default: return cursor.hasNext() + " " + cursor.hasPrevious();
+            }
+        }
+        catch(RuntimeException e) {
+            return e.getClass();
+        }
+    }
+
+    /* Walks a linked list forward and back again with one cursor */
+    private static void checkList(LinkedList<Integer> list, java.util.LinkedList<Integer> model, int step) {
+        ListIterator<Integer> cursor = list.listIterator();
+        for(Integer expected : model)
+            check(cursor.hasNext() && cursor.next().equals(expected), "iterator", expected, step);
+        check(!cursor.hasNext(), "iterator", null, step);
+        for(Iterator<Integer> back = model.descendingIterator(); back.hasNext(); ) {
+            Integer expected = back.next();
+            check(cursor.hasPrevious() && cursor.previous().equals(expected), "previous", expected, step);
+        }
+        check(!cursor.hasPrevious(), "previous", null, step);
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        }
+        catch(InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean equal(Object one, Object two) {
+        return one == null ? two == null : one.equals(two);
+    }
+
+    private static void check(boolean condition, String op, Integer key, int step) {
+        if(!condition)
+            throw new IllegalStateException(op + "(" + key + ") failed at operation " + step);
+    }
+}
@@ -0,0 +1,665 @@
+package searchtrees;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import data.CountryIndex;
+import data.IPAddress;
+import data.TableLoader;
+import data_structures.*;
+
+/**
+ * Workload driver for comparing the backends. A trace is a sequence of
+ * get, floor, add and delete operations on table entries, either generated
+ * with a chosen mix, key skew and locality, or replayed from a file. Each
+ * trace runs against every backend with each thread count, starting from
+ * the same contents, and the throughput and latency percentiles are printed
+ * as a table and optionally appended to a CSV file.
+ *
+ * Generated traces: reads pick keys from a Zipf distribution over the table
+ * (zipf=0 is uniform), with the popular keys scattered over the address
+ * space. With probability locality a read instead goes to a block close to
+ * the previous one, like a scan. Floor lookups probe an address inside the
+ * block. Writes pick uniformly among the keys owned by the thread, each
+ * thread owning every threads-th entry, so adds only insert absent keys and
+ * deletes only remove present ones. One entry in four starts out absent.
+ *
+ * Trace files hold one operation per line, "get", "floor", "add" or
+ * "delete" followed by an address; line i goes to thread i % threads.
+ * Lines "absent" followed by an address name table entries that start out
+ * absent; every other entry starts out present. A saved trace lists the
+ * entries its run started without, so a replay starts from the same
+ * contents.
+ *
+ * Usage: Workload [name=value ...]
+ *   operations=1000000  total operations, split over the threads
+ *   reads=90 adds=5 deletes=5  percentages of the mix
+ *   floors=50           percentage of reads that are floor lookups
+ *   zipf=0.99 locality=0.1 seed=42
+ *   threads=1,2         thread counts to run
+ *   backends=all        or a list of avl,splay,bplus,versioned,country,tiered,
+ *                       pooled-avl,pooled-splay
+ *   trace=file          replay a trace file instead of generating one
+ *   save=file           write the generated trace for a later replay, to
+ *                       file.<threads> when several thread counts run
+ *   csv=file            append the results to a CSV file
+ *   warmup=1            untimed runs of each backend before the timed one
+ *   table=ip2country.tsv
+ */
+public class Workload {
+
+    public static final byte GET = 0, FLOOR = 1, ADD = 2, DELETE = 3;
+    private static final String[] OPERATIONS = { "get", "floor", "add", "delete" };
+    private static final String[] BACKENDS = { "avl", "splay", "bplus", "versioned", "country", "tiered",
+            "pooled-avl", "pooled-splay" };
+
+    /*
+     * Operations of one thread, with the entry or probe of each.
+     */
+    public static class Trace {
+        public byte[] ops = new byte[16];
+        public IPAddress[] keys = new IPAddress[16];
+        public int size = 0;
+
+        public void add(byte op, IPAddress key) {
+            if(size == ops.length) {
+                ops = Arrays.copyOf(ops, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            ops[size] = op;
+            keys[size++] = key;
+        }
+
+        public boolean hasWrites() {
+            for(int i = 0; i < size; i++)
+                if(ops[i] == ADD || ops[i] == DELETE)
+                    return true;
+            return false;
+        }
+    }
+
+    /*
+     * Throughput and latency percentiles of one run.
+     */
+    public static class Result {
+        public final String backend;
+        public final int threads;
+        public final long operations;
+        public final double seconds;
+        public final long p50, p90, p99, p999;
+
+        public Result(String backend, int threads, long[] latencies, double seconds) {
+            Arrays.sort(latencies);
+            this.backend = backend;
+            this.threads = threads;
+            this.operations = latencies.length;
+            this.seconds = seconds;
+            this.p50 = percentile(latencies, 0.50);
+            this.p90 = percentile(latencies, 0.90);
+            this.p99 = percentile(latencies, 0.99);
+            this.p999 = percentile(latencies, 0.999);
+        }
+
+        public double throughput() {
+            return operations / seconds;
+        }
+
+        private static long percentile(long[] sorted, double fraction) {
+            if(sorted.length == 0)
+                return 0;
+            return sorted[(int) Math.min(sorted.length - 1, Math.floor(fraction * sorted.length))];
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Settings settings = new Settings(args);
+        IPAddress[] table = TableLoader.load(new File(settings.get("table", "ip2country.tsv")));
+        String[] backends = settings.get("backends", "all").equals("all") ? BACKENDS :
+                settings.get("backends", "").split(",");
+        String csv = settings.get("csv", null);
+        String description = settings.describe();
+        int warmup = Integer.parseInt(settings.get("warmup", "1"));
+        String[] counts = settings.get("threads", "1,2").split(",");
+
+        printHeader();
+        for(String count : counts) {
+            int threads = Integer.parseInt(count.trim());
+            Trace[] traces;
+            IPAddress[] initial;
+
+            if(settings.get("trace", null) != null) {
+                File file = new File(settings.get("trace", null));
+                traces = replay(file, table, threads);
+                initial = initial(file, table);
+            }
+            else {
+                Generator generator = new Generator(table, settings, threads);
+                traces = generator.traces;
+                initial = generator.initial;
+                // The traces depend on the thread count, so each count gets its own file
+                String save = settings.get("save", null);
+                if(save != null)
+                    save(traces, table, initial,
+                            new File(counts.length > 1 ? save + "." + threads : save));
+            }
+
+            for(String backend : backends) {
+                OrderedIndex<IPAddress> index = create(backend.trim(), initial, traces);
+                if(index == null)
+                    continue;
+                // Warm up the JIT on a copy of the backend before measuring
+                for(int round = 0; round < warmup; round++)
+                    run(backend.trim(), create(backend.trim(), initial, traces), traces);
+                Result result = run(backend.trim(), index, traces);
+                print(result);
+                if(csv != null)
+                    appendCsv(new File(csv), result, description);
+            }
+        }
+    }
+
+    /**
+     * Generates traces from settings given as name=value pairs, as on the
+     * command line
+     * @param table, the table entries, sorted
+     * @param threads, the number of threads
+     * @param settings, the settings of the workload
+     * @return Trace[], the operations of each thread
+     */
+    public static Trace[] generate(IPAddress[] table, int threads, String... settings) {
+        return new Generator(table, new Settings(settings), threads).traces;
+    }
+
+    /**
+     * Runs one trace per thread against an index and measures every operation
+     * @param name, the name of the backend
+     * @param index, the index, safe for as many threads as there are traces
+     * @param traces, the operations of each thread
+     * @return Result, the throughput and latency percentiles
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public static Result run(String name, final OrderedIndex<IPAddress> index, Trace[] traces)
+            throws InterruptedException {
+        final CountDownLatch ready = new CountDownLatch(traces.length);
+        final CountDownLatch go = new CountDownLatch(1);
+        final long[][] latencies = new long[traces.length][];
+        Thread[] threads = new Thread[traces.length];
+
+        for(int t = 0; t < traces.length; t++) {
+            final Trace trace = traces[t];
+            final long[] times = latencies[t] = new long[trace.size];
+            threads[t] = new Thread() {
+                public void run() {
+                    Object sink = null;
+                    ready.countDown();
+                    try {
+                        go.await();
+                    }
+                    catch(InterruptedException e) {
+                        return;
+                    }
+                    for(int i = 0; i < trace.size; i++) {
+                        long start = System.nanoTime();
+                        switch(trace.ops[i]) {
+                            case GET: sink = index.get(trace.keys[i]); break;
+                            case FLOOR: sink = index.floor(trace.keys[i]); break;
+                            case ADD: index.add(trace.keys[i]); break;
+                            default: sink = index.delete(trace.keys[i]); break;
+                        }
+                        times[i] = System.nanoTime() - start;
+                    }
+                    if(sink == this)
+                        System.out.println();
+                }
+            };
+            threads[t].start();
+        }
+
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for(Thread thread : threads)
+            thread.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int total = 0;
+        for(long[] times : latencies)
+            total += times.length;
+        long[] all = new long[total];
+        total = 0;
+        for(long[] times : latencies) {
+            System.arraycopy(times, 0, all, total, times.length);
+            total += times.length;
+        }
+        return new Result(name, traces.length, all, seconds);
+    }
+
+    public static void printHeader() {
+        System.out.println("Backend       Threads      ops/s   p50 ns   p90 ns   p99 ns  p99.9 ns");
+    }
+
+    public static void print(Result result) {
+        System.out.printf("%-13s %7d %10.0f %8d %8d %8d %9d%n", result.backend, result.threads,
+                result.throughput(), result.p50, result.p90, result.p99, result.p999);
+    }
+
+    /*
+     * Creates a backend holding the initial entries, made safe for the
+     * threads of the traces. Returns null for backends that cannot run the
+     * traces: the 32-bit backends with IPv6 tables, and the read-only
+     * tiered index with writes.
+     */
+    private static OrderedIndex<IPAddress> create(String backend, IPAddress[] initial, Trace[] traces) {
+        boolean v4Only = true, writes = false;
+        for(IPAddress entry : initial)
+            v4Only &= entry.isIPv4();
+        for(Trace trace : traces) {
+            writes |= trace.hasWrites();
+            for(int i = 0; i < trace.size && v4Only; i++)
+                v4Only &= trace.keys[i].isIPv4();
+        }
+
+        switch(backend) {
+            case "avl":
+                AVLTree<IPAddress> avl = new AVLTree<>();
+                avl.bulkLoad(initial);
+                return new Locked(avl);
+            case "splay":
+                SplayTree<IPAddress, String> splay = new SplayTree<>();
+                splay.bulkLoad(initial, null);
+                return new Locked(splay);
+            case "bplus":
+                if(!v4Only)
+                    return null;
+                BPlusTree<IPAddress> bplus = new BPlusTree<>();
+                bplus.bulkLoad(initial);
+                return new Locked(bplus);
+            case "versioned":
+                // Readers never lock, and writers serialize inside the index
+                return new VersionedIndex<>(PersistentAVLTree.of(initial), 0);
+            case "country":
+                if(!v4Only)
+                    return null;
+                AVLTree<IPAddress> tree = new AVLTree<>();
+                tree.bulkLoad(initial);
+                return new Locked(new CountryIndex(tree));
+            case "tiered":
+                if(writes)
+                    return null;
+                return new Tiered(new TieredIndex<>(PersistentAVLTree.of(initial), 1024));
+            case "pooled-avl":
+                if(!v4Only)
+                    return null;
+                PooledAVLTree<IPAddress> pooledAVL = new PooledAVLTree<>();
+                for(IPAddress entry : initial)
+                    pooledAVL.add(entry);
+                return new Locked(pooledAVL);
+            case "pooled-splay":
+                if(!v4Only)
+                    return null;
+                PooledSplayTree<IPAddress> pooledSplay = new PooledSplayTree<>();
+                for(IPAddress entry : initial)
+                    pooledSplay.add(entry);
+                return new Locked(pooledSplay);
+            default:
+                throw new IllegalArgumentException("Unknown backend: " + backend);
+        }
+    }
+
+    /**
+     * Reads a trace file, giving line i to thread i % threads. Added entries
+     * take their country and coordinates from the table when listed there.
+     * @param file, the trace to be replayed
+     * @param table, the table entries, sorted
+     * @param threads, the number of threads
+     * @return Trace[], the operations of each thread
+     * @throws IOException if the file cannot be read or a line is malformed
+     */
+    public static Trace[] replay(File file, IPAddress[] table, int threads) throws IOException {
+        Trace[] traces = new Trace[threads];
+        for(int t = 0; t < threads; t++)
+            traces[t] = new Trace();
+
+        try(BufferedReader in = new BufferedReader(new FileReader(file))) {
+            int line = 0;
+            for(String text = in.readLine(); text != null; text = in.readLine()) {
+                text = text.trim();
+                if(text.isEmpty() || text.startsWith("#"))
+                    continue;
+                String[] parts = text.split("\\s+");
+                if(parts[0].equals("absent"))
+                    continue;
+                int op = Arrays.asList(OPERATIONS).indexOf(parts[0]);
+                if(op < 0 || parts.length != 2)
+                    throw new IOException("Malformed trace line: " + text);
+
+                IPAddress key;
+                try {
+                    key = new IPAddress(parts[1], null, 0, 0);
+                }
+                catch(IllegalArgumentException e) {
+                    throw new IOException("Malformed trace line: " + text, e);
+                }
+                int at = Arrays.binarySearch(table, key);
+                if(op == ADD && at >= 0)
+                    key = table[at];
+                traces[line++ % threads].add((byte) op, key);
+            }
+        }
+        return traces;
+    }
+
+    /**
+     * Reads the entries a trace file starts from: the table without the
+     * entries listed as absent
+     * @param file, the trace to be replayed
+     * @param table, the table entries, sorted
+     * @return IPAddress[], the initial entries, sorted
+     * @throws IOException if the file cannot be read or an address is malformed
+     */
+    public static IPAddress[] initial(File file, IPAddress[] table) throws IOException {
+        boolean[] absent = new boolean[table.length];
+        int count = table.length;
+
+        try(BufferedReader in = new BufferedReader(new FileReader(file))) {
+            for(String text = in.readLine(); text != null; text = in.readLine()) {
+                String[] parts = text.trim().split("\\s+");
+                if(!parts[0].equals("absent"))
+                    continue;
+                if(parts.length != 2)
+                    throw new IOException("Malformed trace line: " + text);
+                int at;
+                try {
+                    at = Arrays.binarySearch(table, new IPAddress(parts[1], null, 0, 0));
+                }
+                catch(IllegalArgumentException e) {
+                    throw new IOException("Malformed trace line: " + text, e);
+                }
+                if(at >= 0 && !absent[at]) {
+                    absent[at] = true;
+                    count--;
+                }
+            }
+        }
+
+        IPAddress[] initial = new IPAddress[count];
+        count = 0;
+        for(int i = 0; i < table.length; i++)
+            if(!absent[i])
+                initial[count++] = table[i];
+        return initial;
+    }
+
+    // Writes traces so a replay with the same thread count gives them back,
+    // starting from the same initial entries
+    private static void save(Trace[] traces, IPAddress[] table, IPAddress[] initial, File file)
+            throws IOException {
+        try(PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)))) {
+            for(IPAddress entry : table)
+                if(Arrays.binarySearch(initial, entry) < 0)
+                    out.println("absent " + entry.getAddress());
+            for(int i = 0; i < traces[0].size; i++)
+                for(Trace trace : traces)
+                    if(i < trace.size)
+                        out.println(OPERATIONS[trace.ops[i]] + " " + trace.keys[i].getAddress());
+        }
+    }
+
+    private static void appendCsv(File file, Result result, String description) throws IOException {
+        boolean header = !file.exists() || file.length() == 0;
+        try(PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file, true)))) {
+            if(header)
+                out.println("backend,threads,operations,seconds,ops_per_second," +
+                        "p50_ns,p90_ns,p99_ns,p999_ns,workload");
+            out.printf("%s,%d,%d,%.6f,%.0f,%d,%d,%d,%d,\"%s\"%n", result.backend, result.threads,
+                    result.operations, result.seconds, result.throughput(), result.p50,
+                    result.p90, result.p99, result.p999, description);
+        }
+    }
+
+    /*
+     * Generates one trace per thread from the table and the settings.
+     */
+    private static class Generator {
+        private final IPAddress[] table;
+        private final Random random;
+        private final double[] cdf;
+        private final int[] byRank;
+        private final Trace[] traces;
+        private final IPAddress[] initial;
+
+        public Generator(IPAddress[] table, Settings settings, int threads) {
+            int operations = Integer.parseInt(settings.get("operations", "1000000"));
+            int reads = Integer.parseInt(settings.get("reads", "90"));
+            int adds = Integer.parseInt(settings.get("adds", "5"));
+            int deletes = Integer.parseInt(settings.get("deletes", "5"));
+            int floors = Integer.parseInt(settings.get("floors", "50"));
+            double zipf = Double.parseDouble(settings.get("zipf", "0.99"));
+            double locality = Double.parseDouble(settings.get("locality", "0.1"));
+            if(reads + adds + deletes != 100 || reads < 0 || adds < 0 || deletes < 0)
+                throw new IllegalArgumentException("The mix must add up to 100: " +
+                        reads + "/" + adds + "/" + deletes);
+
+            this.table = table;
+            this.random = new Random(Long.parseLong(settings.get("seed", "42")));
+
+            // Zipf weights by rank, with ranks assigned to random entries
+            cdf = new double[table.length];
+            double sum = 0;
+            for(int rank = 0; rank < table.length; rank++)
+                cdf[rank] = sum += 1 / Math.pow(rank + 1, zipf);
+            for(int rank = 0; rank < table.length; rank++)
+                cdf[rank] /= sum;
+            byRank = new int[table.length];
+            for(int i = 0; i < table.length; i++)
+                byRank[i] = i;
+            for(int i = table.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1), tmp = byRank[i];
+                byRank[i] = byRank[j];
+                byRank[j] = tmp;
+            }
+
+            // Every fourth entry starts absent, so there is something to add
+            boolean[] present = new boolean[table.length];
+            int count = 0;
+            for(int i = 0; i < table.length; i++) {
+                present[i] = i % 4 != 3;
+                if(present[i])
+                    count++;
+            }
+            initial = new IPAddress[count];
+            count = 0;
+            for(int i = 0; i < table.length; i++)
+                if(present[i])
+                    initial[count++] = table[i];
+
+            traces = new Trace[threads];
+            for(int t = 0; t < threads; t++) {
+                Trace trace = traces[t] = new Trace();
+                KeySet in = new KeySet(), out = new KeySet();
+                for(int i = t; i < table.length; i += threads)
+                    (present[i] ? in : out).add(i);
+
+                int previous = random.nextInt(table.length);
+                for(int i = 0; i < operations / threads; i++) {
+                    int dice = random.nextInt(100);
+                    if(dice < reads || (dice < reads + adds ? out.isEmpty() : in.isEmpty())) {
+                        previous = random.nextDouble() < locality ?
+                                Math.max(0, Math.min(table.length - 1, previous + random.nextInt(17) - 8)) :
+                                byRank[rank(random.nextDouble())];
+                        if(random.nextInt(100) < floors)
+                            trace.add(FLOOR, probe(previous));
+                        else
+                            trace.add(GET, table[previous]);
+                    }
+                    else if(dice < reads + adds) {
+                        int key = out.removeRandom(random);
+                        in.add(key);
+                        trace.add(ADD, table[key]);
+                    }
+                    else {
+                        int key = in.removeRandom(random);
+                        out.add(key);
+                        trace.add(DELETE, table[key]);
+                    }
+                }
+            }
+        }
+
+        private int rank(double u) {
+            int at = Arrays.binarySearch(cdf, u);
+            return Math.min(cdf.length - 1, at >= 0 ? at : -at - 1);
+        }
+
+        // An address inside the block of an entry, for floor lookups
+        private IPAddress probe(int i) {
+            IPAddress block = table[i];
+            if(i + 1 == table.length || block.getHigh() != table[i + 1].getHigh())
+                return block;
+            long span = table[i + 1].getLow() - block.getLow();
+            long offset = span > 0 && span <= Integer.MAX_VALUE ? random.nextInt((int) span) : 0;
+            return new IPAddress(block.getHigh(), block.getLow() + offset, null, 0, 0);
+        }
+    }
+
+    /*
+     * Set of entry positions with O(1) add and removal of a random member.
+     */
+    private static class KeySet {
+        private int[] members = new int[16];
+        private int size = 0;
+
+        public void add(int key) {
+            if(size == members.length)
+                members = Arrays.copyOf(members, size * 2);
+            members[size++] = key;
+        }
+
+        public int removeRandom(Random random) {
+            int at = random.nextInt(size), key = members[at];
+            members[at] = members[--size];
+            return key;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+    /*
+     * Command-line settings given as name=value pairs.
+     */
+    private static class Settings {
+        private final String[] args;
+
+        public Settings(String[] args) {
+            for(String arg : args)
+                if(arg.indexOf('=') <= 0)
+                    throw new IllegalArgumentException("Expected name=value: " + arg);
+            this.args = args;
+        }
+
+        public String get(String name, String fallback) {
+            for(String arg : args)
+                if(arg.startsWith(name + "="))
+                    return arg.substring(name.length() + 1);
+            return fallback;
+        }
+
+        // Settings that shape the workload, to label CSV rows
+        public String describe() {
+            StringBuilder text = new StringBuilder();
+            for(String arg : args)
+                if(!arg.startsWith("csv=") && !arg.startsWith("backends=") && !arg.startsWith("threads="))
+                    text.append(text.length() == 0 ? "" : " ").append(arg);
+            return text.toString();
+        }
+    }
+
+    /*
+     * Serializes every operation of a backend that is not thread safe.
+     * Splay tree lookups restructure the tree, so reads lock too.
+     */
+    private static class Locked implements OrderedIndex<IPAddress> {
+        private final OrderedIndex<IPAddress> index;
+
+        public Locked(OrderedIndex<IPAddress> index) {
+            this.index = index;
+        }
+
+        public synchronized boolean add(IPAddress obj) {
+            return index.add(obj);
+        }
+
+        public synchronized IPAddress get(IPAddress obj) {
+            return index.get(obj);
+        }
+
+        public synchronized IPAddress floor(IPAddress obj) {
+            return index.floor(obj);
+        }
+
+        public synchronized IPAddress delete(IPAddress obj) {
+            return index.delete(obj);
+        }
+
+        public synchronized int size() {
+            return index.size();
+        }
+
+        public synchronized boolean isEmpty() {
+            return index.isEmpty();
+        }
+
+        public Iterator<IPAddress> iterator() {
+            return index.iterator();
+        }
+    }
+
+    /*
+     * Read-only view of a tiered index, for read-only traces.
+     */
+    private static class Tiered implements OrderedIndex<IPAddress> {
+        private final TieredIndex<IPAddress> index;
+
+        public Tiered(TieredIndex<IPAddress> index) {
+            this.index = index;
+        }
+
+        public boolean add(IPAddress obj) {
+            throw new UnsupportedOperationException();
+        }
+
+        public IPAddress get(IPAddress obj) {
+            return index.get(obj);
+        }
+
+        public IPAddress floor(IPAddress obj) {
+            return index.floor(obj);
+        }
+
+        public IPAddress delete(IPAddress obj) {
+            throw new UnsupportedOperationException();
+        }
+
+        public int size() {
+            return index.size();
+        }
+
+        public boolean isEmpty() {
+            return index.size() == 0;
+        }
+
+        public Iterator<IPAddress> iterator() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
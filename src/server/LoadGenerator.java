@@ -0,0 +1,176 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import data.IPAddress;
+import data.TableLoader;
+import data_structures.BPlusTree;
+
+/**
+ * Load generator for the lookup server. Each connection runs on its own
+ * thread and keeps a fixed number of batches of random addresses in
+ * flight, timing every batch from send to answer over loopback. Prints
+ * the lookup throughput and the 50th and 99th percentile batch latency.
+ *
+ * With port 0 the generator starts a server in the same process, and
+ * also checks a batch of answers against the index.
+ *
+ * Usage: LoadGenerator [port] [connections] [batch] [depth] [seconds]
+ *
+ * @author Ruben Ramirez
+ */
+
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int batch = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        int depth = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        final long seconds = args.length > 4 ? Long.parseLong(args[4]) : 5;
+        LookupServer embedded = null;
+
+        if(port == 0) {
+            BPlusTree<IPAddress> index = new BPlusTree<>();
+            index.bulkLoad(TableLoader.load(new File("ip2country.tsv")));
+            embedded = new LookupServer(index, 0);
+            port = embedded.port();
+            new Thread(embedded, "lookup-server").start();
+            verify(index, port);
+        }
+
+        // Batches in flight at the deadline still finish, so the rate is
+        // taken over the time until the last worker is done
+        Worker[] workers = new Worker[connections];
+        long start = System.nanoTime();
+        long deadline = start + seconds * 1000000000L;
+        for(int i = 0; i < connections; i++) {
+            workers[i] = new Worker(port, batch, depth, deadline, new Random(i));
+            workers[i].start();
+        }
+
+        long lookups = 0;
+        int count = 0;
+        for(Worker worker : workers) {
+            worker.join();
+            if(worker.error != null)
+                throw worker.error;
+            lookups += (long) worker.batches * batch;
+            count += worker.batches;
+        }
+        long elapsed = System.nanoTime() - start;
+        long[] latencies = new long[count];
+        count = 0;
+        for(Worker worker : workers) {
+            System.arraycopy(worker.latencies, 0, latencies, count, worker.batches);
+            count += worker.batches;
+        }
+        Arrays.sort(latencies);
+
+        System.out.printf("%d connections, %d addresses per batch, %d batches in flight%n",
+                connections, batch, depth);
+        System.out.printf("%.0f lookups/s, batch latency p50 %.1f us, p99 %.1f us, max %.1f us%n",
+                lookups * 1e9 / elapsed, percentile(latencies, 0.50) / 1e3,
+                percentile(latencies, 0.99) / 1e3,
+                latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e3);
+
+        if(embedded != null)
+            embedded.close();
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        if(sorted.length == 0)
+            return 0;
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(fraction * sorted.length))];
+    }
+
+    // Checks a batch of answers, and the country names, against the index
+    private static void verify(BPlusTree<IPAddress> index, int port) throws IOException {
+        try(LookupClient client = new LookupClient(port)) {
+            LookupClient.Batch batch = new LookupClient.Batch(Protocol.MAX_BATCH);
+            Random random = new Random();
+            batch.size = batch.addresses.length;
+            for(int i = 0; i < batch.size; i++)
+                batch.addresses[i] = random.nextInt();
+            client.lookup(batch);
+
+            for(int i = 0; i < batch.size; i++) {
+                IPAddress block = index.floor(batch.addresses[i]);
+                boolean same = block == null ? batch.countries[i] == Protocol.NOT_FOUND :
+                        block.intKey() == batch.blocks[i] &&
+                        block.getCountry().equals(client.country(batch.countries[i])) &&
+                        Math.round(block.getLatitude() * IPAddress.COORDINATE_SCALE) == batch.latitudes[i] &&
+                        Math.round(block.getLongitude() * IPAddress.COORDINATE_SCALE) == batch.longitudes[i];
+                if(!same)
+                    throw new IllegalStateException("Wrong answer for address " + batch.addresses[i]);
+            }
+        }
+    }
+
+    /*
+     * Connection that keeps depth batches in flight until the deadline,
+     * recording the latency of each.
+     */
+    private static class Worker extends Thread {
+        private final int port, size, depth;
+        private final long deadline;
+        private final Random random;
+        private long[] latencies = new long[1024];
+        private int batches = 0;
+        private Exception error;
+
+        public Worker(int port, int size, int depth, long deadline, Random random) {
+            this.port = port;
+            this.size = size;
+            this.depth = depth;
+            this.deadline = deadline;
+            this.random = random;
+        }
+
+        public void run() {
+            try(LookupClient client = new LookupClient(port)) {
+                LookupClient.Batch[] ring = new LookupClient.Batch[depth];
+                long[] sent = new long[depth];
+
+                for(int i = 0; i < depth; i++) {
+                    ring[i] = new LookupClient.Batch(size);
+                    fill(ring[i]);
+                    sent[i] = System.nanoTime();
+                    client.send(ring[i]);
+                }
+
+                // Replace each answered batch with a new one until time is up,
+                // then collect the batches still in flight
+                for(int i = 0, left = depth; left > 0; i = (i + 1) % depth) {
+                    client.receive(ring[i]);
+                    long now = System.nanoTime();
+                    record(now - sent[i]);
+                    if(now < deadline) {
+                        fill(ring[i]);
+                        sent[i] = System.nanoTime();
+                        client.send(ring[i]);
+                    }
+                    else
+                        left--;
+                }
+            }
+            catch(Exception e) {
+                error = e;
+            }
+        }
+
+        private void fill(LookupClient.Batch batch) {
+            batch.size = size;
+            for(int i = 0; i < size; i++)
+                batch.addresses[i] = random.nextInt();
+        }
+
+        private void record(long latency) {
+            if(batches == latencies.length)
+                latencies = Arrays.copyOf(latencies, batches * 2);
+            latencies[batches++] = latency;
+        }
+    }
+}
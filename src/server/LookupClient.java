@@ -0,0 +1,195 @@
+package server;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Blocking client of the lookup server. Batches can be pipelined: send()
+ * several and receive() the answers in the same order. Once the answers
+ * not yet read would pass Protocol.MAX_PENDING bytes, send() first reads
+ * answers ahead into memory, so the server never stops reading while the
+ * client is still writing, however deep the pipeline. Country
+ * ids are resolved to names with a dictionary fetched from the server when
+ * an unknown id shows up, which must happen with no batch in flight.
+ * A client is used by one thread at a time.
+ *
+ * @author Ruben Ramirez
+ */
+
+public class LookupClient implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final SocketChannel channel;
+    private final ByteBuffer output = ByteBuffer.allocateDirect(
+            Protocol.HEADER_SIZE + 4 * Protocol.MAX_BATCH);
+    // Bytes read and not yet consumed lie between position and limit
+    private ByteBuffer input = ByteBuffer.allocateDirect(
+            Protocol.HEADER_SIZE + Protocol.ANSWER_SIZE * Protocol.MAX_BATCH);
+    // Answer bytes of the batches sent that have not been read yet
+    private int pending = 0;
+    private String[] countries = new String[1];
+
+    /**
+     * Connects to a server on the loopback interface
+     * @param port, the port of the server
+     * @throws IOException if the connection fails
+     */
+    public LookupClient(int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        channel.socket().setTcpNoDelay(true);
+        input.limit(0);
+    }
+
+    /**
+     * Sends the addresses of a batch to be looked up
+     * @param batch, the batch holding the addresses
+     * @throws IOException if the request cannot be sent
+     */
+    public void send(Batch batch) throws IOException {
+        int answers = Protocol.HEADER_SIZE + Protocol.ANSWER_SIZE * batch.size;
+        while(pending > 0 && pending + answers > Protocol.MAX_PENDING)
+            readMore();
+        pending += answers;
+
+        output.clear();
+        output.put(Protocol.LOOKUP).putInt(batch.size);
+        for(int i = 0; i < batch.size; i++)
+            output.putInt(batch.addresses[i]);
+        output.flip();
+        while(output.hasRemaining())
+            channel.write(output);
+    }
+
+    /**
+     * Receives the answers to the oldest batch sent and not yet received
+     * @param batch, the batch the answers are stored in
+     * @throws IOException if the answers cannot be read or do not match
+     */
+    public void receive(Batch batch) throws IOException {
+        readFully(Protocol.HEADER_SIZE);
+        if(input.get() != Protocol.LOOKUP || input.getInt() != batch.size)
+            throw new IOException("Answers do not match the batch");
+        readFully(Protocol.ANSWER_SIZE * batch.size);
+        for(int i = 0; i < batch.size; i++) {
+            batch.blocks[i] = input.getInt();
+            batch.countries[i] = input.getShort();
+            batch.latitudes[i] = input.getShort();
+            batch.longitudes[i] = input.getShort();
+        }
+    }
+
+    /**
+     * Looks up a batch and waits for the answers
+     * @param batch, the batch holding the addresses
+     * @throws IOException if the lookup fails
+     */
+    public void lookup(Batch batch) throws IOException {
+        send(batch);
+        receive(batch);
+    }
+
+    /**
+     * Returns the name of a country id received in a batch
+     * @param id, the country id
+     * @return String, the country name, null for addresses with no block
+     * @throws IOException if the dictionary cannot be fetched
+     */
+    public String country(short id) throws IOException {
+        if(id == Protocol.NOT_FOUND)
+            return null;
+        if(id >= countries.length)
+            fetchCountries();
+        if(id >= countries.length)
+            throw new IOException("Unknown country id " + id);
+        return countries[id];
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Fetches the names registered since the last fetch
+    private void fetchCountries() throws IOException {
+        if(pending > 0 || input.hasRemaining())
+            throw new IllegalStateException("Country names fetched with batches in flight");
+        output.clear();
+        output.put(Protocol.COUNTRIES).putInt(countries.length);
+        output.flip();
+        while(output.hasRemaining())
+            channel.write(output);
+
+        readFully(Protocol.HEADER_SIZE);
+        if(input.get() != Protocol.COUNTRIES)
+            throw new IOException("Unexpected response");
+        int count = input.getInt(), id = countries.length;
+        countries = Arrays.copyOf(countries, id + count);
+        for(int i = 0; i < count; i++) {
+            readFully(2);
+            byte[] name = new byte[input.getShort() & 0xFFFF];
+            readFully(name.length);
+            input.get(name);
+            countries[id + i] = new String(name, UTF8);
+        }
+        // Names are not counted as pending answers
+        pending = 0;
+    }
+
+    // Makes at least the given number of bytes available in the input
+    private void readFully(int bytes) throws IOException {
+        while(input.remaining() < bytes)
+            readMore();
+    }
+
+    // Reads whatever the server has sent next, growing the input if it is full
+    private void readMore() throws IOException {
+        input.compact();
+        if(!input.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(2 * input.capacity());
+            input.flip();
+            larger.put(input);
+            input = larger;
+        }
+        int read = channel.read(input);
+        input.flip();
+        if(read < 0)
+            throw new EOFException("Server closed the connection");
+        pending -= read;
+    }
+
+    /**
+     * Batch of IPv4 addresses and their answers: the start of each block,
+     * its country id and its coordinates in hundredths of a degree.
+     */
+    public static class Batch {
+        public final int[] addresses;
+        public final int[] blocks;
+        public final short[] countries;
+        public final short[] latitudes;
+        public final short[] longitudes;
+        public int size;
+
+        /**
+         * Creates an empty batch
+         * @param capacity, the largest number of addresses it holds
+         * @throws IllegalArgumentException if the capacity is above the protocol limit
+         */
+        public Batch(int capacity) {
+            if(capacity < 0 || capacity > Protocol.MAX_BATCH)
+                throw new IllegalArgumentException("Batch capacity out of range: " + capacity);
+            this.addresses = new int[capacity];
+            this.blocks = new int[capacity];
+            this.countries = new short[capacity];
+            this.latitudes = new short[capacity];
+            this.longitudes = new short[capacity];
+            this.size = 0;
+        }
+    }
+}
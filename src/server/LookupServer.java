@@ -0,0 +1,251 @@
+package server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import data.Countries;
+import data.IPAddress;
+import data.TableLoader;
+import data_structures.BPlusTree;
+
+/**
+ * Local lookup daemon. Loads the table once into a B+ tree and answers
+ * batches of IPv4 lookups from any number of client processes over a
+ * compact binary protocol (see Protocol), so the processes on a host share
+ * one copy of the index instead of embedding their own.
+ *
+ * One thread runs a non-blocking selector loop. Each connection reads
+ * whole requests from its input buffer, however many are pipelined, and
+ * queues the responses in its output buffer. A connection whose client
+ * stops reading is not read from until its responses drain.
+ *
+ * Usage: LookupServer [port] [table]
+ *
+ * @author Ruben Ramirez
+ */
+
+public class LookupServer implements Runnable {
+
+    public static final int DEFAULT_PORT = 4590;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAX_REQUEST = Protocol.HEADER_SIZE + 4 * Protocol.MAX_BATCH;
+    // Responses queued beyond this stop the reads of a connection
+    private static final int OUTPUT_LIMIT = Protocol.MAX_PENDING;
+
+    private final BPlusTree<IPAddress> index;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private volatile boolean running = true;
+
+    /**
+     * Creates a server for an index, listening on a loopback port
+     * @param index, the table of IPv4 blocks
+     * @param port, the port to listen on, 0 for any free port
+     * @throws IOException if the port cannot be opened
+     */
+    public LookupServer(BPlusTree<IPAddress> index, int port) throws IOException {
+        this.index = index;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        IPAddress[] table = TableLoader.load(new File(args.length > 1 ? args[1] : "ip2country.tsv"));
+        BPlusTree<IPAddress> index = new BPlusTree<>();
+
+        for(IPAddress entry : table)
+            if(!entry.isIPv4())
+                throw new IllegalArgumentException("Only IPv4 tables are served: " + entry);
+        index.bulkLoad(table);
+
+        LookupServer lookup = new LookupServer(index, port);
+        System.out.println("Serving " + index.size() + " blocks on port " + lookup.port());
+        lookup.run();
+    }
+
+    /**
+     * Returns the port the server listens on
+     * @return int, the local port
+     * @throws IOException if the port cannot be read
+     */
+    public int port() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Stops the selector loop and closes every connection
+     */
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Runs the selector loop until the server is closed
+     */
+    public void run() {
+        try {
+            while(running) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while(keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if(key.isAcceptable())
+                            accept();
+                        else
+                            ((Connection) key.attachment()).handle(key);
+                    }
+                    catch(IOException e) {
+                        // A broken or misbehaving client only loses its own connection
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            }
+        }
+        catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            for(SelectionKey key : selector.keys())
+                try {
+                    key.channel().close();
+                }
+                catch(IOException e) {
+                }
+            try {
+                selector.close();
+            }
+            catch(IOException e) {
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if(channel == null)
+            return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+    }
+
+    /*
+     * Buffers of one client connection. Requests are answered as soon as
+     * they are complete, and the responses written as far as the socket
+     * takes them.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final ByteBuffer input = ByteBuffer.allocateDirect(MAX_REQUEST);
+        private ByteBuffer output = ByteBuffer.allocateDirect(1 << 16);
+
+        public Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        public void handle(SelectionKey key) throws IOException {
+            if(key.isReadable()) {
+                if(channel.read(input) < 0)
+                    throw new IOException("Connection closed");
+                input.flip();
+                while(answer())
+                    ;
+                input.compact();
+            }
+
+            output.flip();
+            channel.write(output);
+            output.compact();
+
+            // Stop reading while the client is not taking its responses
+            boolean pending = output.position() > 0;
+            key.interestOps((pending ? SelectionKey.OP_WRITE : 0) |
+                    (output.position() < OUTPUT_LIMIT ? SelectionKey.OP_READ : 0));
+        }
+
+        // Answers the request at the front of the input, if it is complete
+        private boolean answer() throws IOException {
+            if(input.remaining() < Protocol.HEADER_SIZE)
+                return false;
+            int start = input.position();
+            byte op = input.get(start);
+            int n = input.getInt(start + 1);
+
+            if(op == Protocol.LOOKUP) {
+                if(n < 0 || n > Protocol.MAX_BATCH)
+                    throw new IOException("Bad batch size " + n);
+                if(input.remaining() < Protocol.HEADER_SIZE + 4 * n)
+                    return false;
+                input.position(start + Protocol.HEADER_SIZE);
+                reserve(Protocol.HEADER_SIZE + Protocol.ANSWER_SIZE * n);
+                output.put(Protocol.LOOKUP).putInt(n);
+                for(int i = 0; i < n; i++)
+                    lookup(input.getInt());
+                return true;
+            }
+            if(op == Protocol.COUNTRIES) {
+                input.position(start + Protocol.HEADER_SIZE);
+                countries(Math.max(n, 1));
+                return true;
+            }
+            throw new IOException("Bad request " + op);
+        }
+
+        private void lookup(int address) {
+            IPAddress block = index.floor(address);
+
+            if(block == null) {
+                output.putInt(0).putShort(Protocol.NOT_FOUND).putShort((short) 0).putShort((short) 0);
+                return;
+            }
+            output.putInt(block.intKey()).putShort(block.getCountryId())
+                    .putShort((short) Math.round(block.getLatitude() * IPAddress.COORDINATE_SCALE))
+                    .putShort((short) Math.round(block.getLongitude() * IPAddress.COORDINATE_SCALE));
+        }
+
+        private void countries(int first) {
+            int last = Countries.size();
+            int count = Math.max(0, last - first + 1);
+            byte[][] names = new byte[count][];
+            int bytes = Protocol.HEADER_SIZE;
+
+            for(int i = 0; i < count; i++) {
+                names[i] = Countries.name(first + i).getBytes(UTF8);
+                bytes += 2 + names[i].length;
+            }
+            reserve(bytes);
+            output.put(Protocol.COUNTRIES).putInt(count);
+            for(byte[] name : names)
+                output.putShort((short) name.length).put(name);
+        }
+
+        // Grows the output buffer to take another response
+        private void reserve(int bytes) {
+            if(output.remaining() >= bytes)
+                return;
+            int capacity = output.capacity();
+            while(capacity - output.position() < bytes)
+                capacity *= 2;
+            ByteBuffer larger = ByteBuffer.allocateDirect(capacity);
+            output.flip();
+            larger.put(output);
+            output = larger;
+        }
+    }
+}
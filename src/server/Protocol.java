@@ -0,0 +1,42 @@
+package server;
+
+/**
+ * Binary protocol of the lookup server. All numbers are big-endian.
+ * A client may send requests before reading the responses, which come
+ * back in request order, as long as the response bytes it has not read
+ * stay within MAX_PENDING. The server stops reading a connection with that
+ * much queued, so a client writing past it while not reading would wait
+ * on the server forever.
+ *
+ * Lookup request:   byte LOOKUP, int n, then n IPv4 addresses as ints
+ * Lookup response:  byte LOOKUP, int n, then for each address the int
+ *                   start of its block, the short country id, and the
+ *                   latitude and longitude as shorts in hundredths of a
+ *                   degree. The country id is NOT_FOUND for addresses
+ *                   below the first block.
+ *
+ * Countries request:  byte COUNTRIES, int first id wanted
+ * Countries response: byte COUNTRIES, int n, then n names, each as a
+ *                     short length and UTF-8 bytes, for consecutive ids
+ *                     from the first one up to the last registered
+ *
+ * @author Ruben Ramirez
+ */
+
+final class Protocol {
+
+    public static final byte LOOKUP = 1;
+    public static final byte COUNTRIES = 2;
+
+    public static final short NOT_FOUND = -1;
+
+    // Largest batch in one request, which bounds the buffers on both ends
+    public static final int MAX_BATCH = 1 << 14;
+    public static final int ANSWER_SIZE = 10;
+    public static final int HEADER_SIZE = 5;
+    // Most response bytes a client may leave unread, at least one full batch
+    public static final int MAX_PENDING = 1 << 20;
+
+    private Protocol() {
+    }
+}